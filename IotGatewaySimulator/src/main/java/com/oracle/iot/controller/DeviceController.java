@@ -1,9 +1,16 @@
 package com.oracle.iot.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Controller;
@@ -11,25 +18,43 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oracle.iot.dao.DeviceDaoInMemory;
 import com.oracle.iot.model.Common;
 import com.oracle.iot.model.IOTDevice;
+import com.oracle.iot.service.ActivationService;
+import com.oracle.iot.service.DeviceImportService;
 import com.oracle.iot.service.DeviceService;
 import com.oracle.iot.service.MessagingService;
+import com.oracle.iot.service.MetricStreamService;
 import com.oracle.iot.service.SystemConfigService;
+import com.oracle.iot.util.Constants;
 
 @Controller
 public class DeviceController {
 
 	Logger log = Logger.getLogger(DeviceController.class);
 
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final int STREAM_RETRY_MILLIS = 2000;
+	private static final String PICTURE_CACHE_CONTROL = "public, max-age=31536000";
+
 	@Resource
 	private DeviceService deviceService;
 	@Resource
 	private MessagingService messagingService;
 	@Resource
 	private SystemConfigService systemConfigService;
+	@Resource
+	private ActivationService activationService;
+	@Resource
+	private DeviceImportService deviceImportService;
+	@Resource
+	private MetricStreamService metricStreamService;
 
 	@RequestMapping(value = "/device", method = RequestMethod.POST)
 	@ResponseBody
@@ -43,16 +68,206 @@ public class DeviceController {
 
 		IOTDevice currentDevice = deviceService.getDevice(id);
 		if (currentDevice == null) {
-			return deviceService.create(device.get("type").toString(), id, secret);
+			boolean created = deviceService.create(device.get("type").toString(), id, secret);
+			if (created && device.get("interval") != null) {
+				deviceService.setReportInterval(id, toMillis(device.get("interval").toString()));
+			}
+			return created;
 		} else {
 			return false;
 		}
 	}
 
+	@RequestMapping(value = "/device/{id}/interval/{seconds:.+}", method = RequestMethod.PUT)
+	@ResponseBody
+	public Boolean setReportInterval(@PathVariable String id, @PathVariable String seconds) {
+		return deviceService.setReportInterval(id, toMillis(seconds));
+	}
+
+	private Long toMillis(String seconds) {
+		Double value = Constants.doubleOrNull(seconds);
+		if (value == null || value <= 0) {
+			// clears the device's own interval, falling back to its type
+			return null;
+		}
+		return Math.round(value * 1000);
+	}
+
+	/**
+	 * Creates devices from a CSV request body in the device_batch.csv layout,
+	 * read as it arrives.
+	 */
+	@RequestMapping(value = "/device/import", method = RequestMethod.POST)
+	@ResponseBody
+	public Map<String, Object> importDevices(@RequestParam(required = false) String type, HttpServletRequest request)
+			throws IOException {
+		return deviceImportService.importCsv(request.getInputStream(), type);
+	}
+
+	/**
+	 * Creates a fleet from a type, count, id pattern and secret mode, e.g.
+	 * {"type":"hvac","count":20000,"pattern":"hvac-{00000}","secretMode":"fixed","secret":"X"}.
+	 */
+	@RequestMapping(value = "/device/generate", method = RequestMethod.POST)
+	@ResponseBody
+	public Map<String, Object> generateDevices(@RequestBody Map<String, Object> request) throws InterruptedException {
+		Object count = request.get("count");
+		Object secret = request.get("secret");
+		Object secretMode = request.get("secretMode");
+		if (secretMode == null) {
+			secretMode = secret == null ? DeviceService.SECRET_RANDOM : DeviceService.SECRET_FIXED;
+		}
+		try {
+			return deviceService.generate((String) request.get("type"),
+					count == null ? null : Integer.valueOf(count.toString()), (String) request.get("pattern"),
+					secret == null ? null : secret.toString(), secretMode.toString());
+		} catch (IllegalArgumentException e) {
+			Map<String, Object> error = new LinkedHashMap<String, Object>();
+			error.put("error", e.getMessage());
+			return error;
+		}
+	}
+
+	/**
+	 * Activates the devices listed under "ids", or all of them, streaming one
+	 * JSON line per device as it finishes and a summary line at the end.
+	 */
+	@RequestMapping(value = "/device/activate", method = RequestMethod.POST)
+	public void activateDevices(@RequestBody(required = false) Map<String, Object> request,
+			HttpServletResponse response) throws IOException, InterruptedException {
+		@SuppressWarnings("unchecked")
+		List<String> ids = request == null ? null : (List<String>) request.get("ids");
+		response.setContentType("application/x-ndjson");
+		response.setCharacterEncoding("UTF-8");
+		final OutputStream out = response.getOutputStream();
+		Map<String, Object> summary = activationService.activate(ids, new ActivationService.Listener() {
+			@Override
+			public void onResult(Map<String, Object> result) {
+				writeLine(out, result);
+			}
+		});
+		summary.put("done", true);
+		writeLine(out, summary);
+	}
+
+	private void writeLine(OutputStream out, Map<String, Object> line) {
+		// results arrive from several activation threads
+		synchronized (out) {
+			try {
+				out.write(mapper.writeValueAsBytes(line));
+				out.write('\n');
+				out.flush();
+			} catch (IOException e) {
+				// the client went away, the activation carries on regardless
+				log.debug("Could not stream activation progress", e);
+			}
+		}
+	}
+
+	/**
+	 * Server-sent events with the metric values that changed on every tick
+	 * of the devices listed in "ids", or of all devices; a watched device's
+	 * current values come first. Asynchronous, no request thread waits on a
+	 * watcher; the stream ends after five minutes and EventSource reconnects.
+	 */
+	@RequestMapping(value = "/device/stream", method = RequestMethod.GET)
+	public SseEmitter streamMetrics(@RequestParam(required = false) String ids, HttpServletResponse response)
+			throws IOException {
+		List<String> watched = null;
+		if (ids != null && ids.trim().length() > 0) {
+			watched = new ArrayList<String>();
+			for (String id : ids.split(",")) {
+				watched.add(id.trim());
+			}
+		}
+		response.setHeader("Cache-Control", "no-cache");
+		// times out with the async default of servlet-context.xml
+		final SseEmitter emitter = new SseEmitter();
+		final MetricStreamService.Subscription subscription = metricStreamService.subscribe(watched,
+				new MetricStreamService.Sink() {
+					@Override
+					public void send(String event) throws IOException {
+						emitter.send(SseEmitter.event().name("metrics").data(event));
+					}
+
+					@Override
+					public void keepAlive() throws IOException {
+						emitter.send(SseEmitter.event().comment("keepalive"));
+					}
+				});
+		Runnable unsubscribe = new Runnable() {
+			@Override
+			public void run() {
+				metricStreamService.unsubscribe(subscription);
+			}
+		};
+		emitter.onCompletion(unsubscribe);
+		emitter.onTimeout(unsubscribe);
+		emitter.send(SseEmitter.event().reconnectTime(STREAM_RETRY_MILLIS));
+		if (watched != null) {
+			for (String id : watched) {
+				IOTDevice device = deviceService.getDevice(id);
+				String snapshot = device == null ? null : metricStreamService.snapshot(device);
+				if (snapshot != null) {
+					emitter.send(SseEmitter.event().name("metrics").data(snapshot));
+				}
+			}
+		}
+		return emitter;
+	}
+
 	@RequestMapping(value = "/device/list", method = RequestMethod.GET)
 	@ResponseBody
-	public List<Map<String,Object>> listDevices() {
-		return deviceService.findAll();
+	public List<Map<String,Object>> listDevices(@RequestParam(required = false) String type,
+			@RequestParam(required = false) String prefix, @RequestParam(required = false) Long cursor,
+			@RequestParam(required = false) Integer limit, @RequestParam(required = false) String fields,
+			HttpServletResponse response) {
+		DeviceDaoInMemory.Page page = deviceService.findPage(cursor, limit, type, prefix);
+		// the body stays a plain array for the UI, paging goes in the headers
+		response.setHeader("X-Total-Count", String.valueOf(deviceService.count(type, prefix)));
+		if (page.getNext() != null) {
+			response.setHeader("X-Next-Cursor", page.getNext().toString());
+		}
+		List<String> projection = DeviceService.LIST_FIELDS;
+		if (fields != null && fields.trim().length() > 0) {
+			projection = Arrays.asList(fields.trim().split("\\s*,\\s*"));
+		}
+		return deviceService.toRows(page.getDevices(), projection);
+	}
+
+	/**
+	 * Count, min, max, mean, variance and percentiles of every value across
+	 * all devices of the type right now.
+	 */
+	@RequestMapping(value = "/device/types/{name}/stats", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> getTypeStats(@PathVariable String name) {
+		return deviceService.getTypeStats(name);
+	}
+
+	/**
+	 * The type's picture, cacheable for good since its URL carries the tag.
+	 */
+	@RequestMapping(value = "/device/types/{name}/picture", method = RequestMethod.GET)
+	public void getPicture(@PathVariable String name, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		DeviceService.Picture picture = deviceService.getPicture(name);
+		if (picture == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String etag = "\"" + picture.getEtag() + "\"";
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", PICTURE_CACHE_CONTROL);
+		if (etag.equals(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		response.setContentType(picture.getContentType());
+		response.setContentLength(picture.getBytes().length);
+		OutputStream out = response.getOutputStream();
+		out.write(picture.getBytes());
+		out.flush();
 	}
 
 	@RequestMapping(value = "/device/{id}", method = RequestMethod.DELETE)
@@ -67,6 +282,20 @@ public class DeviceController {
 		return deviceService.getDevice(id);
 	}
 
+	/**
+	 * The device's recorded values of one metric, by metric or display name,
+	 * between two epoch milliseconds, averaged per {@code step} milliseconds
+	 * when one is given.
+	 */
+	@RequestMapping(value = "/device/{id}/history", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> getHistory(@PathVariable String id, @RequestParam String metric,
+			@RequestParam(required = false) Long from, @RequestParam(required = false) Long to,
+			@RequestParam(required = false) Long step) {
+		return deviceService.getHistory(id, metric, from == null ? 0 : from,
+				to == null ? System.currentTimeMillis() : to, step == null ? 0 : step);
+	}
+
 	@RequestMapping(value = "/device/{id}/alerts/{alert}", method = RequestMethod.PUT)
 	@ResponseBody
 	public Boolean sendAlert(@PathVariable String id,@PathVariable String alert) {
@@ -5,19 +5,24 @@ import java.util.Map;
 
 import javax.annotation.Resource;
 
+import org.apache.log4j.Logger;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.oracle.iot.model.SpreadStrategy;
 import com.oracle.iot.service.DeviceService;
 import com.oracle.iot.service.MessagingService;
+import com.oracle.iot.service.SendMetricsService;
 import com.oracle.iot.service.SystemConfigService;
 
 @Controller
 public class SystemConfigController {
 
+	private static final Logger log = Logger.getLogger(SystemConfigController.class);
+
 	@Resource
 	private SystemConfigService systemConfigService;
 
@@ -27,6 +32,19 @@ public class SystemConfigController {
 	@Resource
 	private DeviceService deviceService;
 
+	@Resource
+	private SendMetricsService sendMetricsService;
+
+	/**
+	 * Latency per send stage in milliseconds, message, status and exception
+	 * counts, and the report tick duration and lag.
+	 */
+	@RequestMapping(value = "/system/metrics", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> getMetrics() {
+		return sendMetricsService.snapshot();
+	}
+
 	@RequestMapping(value = "/system/config", method = RequestMethod.GET)
 	@ResponseBody
 	public Map<String, Object> getHost() {
@@ -36,6 +54,29 @@ public class SystemConfigController {
 		result.put("sendingMessages", systemConfigService.getMessageStatus());
 		result.put("username", systemConfigService.getUsername());
 		result.put("password", systemConfigService.getPassword());
+		result.put("maxConcurrentSends", systemConfigService.getMaxConcurrentSends());
+		result.put("dispatchTimeout", systemConfigService.getDispatchTimeout());
+		result.put("spreadStrategy", systemConfigService.getSpreadStrategy().toString());
+		result.put("spreadJitter", systemConfigService.getSpreadJitter());
+		result.put("tokenRefreshMargin", systemConfigService.getTokenRefreshMargin());
+		result.put("httpMaxConnections", systemConfigService.getHttpMaxConnections());
+		result.put("httpMaxConnectionsPerRoute", systemConfigService.getHttpMaxConnectionsPerRoute());
+		result.put("httpConnectTimeout", systemConfigService.getHttpConnectTimeout());
+		result.put("httpReadTimeout", systemConfigService.getHttpReadTimeout());
+		result.put("httpIdleTimeout", systemConfigService.getHttpIdleTimeout());
+		result.put("batchMaxMessages", systemConfigService.getBatchMaxMessages());
+		result.put("batchMaxBytes", systemConfigService.getBatchMaxBytes());
+		result.put("batchLinger", systemConfigService.getBatchLinger());
+		result.put("keyPoolDepth", systemConfigService.getKeyPoolDepth());
+		result.put("activationParallelism", systemConfigService.getActivationParallelism());
+		result.put("activationPolicyConcurrency", systemConfigService.getActivationPolicyConcurrency());
+		result.put("activationSignConcurrency", systemConfigService.getActivationSignConcurrency());
+		result.put("activationPostConcurrency", systemConfigService.getActivationPostConcurrency());
+		result.put("historyRetention", systemConfigService.getHistoryRetention());
+		result.put("historyMaxMegabytes", systemConfigService.getHistoryMaxMegabytes());
+		result.put("gatewayMode", systemConfigService.getGatewayMode());
+		result.put("gatewayId", systemConfigService.getGatewayId());
+		result.put("gatewaySecret", systemConfigService.getGatewaySecret());
 		return result;
 	}
 
@@ -47,7 +88,107 @@ public class SystemConfigController {
 		systemConfigService.setMessageStatus((Boolean) config.get("sendingMessages"));
 		systemConfigService.setUsername((String) config.get("username"));
 		systemConfigService.setPassword((String) config.get("password"));
+		if (config.get("maxConcurrentSends") != null) {
+			systemConfigService.setMaxConcurrentSends((Integer) config.get("maxConcurrentSends"));
+		}
+		if (config.get("dispatchTimeout") != null) {
+			systemConfigService.setDispatchTimeout((Integer) config.get("dispatchTimeout"));
+		}
+		boolean respread = false;
+		if (config.get("spreadStrategy") != null) {
+			SpreadStrategy strategy = SpreadStrategy.fromString((String) config.get("spreadStrategy"));
+			if (strategy == null) {
+				log.warn("Ignoring unknown spread strategy " + config.get("spreadStrategy"));
+			} else {
+				respread = strategy != systemConfigService.getSpreadStrategy();
+				systemConfigService.setSpreadStrategy(strategy);
+			}
+		}
+		if (config.get("spreadJitter") != null) {
+			systemConfigService.setSpreadJitter((Integer) config.get("spreadJitter"));
+		}
+		if (config.get("tokenRefreshMargin") != null) {
+			systemConfigService.setTokenRefreshMargin((Integer) config.get("tokenRefreshMargin"));
+		}
+		if (config.get("httpMaxConnections") != null) {
+			systemConfigService.setHttpMaxConnections((Integer) config.get("httpMaxConnections"));
+		}
+		if (config.get("httpMaxConnectionsPerRoute") != null) {
+			systemConfigService.setHttpMaxConnectionsPerRoute((Integer) config.get("httpMaxConnectionsPerRoute"));
+		}
+		if (config.get("httpConnectTimeout") != null) {
+			systemConfigService.setHttpConnectTimeout((Integer) config.get("httpConnectTimeout"));
+		}
+		if (config.get("httpReadTimeout") != null) {
+			systemConfigService.setHttpReadTimeout((Integer) config.get("httpReadTimeout"));
+		}
+		if (config.get("httpIdleTimeout") != null) {
+			systemConfigService.setHttpIdleTimeout((Integer) config.get("httpIdleTimeout"));
+		}
+		messagingService.applyHttpConfig();
+		if (config.get("batchMaxMessages") != null) {
+			systemConfigService.setBatchMaxMessages((Integer) config.get("batchMaxMessages"));
+		}
+		if (config.get("batchMaxBytes") != null) {
+			systemConfigService.setBatchMaxBytes((Integer) config.get("batchMaxBytes"));
+		}
+		if (config.get("batchLinger") != null) {
+			systemConfigService.setBatchLinger((Integer) config.get("batchLinger"));
+		}
+		if (config.get("keyPoolDepth") != null) {
+			systemConfigService.setKeyPoolDepth((Integer) config.get("keyPoolDepth"));
+		}
+		if (config.get("activationParallelism") != null) {
+			systemConfigService.setActivationParallelism((Integer) config.get("activationParallelism"));
+		}
+		if (config.get("activationPolicyConcurrency") != null) {
+			systemConfigService.setActivationPolicyConcurrency((Integer) config.get("activationPolicyConcurrency"));
+		}
+		if (config.get("activationSignConcurrency") != null) {
+			systemConfigService.setActivationSignConcurrency((Integer) config.get("activationSignConcurrency"));
+		}
+		if (config.get("activationPostConcurrency") != null) {
+			systemConfigService.setActivationPostConcurrency((Integer) config.get("activationPostConcurrency"));
+		}
+		if (config.get("historyRetention") != null) {
+			systemConfigService.setHistoryRetention((Integer) config.get("historyRetention"));
+		}
+		if (config.get("historyMaxMegabytes") != null) {
+			systemConfigService.setHistoryMaxMegabytes((Integer) config.get("historyMaxMegabytes"));
+		}
+		boolean gatewayChanged = false;
+		boolean accepted = true;
+		if (config.get("gatewayId") != null) {
+			String gatewayId = (String) config.get("gatewayId");
+			gatewayChanged = !gatewayId.equals(systemConfigService.getGatewayId());
+			systemConfigService.setGatewayId(gatewayId);
+		}
+		if (config.get("gatewaySecret") != null) {
+			systemConfigService.setGatewaySecret((String) config.get("gatewaySecret"));
+		}
+		if (config.get("gatewayMode") != null) {
+			Boolean gatewayMode = (Boolean) config.get("gatewayMode");
+			if (gatewayMode && (isBlank(systemConfigService.getGatewayId())
+					|| isBlank(systemConfigService.getGatewaySecret()))) {
+				log.warn("Ignoring gateway mode without a gateway id and secret");
+				accepted = false;
+			} else {
+				gatewayChanged |= !gatewayMode.equals(systemConfigService.getGatewayMode());
+				systemConfigService.setGatewayMode(gatewayMode);
+			}
+		}
+		if (gatewayChanged) {
+			// endpoint ids belong to the gateway that registered them
+			deviceService.clearEndpoints();
+		}
+		if (respread) {
+			deviceService.respreadReports();
+		}
+
+		return accepted;
+	}
 
-		return true;
+	private static boolean isBlank(String value) {
+		return value == null || value.trim().isEmpty();
 	}
 }
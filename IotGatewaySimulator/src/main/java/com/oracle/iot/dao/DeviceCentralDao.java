@@ -1,17 +1,16 @@
 package com.oracle.iot.dao;
 
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Resource;
+
 import org.apache.log4j.Logger;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.converter.FormHttpMessageConverter;
-import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
@@ -27,6 +26,9 @@ public class DeviceCentralDao {
 	private String deviceDeleteURL = connectionURL + "/device/delete";
 	private String deviceDownloadURL = connectionURL + "/device/show";
 
+	@Resource
+	private HttpConnectionPool httpConnectionPool;
+
 	public List<Map<String, Object>> getDeviceNames() {
 		try {
 			return getRestTemplate().getForObject(deviceNamesURL, List.class);
@@ -85,13 +87,6 @@ public class DeviceCentralDao {
 	}
 
 	public RestTemplate getRestTemplate() {
-		RestTemplate restTemplate = new RestTemplate();
-		FormHttpMessageConverter formConverter = new FormHttpMessageConverter();
-		formConverter.setCharset(Charset.forName("UTF8"));
-		restTemplate.getMessageConverters().add(formConverter);
-		restTemplate.getMessageConverters().add(new MappingJackson2HttpMessageConverter());
-		// restTemplate.setRequestFactory(new
-		// HttpComponentsClientHttpRequestFactory());
-		return restTemplate;
+		return httpConnectionPool.getRestTemplate();
 	}
 }
@@ -1,55 +1,125 @@
 package com.oracle.iot.dao;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.stereotype.Repository;
 
 import com.oracle.iot.model.IOTDevice;
 
+/**
+ * Device registry shared by the scheduler and the REST API. Lookups and
+ * listing never lock; listing walks the devices in insertion order and sees
+ * concurrent changes without blocking them. Writes to the same id are
+ * serialized by a lock stripe so the id index and the ordering stay in step.
+ */
 @Repository
 public class DeviceDaoInMemory {
-	private Map<String, IOTDevice> devices = new LinkedHashMap<String, IOTDevice>();
+	private static final int STRIPES = 64;
+
+	private final ConcurrentMap<String, Registration> devices = new ConcurrentHashMap<String, Registration>();
+	private final ConcurrentSkipListMap<Long, Registration> insertionOrder = new ConcurrentSkipListMap<Long, Registration>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final Object[] locks = new Object[STRIPES];
 	// - used originally but the IOT client jar can barely handle
 	// being one device at a time :)
 	// private IOTDevice device = null;
 
+	public DeviceDaoInMemory() {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
 	public boolean exists(String id) {
 		return (this.devices.get(id) != null);
 	}
 
 	public boolean insert(IOTDevice device) {
-		if (exists(device.getId())) {
-			return false;
+		synchronized (lockFor(device.getId())) {
+			if (exists(device.getId())) {
+				return false;
+			}
+			register(device.copy());
+			return true;
+		}
+	}
+
+	public List<IOTDevice> findAll() {
+		List<IOTDevice> all = new ArrayList<IOTDevice>(devices.size());
+		for (Registration registration : insertionOrder.values()) {
+			all.add(registration.device);
 		}
-		if (this.devices.get(device.getId()) != null) {
-			throw new RuntimeException("Device exists, please remove and close properly first");
+		return all;
+	}
+
+	/**
+	 * Up to {@code limit} devices registered after the {@code cursor}, in
+	 * insertion order, of the given type and id prefix when those are set.
+	 * Walks only as far as the page needs.
+	 */
+	public Page findPage(long cursor, int limit, String type, String idPrefix) {
+		Page page = new Page();
+		for (Registration registration : insertionOrder.tailMap(cursor, false).values()) {
+			IOTDevice device = registration.device;
+			if (!matches(device, type, idPrefix)) {
+				continue;
+			}
+			if (page.devices.size() == limit) {
+				page.next = page.last;
+				break;
+			}
+			page.devices.add(device);
+			page.last = registration.sequence;
 		}
-		this.devices.put(device.getId(), device.copy());
-		return true;
+		return page;
+	}
 
+	public int count() {
+		return devices.size();
 	}
 
-	public List<IOTDevice> findAll() {
-		if (devices.size() == 0) {
-			return new ArrayList<IOTDevice>();
-		} else {
-			return new ArrayList<IOTDevice>(devices.values());
+	/**
+	 * Devices of the given type and id prefix when those are set. Walks every
+	 * device once a filter is set.
+	 */
+	public int count(String type, String idPrefix) {
+		if (type == null && idPrefix == null) {
+			return count();
 		}
+		int count = 0;
+		for (Registration registration : devices.values()) {
+			if (matches(registration.device, type, idPrefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static boolean matches(IOTDevice device, String type, String idPrefix) {
+		return (type == null || type.equals(device.getResource()))
+				&& (idPrefix == null || device.getId().startsWith(idPrefix));
 	}
 
 	public Boolean delete(String id) {
-		if (this.devices.get(id) == null)
-			return false;
-		this.devices.remove(id);
-		return true;
+		synchronized (lockFor(id)) {
+			Registration registration = this.devices.remove(id);
+			if (registration == null)
+				return false;
+			insertionOrder.remove(registration.sequence);
+			registration.device.release();
+			return true;
+		}
 	}
 
 	public IOTDevice findById(String id) {
-		if (this.devices.get(id) != null) {
-			return this.devices.get(id).copy();
+		Registration registration = this.devices.get(id);
+		if (registration != null) {
+			return registration.device.copy();
 		}
 		return null;
 	}
@@ -57,18 +127,65 @@ public class DeviceDaoInMemory {
 	public Boolean updateAll(List<IOTDevice> allDevices) {
 		boolean updated = false;
 		for (IOTDevice device : allDevices) {
-			this.devices.put(device.getId(), device.copy());
+			update(device);
 			updated = true;
 		}
 		return updated;
 	}
 
 	public Boolean update(IOTDevice update) {
-		this.devices.put(update.getId(), update.copy());
-		return true;
+		synchronized (lockFor(update.getId())) {
+			Registration registration = this.devices.get(update.getId());
+			if (registration == null) {
+				register(update.copy());
+			} else {
+				// an update keeps the device's place in the listing
+				registration.device = update.copy();
+			}
+			return true;
+		}
 	}
 
 	public void deleteAll() {
-		devices.clear();
+		for (String id : devices.keySet()) {
+			delete(id);
+		}
+	}
+
+	private void register(IOTDevice device) {
+		Registration registration = new Registration(sequence.incrementAndGet(), device);
+		devices.put(device.getId(), registration);
+		insertionOrder.put(registration.sequence, registration);
+	}
+
+	private Object lockFor(String id) {
+		return locks[(id.hashCode() & Integer.MAX_VALUE) % STRIPES];
+	}
+
+	/**
+	 * One page of devices and the cursor of the next, null after the last.
+	 */
+	public static class Page {
+		private final List<IOTDevice> devices = new ArrayList<IOTDevice>();
+		private long last;
+		private Long next;
+
+		public List<IOTDevice> getDevices() {
+			return devices;
+		}
+
+		public Long getNext() {
+			return next;
+		}
+	}
+
+	private static class Registration {
+		private final long sequence;
+		private volatile IOTDevice device;
+
+		Registration(long sequence, IOTDevice device) {
+			this.sequence = sequence;
+			this.device = device;
+		}
 	}
 }
@@ -103,6 +103,14 @@ public class DevicePropertiesLoaderDao {
 		String alertFormat = "urn:com:oracle:iot:model:devicesimulator:alert:" + name;
 		String picture = loadPicture(prop.getProperty("picture", "widget.png"));
 		PropertyDeviceDetails newDevice = new PropertyDeviceDetails(name, deviceName, dataFormat, alertFormat, picture);
+		Double reportInterval = Constants.doubleOrNull(prop.getProperty("report.interval"));
+		if (reportInterval != null) {
+			newDevice.setReportInterval(Math.round(reportInterval * 1000));
+		}
+		Double chartSize = Constants.doubleOrNull(prop.getProperty("chart.size"));
+		if (chartSize != null && chartSize >= 1) {
+			newDevice.setChartSize(chartSize.intValue());
+		}
 
 		// load metrics
 		List<String> metrics = Constants.removeWhiteSpace(Arrays.asList(prop.getProperty("metrics").split(",")));
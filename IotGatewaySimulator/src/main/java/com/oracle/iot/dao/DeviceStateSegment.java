@@ -0,0 +1,451 @@
+package com.oracle.iot.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Repository;
+
+import com.oracle.iot.model.FleetStore;
+import com.oracle.iot.model.IOTDevice;
+import com.oracle.iot.model.PropertyDevice;
+
+/**
+ * Keeps every device's identity, current values and event flags in a memory
+ * mapped file with one fixed size record per device. A device added here
+ * moves its values into its {@link Record}, which is its row from then on:
+ * the tick animates and reads the mapped file directly and the values are
+ * off the heap. A restarted simulator maps the file again and hands each
+ * record back to its device as it is, without copying or provisioning
+ * anything. Off unless the {@value #FILE_PROPERTY} system property names
+ * the file.
+ * <p>
+ * The file grows in blocks of {@value #BLOCK_RECORDS} records, each mapped
+ * on its own and never moved, so a record stays valid while others are
+ * added. A record is only read and written under its device's monitor; the
+ * segment's own monitor covers the index and adding or removing records.
+ * <p>
+ * Record layout: in-use flag, value count, event count, report interval, id,
+ * secret and type as length prefixed bytes, event bits, boolean bits, value
+ * kinds, counted kinds, values and counted values. The secret is sealed with
+ * the {@link PrivateKeyStore}'s keys and not kept at all while that store is
+ * closed. Devices with more values or events, or longer names, than a
+ * record holds stay on the heap and are not kept; the first of each type is
+ * logged.
+ */
+@Repository
+public class DeviceStateSegment {
+
+	private static final Logger log = Logger.getLogger(DeviceStateSegment.class);
+
+	public static final String FILE_PROPERTY = "iot.state.file";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x494F5453;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 64;
+	private static final int RECORD_SIZE = 768;
+	static final int BLOCK_RECORDS = 1024;
+
+	static final int MAX_VALUES = 24;
+	static final int MAX_EVENTS = 64;
+
+	private static final int USED = 0;
+	private static final int VALUE_COUNT = 1;
+	private static final int EVENT_COUNT = 2;
+	private static final int INTERVAL = 8;
+	private static final int ID = 16;
+	private static final int SECRET = 112;
+	private static final int TYPE = 272;
+	private static final int EVENTS = 320;
+	private static final int FLAGS = 328;
+	private static final int KINDS = 336;
+	private static final int TALLIED = 360;
+	private static final int VALUES = 384;
+	private static final int TALLIED_VALUES = 576;
+	private static final int ID_SIZE = 96;
+	private static final int SECRET_SIZE = 160;
+	private static final int TYPE_SIZE = 48;
+
+	private static final byte EMPTY = 0;
+	private static final byte NUMBER = 1;
+	private static final byte FLAG = 2;
+
+	@Resource
+	private PrivateKeyStore keyStore;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer header;
+	private final List<MappedByteBuffer> blocks = new ArrayList<MappedByteBuffer>();
+	private int capacity;
+	private final Map<String, Record> records = new HashMap<String, Record>();
+	private final List<Integer> free = new ArrayList<Integer>();
+	// types already warned about not fitting a record
+	private final Set<String> unfit = new HashSet<String>();
+
+	@PostConstruct
+	public void init() {
+		String path = System.getProperty(FILE_PROPERTY);
+		if (path != null && path.trim().length() > 0) {
+			open(new File(path.trim()));
+		}
+	}
+
+	public synchronized void open(File location) {
+		try {
+			if (location.getParentFile() != null) {
+				location.getParentFile().mkdirs();
+			}
+			file = new RandomAccessFile(location, "rw");
+			boolean existing = file.length() >= HEADER_SIZE;
+			header = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			capacity = BLOCK_RECORDS;
+			if (existing) {
+				if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+					log.warn("Ignoring device state in " + location + ", it was written by another version");
+					existing = false;
+				} else {
+					capacity = Math.max(BLOCK_RECORDS, header.getInt(12));
+				}
+			}
+			blocks.clear();
+			while (blocks.size() * BLOCK_RECORDS < capacity) {
+				mapBlock();
+			}
+			capacity = blocks.size() * BLOCK_RECORDS;
+			header.putInt(0, MAGIC);
+			header.putInt(4, VERSION);
+			header.putInt(8, RECORD_SIZE);
+			header.putInt(12, capacity);
+			records.clear();
+			free.clear();
+			for (int i = capacity - 1; i >= 0; i--) {
+				Record record = record(i);
+				if (existing && record.block.get(record.offset + USED) == 1) {
+					// this run's aggregates start out empty
+					for (int slot = 0; slot < MAX_VALUES; slot++) {
+						record.block.put(record.offset + TALLIED + slot, EMPTY);
+					}
+					records.put(record.getId(), record);
+				} else {
+					record.block.put(record.offset + USED, (byte) 0);
+					free.add(i);
+				}
+			}
+			if (keyStore == null || !keyStore.isOpen()) {
+				log.warn("Not keeping device secrets in " + location + ", the key store is closed");
+			}
+			log.info("Mapped device state " + location + " with " + records.size() + " devices");
+		} catch (IOException e) {
+			log.error("Could not map device state " + location, e);
+			close();
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return header != null;
+	}
+
+	/**
+	 * The records in the file, each to become the row of the device it
+	 * names.
+	 */
+	public synchronized List<Record> findAll() {
+		return new ArrayList<Record>(records.values());
+	}
+
+	/**
+	 * The record's secret, null when it was not kept or cannot be unsealed.
+	 */
+	public String getSecret(Record record) {
+		byte[] sealed = getBytes(record.block, record.offset + SECRET);
+		if (sealed.length == 0 || keyStore == null) {
+			return null;
+		}
+		byte[] secret = keyStore.unseal(sealed);
+		return secret == null ? null : new String(secret, UTF_8);
+	}
+
+	/**
+	 * Moves the device's values and events into its record, adding one the
+	 * first time the device is seen, so its tick works on the mapped file
+	 * from then on.
+	 */
+	public void attach(PropertyDevice device) {
+		Record record;
+		synchronized (this) {
+			if (header == null) {
+				return;
+			}
+			String id = device.getId();
+			String type = device.getResource();
+			if (device.getValueCount() > MAX_VALUES || device.getEventCount() > MAX_EVENTS) {
+				warnUnfit(type, "it has more than " + MAX_VALUES + " values or " + MAX_EVENTS + " events");
+				return;
+			}
+			record = records.get(id);
+			if (record == null) {
+				byte[] secret = device.getSecret() == null || keyStore == null ? null
+						: keyStore.seal(device.getSecret().getBytes(UTF_8));
+				if (!fits(id, ID_SIZE) || !fits(type, TYPE_SIZE)
+						|| (secret != null && secret.length > SECRET_SIZE - 2)) {
+					warnUnfit(type, "an id, secret or type name is too long");
+					return;
+				}
+				record = allocate();
+				if (record == null) {
+					return;
+				}
+				putBytes(record.block, record.offset + ID, id.getBytes(UTF_8));
+				putBytes(record.block, record.offset + SECRET, secret == null ? new byte[0] : secret);
+				putBytes(record.block, record.offset + TYPE, type.getBytes(UTF_8));
+				records.put(id, record);
+			}
+			record.block.put(record.offset + VALUE_COUNT, (byte) device.getValueCount());
+			record.block.put(record.offset + EVENT_COUNT, (byte) device.getEventCount());
+			putInterval(record, device);
+			record.block.put(record.offset + USED, (byte) 1);
+		}
+		device.moveTo(record);
+	}
+
+	/**
+	 * Keeps the device's own report interval, if it has a record.
+	 */
+	public synchronized void saveInterval(IOTDevice device) {
+		Record record = records.get(device.getId());
+		if (record != null) {
+			putInterval(record, device);
+		}
+	}
+
+	/**
+	 * Drops the device's record, for another device to take. Release the
+	 * device first, it must not write to the record any more.
+	 */
+	public synchronized void remove(String id) {
+		Record record = records.remove(id);
+		if (record != null) {
+			record.block.put(record.offset + USED, (byte) 0);
+			free.add(record.number);
+		}
+	}
+
+	/**
+	 * Writes the changed pages of the file out to disk.
+	 */
+	public void force() {
+		List<MappedByteBuffer> mapped;
+		synchronized (this) {
+			mapped = new ArrayList<MappedByteBuffer>(blocks);
+		}
+		for (MappedByteBuffer block : mapped) {
+			block.force();
+		}
+	}
+
+	@PreDestroy
+	public synchronized void close() {
+		try {
+			for (MappedByteBuffer block : blocks) {
+				block.force();
+			}
+			if (header != null) {
+				header.force();
+			}
+			if (file != null) {
+				file.close();
+			}
+		} catch (IOException e) {
+			log.warn("Error closing device state", e);
+		}
+		header = null;
+		file = null;
+		blocks.clear();
+		records.clear();
+		free.clear();
+	}
+
+	private void warnUnfit(String type, String reason) {
+		if (unfit.add(type)) {
+			log.warn("Not keeping devices of type " + type + " in the device state file, " + reason);
+		}
+	}
+
+	private Record allocate() {
+		if (free.isEmpty()) {
+			int grown = capacity * 2;
+			try {
+				while (blocks.size() * BLOCK_RECORDS < grown) {
+					mapBlock();
+				}
+			} catch (IOException e) {
+				log.error("Could not grow device state to " + grown + " devices", e);
+				return null;
+			}
+			grown = blocks.size() * BLOCK_RECORDS;
+			for (int i = grown - 1; i >= capacity; i--) {
+				free.add(i);
+			}
+			capacity = grown;
+			header.putInt(12, capacity);
+		}
+		return record(free.remove(free.size() - 1));
+	}
+
+	private void mapBlock() throws IOException {
+		long start = HEADER_SIZE + (long) blocks.size() * BLOCK_RECORDS * RECORD_SIZE;
+		blocks.add(file.getChannel().map(FileChannel.MapMode.READ_WRITE, start, (long) BLOCK_RECORDS * RECORD_SIZE));
+	}
+
+	private Record record(int number) {
+		return new Record(blocks.get(number / BLOCK_RECORDS), (number % BLOCK_RECORDS) * RECORD_SIZE, number);
+	}
+
+	private static void putInterval(Record record, IOTDevice device) {
+		Long interval = device.getOwnReportInterval();
+		record.block.putLong(record.offset + INTERVAL, interval == null ? -1 : interval);
+	}
+
+	private static boolean fits(String value, int size) {
+		return value != null && value.getBytes(UTF_8).length <= size - 2;
+	}
+
+	private static void putBytes(ByteBuffer buffer, int offset, byte[] bytes) {
+		buffer.putShort(offset, (short) bytes.length);
+		ByteBuffer target = buffer.duplicate();
+		target.position(offset + 2);
+		target.put(bytes);
+	}
+
+	private static byte[] getBytes(ByteBuffer buffer, int offset) {
+		byte[] bytes = new byte[buffer.getShort(offset)];
+		ByteBuffer source = buffer.duplicate();
+		source.position(offset + 2);
+		source.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * A device's record, and the device's row while it is in the file.
+	 */
+	public static class Record extends FleetStore.Row {
+		private final ByteBuffer block;
+		private final int offset;
+		private final int number;
+
+		Record(ByteBuffer block, int offset, int number) {
+			this.block = block;
+			this.offset = offset;
+			this.number = number;
+		}
+
+		public String getId() {
+			return new String(getBytes(block, offset + ID), UTF_8);
+		}
+
+		public String getType() {
+			return new String(getBytes(block, offset + TYPE), UTF_8);
+		}
+
+		public Long getReportInterval() {
+			long interval = block.getLong(offset + INTERVAL);
+			return interval < 0 ? null : interval;
+		}
+
+		@Override
+		public int getValueCount() {
+			return block.get(offset + VALUE_COUNT);
+		}
+
+		@Override
+		public int getEventCount() {
+			return block.get(offset + EVENT_COUNT);
+		}
+
+		@Override
+		public boolean isNumber(int slot) {
+			return block.get(offset + KINDS + slot) == NUMBER;
+		}
+
+		@Override
+		public boolean isFlag(int slot) {
+			return block.get(offset + KINDS + slot) == FLAG;
+		}
+
+		@Override
+		public double getNumber(int slot) {
+			return block.getDouble(offset + VALUES + slot * 8);
+		}
+
+		@Override
+		public boolean getFlag(int slot) {
+			return (block.getLong(offset + FLAGS) & (1L << slot)) != 0;
+		}
+
+		@Override
+		public boolean isActive(int event) {
+			return (block.getLong(offset + EVENTS) & (1L << event)) != 0;
+		}
+
+		@Override
+		public void setNumber(int slot, double value) {
+			block.put(offset + KINDS + slot, NUMBER);
+			block.putDouble(offset + VALUES + slot * 8, value);
+		}
+
+		// the bits are this record's alone and written under the device's
+		// monitor, a plain read and write will do
+		@Override
+		public void setFlag(int slot, boolean value) {
+			block.put(offset + KINDS + slot, FLAG);
+			setBit(offset + FLAGS, slot, value);
+		}
+
+		@Override
+		public void setEmpty(int slot) {
+			block.put(offset + KINDS + slot, EMPTY);
+		}
+
+		@Override
+		public void setActive(int event, boolean active) {
+			setBit(offset + EVENTS, event, active);
+		}
+
+		@Override
+		protected byte getTallied(int slot) {
+			return block.get(offset + TALLIED + slot);
+		}
+
+		@Override
+		protected double getTalliedValue(int slot) {
+			return block.getDouble(offset + TALLIED_VALUES + slot * 8);
+		}
+
+		@Override
+		protected void setTallied(int slot, byte kind, double value) {
+			block.put(offset + TALLIED + slot, kind);
+			block.putDouble(offset + TALLIED_VALUES + slot * 8, value);
+		}
+
+		private void setBit(int position, int bit, boolean value) {
+			long bits = block.getLong(position);
+			block.putLong(position, value ? bits | (1L << bit) : bits & ~(1L << bit));
+		}
+	}
+}
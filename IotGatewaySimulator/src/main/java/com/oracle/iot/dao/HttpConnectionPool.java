@@ -0,0 +1,115 @@
+package com.oracle.iot.dao;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.log4j.Logger;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.FormHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import com.oracle.iot.service.SystemConfigService;
+
+/**
+ * One pooled, keep-alive HTTP client shared by every outbound call, so a send
+ * reuses an open TLS connection instead of handshaking again. Pool limits and
+ * timeouts follow {@link SystemConfigService}, applied to the live pool by
+ * {@link #applyConfig()} whenever the configuration changes.
+ */
+@Component
+public class HttpConnectionPool {
+
+	private static final Logger log = Logger.getLogger(HttpConnectionPool.class);
+
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	private PoolingHttpClientConnectionManager connectionManager;
+	private CloseableHttpClient httpClient;
+	private HttpComponentsClientHttpRequestFactory requestFactory;
+	private RestTemplate restTemplate;
+	private Integer connectTimeout;
+	private Integer readTimeout;
+
+	@PostConstruct
+	public void init() {
+		connectionManager = new PoolingHttpClientConnectionManager();
+		// a pooled connection the server closed is checked before it is reused
+		connectionManager.setValidateAfterInactivity(2000);
+		httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE).build();
+		requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+
+		restTemplate = new RestTemplate(requestFactory);
+		FormHttpMessageConverter formConverter = new FormHttpMessageConverter();
+		formConverter.setCharset(Charset.forName("UTF8"));
+		restTemplate.getMessageConverters().add(formConverter);
+		restTemplate.getMessageConverters().add(new MappingJackson2HttpMessageConverter());
+		applyConfig();
+	}
+
+	// no locking here, sends on every worker go through it
+	public RestTemplate getRestTemplate() {
+		return restTemplate;
+	}
+
+	/**
+	 * Brings the pool limits and timeouts up to the configuration, touching
+	 * only the settings that changed.
+	 */
+	public synchronized void applyConfig() {
+		Integer maxTotal = systemConfigService.getHttpMaxConnections();
+		Integer maxPerRoute = systemConfigService.getHttpMaxConnectionsPerRoute();
+		if (maxTotal != null && maxTotal > 0 && maxTotal != connectionManager.getMaxTotal()) {
+			connectionManager.setMaxTotal(maxTotal);
+		}
+		if (maxPerRoute != null && maxPerRoute > 0 && maxPerRoute != connectionManager.getDefaultMaxPerRoute()) {
+			connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		}
+		Integer connectTimeout = systemConfigService.getHttpConnectTimeout();
+		Integer readTimeout = systemConfigService.getHttpReadTimeout();
+		if (connectTimeout != null && !connectTimeout.equals(this.connectTimeout)) {
+			requestFactory.setConnectTimeout(connectTimeout);
+			// waiting for a free pooled connection counts as connecting
+			requestFactory.setConnectionRequestTimeout(connectTimeout);
+			this.connectTimeout = connectTimeout;
+		}
+		if (readTimeout != null && !readTimeout.equals(this.readTimeout)) {
+			requestFactory.setReadTimeout(readTimeout);
+			this.readTimeout = readTimeout;
+		}
+	}
+
+	PoolingHttpClientConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	@Scheduled(fixedDelay = 5000)
+	public void evictIdleConnections() {
+		connectionManager.closeExpiredConnections();
+		Integer idleTimeout = systemConfigService.getHttpIdleTimeout();
+		if (idleTimeout != null && idleTimeout > 0) {
+			connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		try {
+			httpClient.close();
+		} catch (Exception e) {
+			log.warn("Error closing http client", e);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package com.oracle.iot.dao;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import com.oracle.iot.service.SystemConfigService;
+
+/**
+ * Key pairs generated ahead of activation on background threads, one per
+ * core, so enrolling many devices does not wait on RSA key generation. The
+ * pool keeps the configured number of pairs of the algorithm and size the
+ * activation policy last asked for; a policy asking for something else
+ * empties it and generates that instead. When the pool runs dry, callers
+ * generate their own pair, no more than one per core at a time.
+ */
+@Component
+public class KeyPairPool {
+
+	private static final Logger log = Logger.getLogger(KeyPairPool.class);
+
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	private ExecutorService generators;
+	private volatile Spec spec;
+	private final BlockingQueue<KeyPair> pairs = new LinkedBlockingQueue<KeyPair>();
+	// pairs queued plus pairs being generated
+	private final AtomicInteger supply = new AtomicInteger();
+	private final Semaphore callerGenerations = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+	@PostConstruct
+	public void init() {
+		generators = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "keypair-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * A key pair of the given algorithm and size, from the pool when it has
+	 * one, generated on the spot otherwise.
+	 */
+	public KeyPair take(String algorithm, int keySize) throws GeneralSecurityException {
+		Spec wanted = new Spec(algorithm, keySize);
+		KeyPair pair;
+		synchronized (this) {
+			if (!wanted.equals(spec)) {
+				spec = wanted;
+				supply.addAndGet(-pairs.size());
+				pairs.clear();
+			}
+			pair = poll(wanted);
+		}
+		refill();
+		if (pair != null) {
+			return pair;
+		}
+		callerGenerations.acquireUninterruptibly();
+		try {
+			// the background threads may have caught up while this one waited
+			pair = poll(wanted);
+			return pair != null ? pair : wanted.generate();
+		} finally {
+			callerGenerations.release();
+		}
+	}
+
+	private synchronized KeyPair poll(Spec wanted) {
+		if (!wanted.equals(spec)) {
+			return null;
+		}
+		KeyPair pair = pairs.poll();
+		if (pair != null) {
+			supply.decrementAndGet();
+		}
+		return pair;
+	}
+
+	/**
+	 * Pairs ready to hand out.
+	 */
+	public int available() {
+		return pairs.size();
+	}
+
+	private void refill() {
+		final Spec target = spec;
+		if (target == null || generators == null) {
+			return;
+		}
+		int depth = getDepth();
+		while (true) {
+			int current = supply.get();
+			if (current >= depth) {
+				return;
+			}
+			if (!supply.compareAndSet(current, current + 1)) {
+				continue;
+			}
+			generators.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						KeyPair pair = target.generate();
+						synchronized (KeyPairPool.this) {
+							// pairs for a policy that has since changed are dropped
+							if (target.equals(spec)) {
+								pairs.add(pair);
+								return;
+							}
+						}
+					} catch (Exception e) {
+						log.error("Could not generate a " + target + " key pair", e);
+					}
+					supply.decrementAndGet();
+				}
+			});
+		}
+	}
+
+	private int getDepth() {
+		Integer depth = systemConfigService.getKeyPoolDepth();
+		return depth == null ? 0 : depth;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (generators != null) {
+			generators.shutdownNow();
+		}
+	}
+
+	private static class Spec {
+		private final String algorithm;
+		private final int keySize;
+
+		Spec(String algorithm, int keySize) {
+			this.algorithm = algorithm;
+			this.keySize = keySize;
+		}
+
+		KeyPair generate() throws GeneralSecurityException {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+			generator.initialize(keySize);
+			return generator.genKeyPair();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Spec)) {
+				return false;
+			}
+			Spec spec = (Spec) other;
+			return keySize == spec.keySize && algorithm.equals(spec.algorithm);
+		}
+
+		@Override
+		public int hashCode() {
+			return algorithm.hashCode() * 31 + keySize;
+		}
+
+		@Override
+		public String toString() {
+			return algorithm + "/" + keySize;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package com.oracle.iot.dao;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Component;
+
+import com.oracle.iot.service.SystemConfigService;
+import com.oracle.json.JsonObject;
+
+/**
+ * Collects outgoing messages per endpoint so they can be posted as one array.
+ * A batch is released once it holds the configured number of messages or
+ * bytes, or once its oldest message has waited the linger time. A linger of 0
+ * releases every message straight away.
+ */
+@Component
+public class MessageBatcher {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+
+	/**
+	 * Adds a message to the endpoint's batch.
+	 *
+	 * @return the batches to post now, empty while the batch is still open
+	 */
+	public List<List<JsonObject>> add(String endpointId, JsonObject message) {
+		if (getLinger() <= 0) {
+			Batch open = batches.get(endpointId);
+			List<JsonObject> lingering = open == null ? null : open.drainIfOlder(Long.MAX_VALUE);
+			if (lingering == null) {
+				return Collections.singletonList(Collections.singletonList(message));
+			}
+			// what is still lingering goes out ahead of the new message
+			List<List<JsonObject>> ordered = new ArrayList<List<JsonObject>>(2);
+			ordered.add(lingering);
+			ordered.add(Collections.singletonList(message));
+			return ordered;
+		}
+		Batch batch = batches.get(endpointId);
+		if (batch == null) {
+			Batch created = new Batch();
+			batch = batches.putIfAbsent(endpointId, created);
+			if (batch == null) {
+				batch = created;
+			}
+		}
+		int maxBytes = getMaxBytes();
+		int bytes = maxBytes > 0 ? message.toString().getBytes(UTF_8).length : 0;
+		return batch.add(message, bytes, getMaxMessages(), maxBytes);
+	}
+
+	/**
+	 * Releases every batch whose oldest message has waited the linger time,
+	 * or every non-empty batch once batching has been switched off.
+	 */
+	public Map<String, List<JsonObject>> drainExpired(long now) {
+		long linger = getLinger();
+		Map<String, List<JsonObject>> expired = new LinkedHashMap<String, List<JsonObject>>();
+		for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+			List<JsonObject> messages = entry.getValue().drainIfOlder(now - Math.max(linger, 0));
+			if (messages != null) {
+				expired.put(entry.getKey(), messages);
+			}
+		}
+		return expired;
+	}
+
+	public void discard(String endpointId) {
+		batches.remove(endpointId);
+	}
+
+	public void discardAll() {
+		batches.clear();
+	}
+
+	private long getLinger() {
+		Integer linger = systemConfigService.getBatchLinger();
+		return linger == null ? 0 : linger;
+	}
+
+	private int getMaxMessages() {
+		Integer maxMessages = systemConfigService.getBatchMaxMessages();
+		return maxMessages == null || maxMessages < 1 ? 1 : maxMessages;
+	}
+
+	private int getMaxBytes() {
+		Integer maxBytes = systemConfigService.getBatchMaxBytes();
+		return maxBytes == null ? 0 : maxBytes;
+	}
+
+	private static class Batch {
+		private List<JsonObject> messages = new ArrayList<JsonObject>();
+		private int bytes;
+		private long opened;
+
+		synchronized List<List<JsonObject>> add(JsonObject message, int size, int maxMessages, int maxBytes) {
+			List<List<JsonObject>> full = new ArrayList<List<JsonObject>>(2);
+			// a message that would push the batch over the byte limit starts
+			// the next one instead
+			if (maxBytes > 0 && !messages.isEmpty() && bytes + size > maxBytes) {
+				full.add(drain());
+			}
+			if (messages.isEmpty()) {
+				opened = System.currentTimeMillis();
+			}
+			messages.add(message);
+			bytes += size;
+			if (messages.size() >= maxMessages || (maxBytes > 0 && bytes >= maxBytes)) {
+				full.add(drain());
+			}
+			return full;
+		}
+
+		synchronized List<JsonObject> drainIfOlder(long openedBefore) {
+			if (messages.isEmpty() || opened > openedBefore) {
+				return null;
+			}
+			return drain();
+		}
+
+		private List<JsonObject> drain() {
+			List<JsonObject> drained = messages;
+			messages = new ArrayList<JsonObject>();
+			bytes = 0;
+			return drained;
+		}
+	}
+}
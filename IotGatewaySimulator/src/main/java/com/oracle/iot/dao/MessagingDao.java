@@ -6,27 +6,36 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
 
 import org.apache.commons.codec.binary.Base64;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
-import org.springframework.http.converter.FormHttpMessageConverter;
-import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oracle.iot.client.ActivationPolicyRequest;
 import com.oracle.iot.client.ActivationPolicyResponse;
 import com.oracle.iot.client.DirectActivationRequest;
 import com.oracle.iot.client.DirectActivationResponse;
-import com.oracle.iot.client.HttpClient;
-import com.oracle.iot.client.HttpClient.HttpResponse;
 import com.oracle.iot.model.AccessToken;
 import com.oracle.iot.model.IOTConnection;
+import com.oracle.iot.service.SendMetricsService;
 import com.oracle.json.Json;
 import com.oracle.json.JsonArray;
 import com.oracle.json.JsonArrayBuilder;
@@ -48,34 +57,112 @@ public class MessagingDao {
 	private final static String POLICY_URL = "/iot/api/v1/activation/policy";
 	private final static String ACTIVATION_URL = "/iot/api/v1/activation/direct";
 	private final static String MESSAGES_URL = "/iot/api/v1/messages";
-
-	private Map<String, IOTConnection> connectionMap = new LinkedHashMap<String, IOTConnection>();
+	private final static String INDIRECT_ACTIVATION_URL = "/iot/api/v1/activation/indirect/device";
+
+	private final static ObjectMapper mapper = new ObjectMapper();
+
+	@Resource
+	private HttpConnectionPool httpConnectionPool;
+
+	@Resource
+	private MessageBatcher messageBatcher;
+
+	@Resource
+	private PrivateKeyStore privateKeyStore;
+
+	@Resource
+	private KeyPairPool keyPairPool;
+
+	@Resource
+	private SendMetricsService sendMetrics;
+
+	private ConcurrentMap<String, IOTConnection> connectionMap = new ConcurrentHashMap<String, IOTConnection>();
+	// the policy only depends on the server and this host, not the device
+	private ConcurrentMap<String, ActivationPolicyResponse> policies = new ConcurrentHashMap<String, ActivationPolicyResponse>();
+	private ConcurrentMap<String, Object> activationLocks = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * The monitor to hold while activating or first authenticating an
+	 * endpoint, so only one caller does it; the others check the private key
+	 * again once they get in.
+	 */
+	public Object activationLock(String deviceId) {
+		Object lock = activationLocks.get(deviceId);
+		if (lock == null) {
+			Object created = new Object();
+			lock = activationLocks.putIfAbsent(deviceId, created);
+			if (lock == null) {
+				lock = created;
+			}
+		}
+		return lock;
+	}
 
 	public byte[] activateDevice(String deviceId) throws IOException, GeneralSecurityException {
 		IOTConnection connection = connectionMap.get(deviceId);
 		if (connection != null) {
-			ActivationPolicyResponse activationPolicyResponse = getActivationPolicy(connection);
+			ActivationPolicyResponse activationPolicyResponse = fetchActivationPolicy(deviceId);
+			KeyPair keyPair = supplyKeyPair(activationPolicyResponse);
+			DirectActivationRequest directActivationRequest = signActivation(deviceId, keyPair,
+					activationPolicyResponse);
+			postActivation(deviceId, directActivationRequest);
+			return keyPair.getPrivate().getEncoded();
+		}
+		return null;
+	}
 
-			String algorithm = activationPolicyResponse.getKeyType();
-			int keySize = activationPolicyResponse.getKeySize();
-			String signatureAlgorithm = activationPolicyResponse.getHashAlgorithm();
+	// the stages of an activation, so a bulk activation can bound each one
 
-			final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
-			keyPairGenerator.initialize(keySize);
-			KeyPair keyPair = keyPairGenerator.genKeyPair();
+	public ActivationPolicyResponse fetchActivationPolicy(String deviceId) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return getCachedActivationPolicy(getConnection(deviceId));
+		} finally {
+			sendMetrics.record(SendMetricsService.ACTIVATION_POLICY, start);
+		}
+	}
 
-			DirectActivationRequest directActivationRequest = createDirectActivationRequest(connection, keyPair,
-					signatureAlgorithm);
-			log.info("directActivationRequest: " + directActivationRequest.toString());
+	public KeyPair supplyKeyPair(ActivationPolicyResponse policy) throws GeneralSecurityException {
+		long start = System.nanoTime();
+		try {
+			return keyPairPool.take(policy.getKeyType(), policy.getKeySize());
+		} finally {
+			sendMetrics.record(SendMetricsService.ACTIVATION_KEYPAIR, start);
+		}
+	}
 
-			DirectActivationResponse directActivationResponse = postDirectActivationRequest(connection,
-					directActivationRequest, deviceId);
+	public DirectActivationRequest signActivation(String deviceId, KeyPair keyPair, ActivationPolicyResponse policy) {
+		long start = System.nanoTime();
+		DirectActivationRequest directActivationRequest = createDirectActivationRequest(getConnection(deviceId),
+				keyPair, policy.getHashAlgorithm());
+		sendMetrics.record(SendMetricsService.ACTIVATION_SIGN, start);
+		log.info("directActivationRequest: " + directActivationRequest.toString());
+		return directActivationRequest;
+	}
 
-			log.info("directActivationResponse: Endpoint state is: " + directActivationResponse.getEndpointState());
+	public void postActivation(String deviceId, DirectActivationRequest directActivationRequest)
+			throws IOException, GeneralSecurityException {
+		IOTConnection connection = getConnection(deviceId);
+		DirectActivationResponse directActivationResponse;
+		long start = System.nanoTime();
+		try {
+			directActivationResponse = postDirectActivationRequest(connection, directActivationRequest, deviceId);
+		} catch (IOException e) {
+			// the server may have changed its policy, ask again next time
+			policies.remove(policyKey(connection));
+			throw e;
+		} finally {
+			sendMetrics.record(SendMetricsService.ACTIVATION_POST, start);
+		}
+		log.info("directActivationResponse: Endpoint state is: " + directActivationResponse.getEndpointState());
+	}
 
-			return keyPair.getPrivate().getEncoded();
+	private IOTConnection getConnection(String deviceId) {
+		IOTConnection connection = connectionMap.get(deviceId);
+		if (connection == null) {
+			throw new IllegalArgumentException("No connection for " + deviceId);
 		}
-		return null;
+		return connection;
 	}
 
 	private DirectActivationResponse postDirectActivationRequest(IOTConnection connection,
@@ -92,10 +179,10 @@ public class MessagingDao {
 		headers.put("Accept", "application/json");
 		headers.put("Authorization", getAuthHeader(connection));
 
-		HttpClient.HttpResponse response = post(ACTIVATION_URL, payload, headers, connection);
-		int status = response.getStatus();
+		ResponseEntity<byte[]> response = post(ACTIVATION_URL, payload, headers, connection);
+		int status = response.getStatusCode().value();
 		if (status == 401) {
-			throw new IllegalStateException("endpoint already activated");
+			throw new AlreadyActivatedException(endpointId);
 		}
 		if (status != 200) {
 			throw new IOException("HTTP " + status);
@@ -103,7 +190,7 @@ public class MessagingDao {
 
 		JsonReader reader = null;
 		try {
-			ByteArrayInputStream is = new ByteArrayInputStream(response.getData());
+			ByteArrayInputStream is = new ByteArrayInputStream(response.getBody());
 			reader = Json.createReader(is);
 			JsonObject json = reader.readObject();
 			DirectActivationResponse directActivationResponse = DirectActivationResponse.fromJson(json);
@@ -117,6 +204,54 @@ public class MessagingDao {
 
 	}
 
+	/**
+	 * Registers a device as an indirect endpoint behind an activated gateway.
+	 *
+	 * @return the endpoint id the server assigned to the device
+	 */
+	public String registerIndirectDevice(String gatewayId, String hardwareId, String deviceModel)
+			throws IOException {
+		IOTConnection connection = connectionMap.get(gatewayId);
+		if (connection == null) {
+			throw new IllegalStateException("No connection for gateway " + gatewayId);
+		}
+		Map<String, Object> request = new LinkedHashMap<String, Object>();
+		request.put("hardwareId", hardwareId);
+		request.put("serialNumber", hardwareId);
+		request.put("manufacturer", "Oracle");
+		if (deviceModel != null) {
+			request.put("modelNumber", deviceModel);
+			request.put("deviceModels", Collections.singletonList(deviceModel));
+		}
+		byte[] payload = mapper.writeValueAsBytes(request);
+
+		final Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Content-Type", "application/json");
+		headers.put("Accept", "application/json");
+		headers.put("X-EndpointId", gatewayId);
+		headers.put("Authorization", getTokenHeader(connection));
+
+		ResponseEntity<byte[]> response = post(INDIRECT_ACTIVATION_URL, payload, headers, connection);
+		int status = response.getStatusCode().value();
+		if (status != 200 && status != 201) {
+			throw new IOException("HTTP " + status);
+		}
+
+		JsonReader reader = null;
+		try {
+			ByteArrayInputStream is = new ByteArrayInputStream(response.getBody());
+			reader = Json.createReader(is);
+			JsonObject json = reader.readObject();
+			String endpointId = json.getString("endpointId");
+			log.info("Registered " + hardwareId + " behind " + gatewayId + " as " + endpointId);
+			return endpointId;
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+
 	private String getAuthHeader(IOTConnection connection) {
 		String auth = connection.getUsername() + ":" + connection.getPassword();
 		byte[] encodedAuth = Base64.encodeBase64(auth.getBytes(Charset.forName("US-ASCII")));
@@ -124,6 +259,14 @@ public class MessagingDao {
 		return authHeader;
 	}
 
+	private String getTokenHeader(IOTConnection connection) {
+		AccessToken token = connection.getAccessToken();
+		if (token == null) {
+			return getAuthHeader(connection);
+		}
+		return token.getTokenType() + " " + token.getToken();
+	}
+
 	private DirectActivationRequest createDirectActivationRequest(IOTConnection connection, KeyPair keyPair,
 			String signatureAlgorithm) {
 		final DirectActivationRequest.SubjectPublicKeyInfo subjectPublicKeyInfo = new DirectActivationRequest.SubjectPublicKeyInfo();
@@ -144,6 +287,20 @@ public class MessagingDao {
 		return request;
 	}
 
+	private ActivationPolicyResponse getCachedActivationPolicy(IOTConnection connection) throws IOException {
+		String key = policyKey(connection);
+		ActivationPolicyResponse policy = policies.get(key);
+		if (policy == null) {
+			policy = getActivationPolicy(connection);
+			policies.put(key, policy);
+		}
+		return policy;
+	}
+
+	private static String policyKey(IOTConnection connection) {
+		return connection.getServer() + ":" + connection.getPort();
+	}
+
 	private ActivationPolicyResponse getActivationPolicy(IOTConnection connection) throws IOException {
 		Map<String, String> headers = new HashMap<String, String>();
 		headers.put("X-ActivationId", connection.getDeviceId());
@@ -155,8 +312,8 @@ public class MessagingDao {
 		String payloadString = policyRequest.toJson();
 		byte[] payload = payloadString.getBytes(IOTConnection.UTF_8);
 
-		final HttpClient.HttpResponse response = post(POLICY_URL, payload, headers, connection);
-		int status = response.getStatus();
+		final ResponseEntity<byte[]> response = post(POLICY_URL, payload, headers, connection);
+		int status = response.getStatusCode().value();
 		if (status == 401) {
 			throw new IllegalStateException(connection.getDeviceId());
 		}
@@ -166,7 +323,7 @@ public class MessagingDao {
 
 		JsonReader reader = null;
 		try {
-			ByteArrayInputStream is = new ByteArrayInputStream(response.getData());
+			ByteArrayInputStream is = new ByteArrayInputStream(response.getBody());
 			reader = Json.createReader(is);
 			JsonObject json = reader.readObject();
 			ActivationPolicyResponse activationPolicyResponse = ActivationPolicyResponse.fromJson(json);
@@ -179,45 +336,33 @@ public class MessagingDao {
 		}
 	}
 
-	private HttpResponse post(String restApi, byte[] payload, Map<String, String> headers, IOTConnection connection)
-			throws IOException {
+	private ResponseEntity<byte[]> post(String restApi, byte[] payload, Map<String, String> headers,
+			IOTConnection connection) throws IOException {
 
 		final URL url = new URL("https", connection.getServer(), connection.getPort(), restApi);
-		String url2 = url.toExternalForm();
 
-		if (connection.getToken() == null) {
-			// connection.setToken(renewAccessToken(connection));
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setAll(headers);
+		HttpEntity<byte[]> request = new HttpEntity<byte[]>(payload, httpHeaders);
+		ResponseEntity<byte[]> response;
+		long start = System.nanoTime();
+		try {
+			response = getRestTemplate().exchange(url.toExternalForm(), HttpMethod.POST, request, byte[].class);
+		} catch (HttpStatusCodeException e) {
+			// callers act on the status, an error response is not an exception
+			response = new ResponseEntity<byte[]>(e.getResponseBodyAsByteArray(), e.getStatusCode());
+		} catch (RestClientException e) {
+			sendMetrics.exception(e);
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			sendMetrics.record(SendMetricsService.HTTP_POST, start);
 		}
-		final Map<String, String> _headers = new HashMap<String, String>(headers);
-		// _headers.put("Authorization", connection.getTokenType() + " " +
-		// connection.getToken());
-		_headers.put("Authorization", getAuthHeader(connection));
-		
-		getRestTemplate().postForObject(url2, payload, Map.class,headers);
-		return null;
-
-//		final HttpClient httpClient = new HttpClient(url);
-//
-//		try {
-//			httpClient.wait((long) 30000);
-//		} catch (InterruptedException e) {
-//			log.error("Error setting timeout", e);
-//		}
-//		HttpClient.HttpResponse response = httpClient.post(payload, _headers);
-//		log.debug("POST " + url.toExternalForm() + " reponse = " + response.getStatus());
-//
-//		if (response.getStatus() == 401) {
-//			connection.setToken(renewAccessToken(connection));
-//			_headers.put("Authorization", connection.getTokenType() + " " + connection.getToken());
-//			response = httpClient.post(payload, _headers);
-//		}
-
-//		return response;
+		sendMetrics.status(response.getStatusCode().value());
+		log.debug("POST " + url.toExternalForm() + " reponse = " + response.getStatusCode());
+		return response;
 	}
 
 	private AccessToken renewAccessToken(IOTConnection connection) throws IOException {
-		URL url = new URL("https", connection.getServer(), connection.getPort(), TOKEN_URL);
-
 		HashMap<String, String> headers = new HashMap<String, String>();
 		headers.put("Content-Type", "application/x-www-form-urlencoded");
 		headers.put("Accept", "application/json");
@@ -225,15 +370,14 @@ public class MessagingDao {
 
 		log.info("POST " + TOKEN_URL);
 
-		HttpClient httpClient = new HttpClient(url);
-		HttpClient.HttpResponse response = httpClient.post(connection.getCredentialsPostData(), headers);
-		int status = response.getStatus();
+		ResponseEntity<byte[]> response = post(TOKEN_URL, connection.getCredentialsPostData(), headers, connection);
+		int status = response.getStatusCode().value();
 		if (status != 200) {
 			throw new IOException("HTTP " + status);
 		}
 
 		JsonReader reader = null;
-		final byte[] data = response.getData();
+		final byte[] data = response.getBody();
 		if (data == null || data.length == 0) {
 			throw new IOException("empty payload");
 		}
@@ -268,15 +412,22 @@ public class MessagingDao {
 		IOTConnection connection = connectionMap.get(id);
 		if (connection != null) {
 			connection.setPrivateKey(privateKey);
+			privateKeyStore.put(id, privateKey);
 		}
 	}
 
 	public void deletePrivateKey(String id) {
 		connectionMap.remove(id);
+		activationLocks.remove(id);
+		privateKeyStore.delete(id);
+		messageBatcher.discard(id);
 	}
 
 	public void deleteAll() {
 		connectionMap.clear();
+		policies.clear();
+		activationLocks.clear();
+		messageBatcher.discardAll();
 	}
 
 	// public AsyncDeviceClient getAsyncClient(String iotcsServer, Integer
@@ -289,18 +440,7 @@ public class MessagingDao {
 	// }
 
 	public RestTemplate getRestTemplate() {
-		HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory();
-        factory.setReadTimeout(20000);
-        factory.setConnectTimeout(20000);
-		
-		RestTemplate restTemplate = new RestTemplate(factory);
-		FormHttpMessageConverter formConverter = new FormHttpMessageConverter();
-		formConverter.setCharset(Charset.forName("UTF8"));
-		restTemplate.getMessageConverters().add(formConverter);
-		restTemplate.getMessageConverters().add(new MappingJackson2HttpMessageConverter());
-		// restTemplate.setRequestFactory(new
-		// HttpComponentsClientHttpRequestFactory());
-		return restTemplate;
+		return httpConnectionPool.getRestTemplate();
 	}
 
 	public void createConnection(String server, Integer port, String username, String password, String deviceId,
@@ -309,47 +449,96 @@ public class MessagingDao {
 		if (connection == null && secret != null) {
 			connection = new IOTConnection(username, password, server, port);
 			connection.addDevice(deviceId, secret);
-			connectionMap.put(deviceId, connection);
+			connectionMap.putIfAbsent(deviceId, connection);
 		}
 	}
 
 	public void sendMessage(String id, Message message) {
 		IOTConnection connection = connectionMap.get(id);
 		if (connection != null) {
-			JsonArrayBuilder jsonArrayBuilder = Json.createArrayBuilder();
+			for (List<JsonObject> batch : messageBatcher.add(id, message.toJSON())) {
+				sendBatch(connection, batch);
+			}
+		}
+	}
 
-			jsonArrayBuilder.add(message.toJSON());
+	/**
+	 * Posts the batches that have waited their linger time, one task per
+	 * endpoint so the caller decides how many run at once.
+	 */
+	public List<Callable<Boolean>> flushExpiredBatches(long now) {
+		List<Callable<Boolean>> flushes = new ArrayList<Callable<Boolean>>();
+		for (Map.Entry<String, List<JsonObject>> entry : messageBatcher.drainExpired(now).entrySet()) {
+			final IOTConnection connection = connectionMap.get(entry.getKey());
+			final List<JsonObject> batch = entry.getValue();
+			if (connection != null) {
+				flushes.add(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return sendBatch(connection, batch);
+					}
+				});
+			}
+		}
+		return flushes;
+	}
 
-			JsonArray jsonArray = jsonArrayBuilder.build();
-			if (jsonArray.isEmpty())
-				return;
+	private Boolean sendBatch(IOTConnection connection, List<JsonObject> batch) {
+		long start = System.nanoTime();
+		JsonArrayBuilder jsonArrayBuilder = Json.createArrayBuilder();
+		for (JsonObject message : batch) {
+			jsonArrayBuilder.add(message);
+		}
 
-			try {
-				log.info("sending message");
-				post(jsonArray, connection);
+		JsonArray jsonArray = jsonArrayBuilder.build();
+		if (jsonArray.isEmpty())
+			return false;
+		final byte[] payload = jsonArray.toString().getBytes(Charset.forName("UTF-8"));
+		sendMetrics.record(SendMetricsService.SERIALIZATION, start);
 
-			} catch (IOException e) {
-				log.info(e);
-			}
+		boolean sent = false;
+		try {
+			log.debug("sending " + batch.size() + " message(s)");
+			sent = post(jsonArray, payload, connection);
+			return sent;
+
+		} catch (IOException e) {
+			sendMetrics.exception(e);
+			log.info(e);
+			return false;
+		} finally {
+			sendMetrics.record(SendMetricsService.BATCH_SEND, start);
+			sendMetrics.batch(batch.size(), sent);
 		}
 	}
 
-	private Boolean post(JsonArray jsonArray, IOTConnection connection) throws IOException {
-		final byte[] payload = jsonArray.toString().getBytes(Charset.forName("UTF-8"));
+	private Boolean post(JsonArray jsonArray, byte[] payload, IOTConnection connection) throws IOException {
 
 		final Map<String, String> headers = new HashMap<String, String>();
 		headers.put("Content-Type", "application/json");
 		headers.put("Accept", "application/json");
 		headers.put("X-EndpointId", connection.getDeviceId());
-		headers.put("Authorization", getAuthHeader(connection));
+		headers.put("Authorization", getTokenHeader(connection));
+
+		ResponseEntity<byte[]> response = post(MESSAGES_URL, payload, headers, connection);
 
-		final HttpClient.HttpResponse response = post(MESSAGES_URL, payload, headers, connection);
+		if (response.getStatusCode().value() == 401 && connection.getPrivateKey() != null) {
+			// the server dropped the token early, authenticate and retry once
+			connection.invalidateToken();
+			try {
+				authenticate(connection.getPrivateKey(), connection.getDeviceId());
+			} catch (ClientException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			headers.put("Authorization", getTokenHeader(connection));
+			response = post(MESSAGES_URL, payload, headers, connection);
+		}
 
-		final int status = response.getStatus();
+		final int status = response.getStatusCode().value();
 
 		if (status == 202) {
 			JsonReader reader = null;
-			byte[] data = response.getData();
+			byte[] data = response.getBody();
 			// if data.length == 2, then it is an empty json array and there are
 			// no values in the message.
 			if (data != null && data.length > 2) {
@@ -382,20 +571,76 @@ public class MessagingDao {
 
 	public void authenticate(byte[] privateKey, String deviceId) throws ClientException {
 		IOTConnection connection = connectionMap.get(deviceId);
-		try {
-			connection.setClientCredentials(privateKey);
-			connection.setToken(renewAccessToken(connection));
+		// one renewal per connection at a time, sends and the refresher share it
+		synchronized (connection) {
+			long start = System.nanoTime();
+			try {
+				connection.setClientCredentials(privateKey);
+				connection.setToken(renewAccessToken(connection));
+
+			} catch (Exception e) {
+				sendMetrics.exception(e);
+				throw new ClientException(e.getMessage(), e);
+			} finally {
+				sendMetrics.record(SendMetricsService.TOKEN_RENEWAL, start);
+			}
+		}
+	}
 
-		} catch (Exception e) {
-			throw new ClientException(e.getMessage(), e);
+	public boolean hasValidToken(String deviceId, long margin) {
+		IOTConnection connection = connectionMap.get(deviceId);
+		return connection != null && connection.hasValidToken(margin);
+	}
+
+	/**
+	 * Renews every token that expires within {@code margin} milliseconds.
+	 * Connections without a token are left alone, they authenticate on their
+	 * next send.
+	 *
+	 * @return the number of tokens renewed
+	 */
+	public int refreshExpiringTokens(long margin) {
+		int renewed = 0;
+		for (IOTConnection connection : connectionMap.values()) {
+			if (connection.getAccessToken() == null || connection.getPrivateKey() == null
+					|| connection.hasValidToken(margin)) {
+				continue;
+			}
+			try {
+				authenticate(connection.getPrivateKey(), connection.getDeviceId());
+				renewed++;
+			} catch (ClientException e) {
+				log.warn("Error refreshing token for " + connection.getDeviceId(), e);
+				connection.invalidateToken();
+			}
 		}
+		return renewed;
 	}
 
 	public byte[] getPrivateKey(String id) {
 		IOTConnection connection = connectionMap.get(id);
 		if (connection != null) {
+			if (connection.getPrivateKey() == null) {
+				// activated before a restart, the key store still has the key
+				byte[] stored = privateKeyStore.get(id);
+				if (stored != null) {
+					connection.setPrivateKey(stored);
+				}
+			}
 			return connection.getPrivateKey();
 		}
 		return null;
 	}
+
+	/**
+	 * The server refused the activation post: the endpoint was activated
+	 * before, by a private key this simulator no longer has.
+	 */
+	public static class AlreadyActivatedException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		public AlreadyActivatedException(String endpointId) {
+			super("endpoint already activated: " + endpointId);
+		}
+	}
 }
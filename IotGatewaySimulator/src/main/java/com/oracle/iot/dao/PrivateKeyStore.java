@@ -0,0 +1,361 @@
+package com.oracle.iot.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Keeps the private keys of activated devices in an append-only file, so a
+ * restarted simulator authenticates its devices again instead of trying to
+ * re-activate them, which the server refuses. Keys are encrypted with
+ * AES/CBC and authenticated with HmacSHA256, both keyed from the configured
+ * passphrase. An in-memory index points at the latest record of every device.
+ * <p>
+ * Off unless the {@value #FILE_PROPERTY} and {@value #PASSPHRASE_PROPERTY}
+ * system properties are set.
+ * <p>
+ * Other files seal their secrets with the same keys through {@link #seal}.
+ */
+@Repository
+public class PrivateKeyStore {
+
+	private static final Logger log = Logger.getLogger(PrivateKeyStore.class);
+
+	public static final String FILE_PROPERTY = "iot.keystore.file";
+	public static final String PASSPHRASE_PROPERTY = "iot.keystore.passphrase";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x494F544B;
+	private static final int VERSION = 1;
+	private static final int SALT_SIZE = 16;
+	private static final int MAC_SIZE = 32;
+	private static final int IV_SIZE = 16;
+	private static final int HEADER_SIZE = 8 + SALT_SIZE + MAC_SIZE;
+	private static final int KEY_ITERATIONS = 20000;
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+
+	private final SecureRandom random = new SecureRandom();
+	private final Map<String, Long> index = new HashMap<String, Long>();
+	private RandomAccessFile file;
+	private SecretKeySpec cipherKey;
+	private SecretKeySpec macKey;
+
+	@PostConstruct
+	public void init() {
+		String path = System.getProperty(FILE_PROPERTY);
+		if (path == null || path.trim().length() == 0) {
+			return;
+		}
+		String passphrase = System.getProperty(PASSPHRASE_PROPERTY);
+		if (passphrase == null || passphrase.length() == 0) {
+			log.error("Not keeping private keys, " + PASSPHRASE_PROPERTY + " is not set");
+			return;
+		}
+		open(new File(path.trim()), passphrase.toCharArray());
+	}
+
+	public synchronized void open(File location, char[] passphrase) {
+		try {
+			if (location.getParentFile() != null) {
+				location.getParentFile().mkdirs();
+			}
+			file = new RandomAccessFile(location, "rw");
+			byte[] salt = new byte[SALT_SIZE];
+			if (file.length() < HEADER_SIZE) {
+				random.nextBytes(salt);
+				deriveKeys(passphrase, salt);
+				file.setLength(0);
+				file.writeInt(MAGIC);
+				file.writeInt(VERSION);
+				file.write(salt);
+				file.write(mac(headerBytes(salt)));
+			} else {
+				file.seek(0);
+				if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+					throw new IOException("not a key store");
+				}
+				file.readFully(salt);
+				deriveKeys(passphrase, salt);
+				byte[] check = new byte[MAC_SIZE];
+				file.readFully(check);
+				if (!MessageDigest.isEqual(check, mac(headerBytes(salt)))) {
+					throw new GeneralSecurityException("wrong passphrase");
+				}
+				load();
+			}
+			log.info("Opened key store " + location + " with " + index.size() + " keys");
+		} catch (Exception e) {
+			log.error("Could not open key store " + location, e);
+			close();
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return file != null;
+	}
+
+	/**
+	 * The device's private key, or null when none is kept.
+	 */
+	public synchronized byte[] get(String id) {
+		Long position = index.get(id);
+		if (file == null || position == null) {
+			return null;
+		}
+		try {
+			file.seek(position);
+			Record record = readRecord();
+			return decrypt(record);
+		} catch (Exception e) {
+			log.error("Could not read the private key of " + id, e);
+			return null;
+		}
+	}
+
+	public synchronized void put(String id, byte[] privateKey) {
+		if (file == null || privateKey == null) {
+			return;
+		}
+		try {
+			byte[] iv = new byte[IV_SIZE];
+			random.nextBytes(iv);
+			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+			index.put(id, append(PUT, id, iv, cipher.doFinal(privateKey)));
+		} catch (Exception e) {
+			log.error("Could not keep the private key of " + id, e);
+		}
+	}
+
+	public synchronized void delete(String id) {
+		if (file == null || !index.containsKey(id)) {
+			return;
+		}
+		try {
+			append(DELETE, id, new byte[IV_SIZE], new byte[0]);
+			index.remove(id);
+		} catch (Exception e) {
+			log.error("Could not drop the private key of " + id, e);
+		}
+	}
+
+	/**
+	 * The value encrypted and authenticated with the store's keys, IV first
+	 * and MAC last; null while the store is closed.
+	 */
+	public synchronized byte[] seal(byte[] value) {
+		if (file == null) {
+			return null;
+		}
+		try {
+			byte[] iv = new byte[IV_SIZE];
+			random.nextBytes(iv);
+			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			cipher.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+			byte[] encrypted = cipher.doFinal(value);
+			byte[] sealed = new byte[IV_SIZE + encrypted.length + MAC_SIZE];
+			System.arraycopy(iv, 0, sealed, 0, IV_SIZE);
+			System.arraycopy(encrypted, 0, sealed, IV_SIZE, encrypted.length);
+			byte[] check = mac(Arrays.copyOf(sealed, IV_SIZE + encrypted.length));
+			System.arraycopy(check, 0, sealed, IV_SIZE + encrypted.length, MAC_SIZE);
+			return sealed;
+		} catch (GeneralSecurityException e) {
+			log.error("Could not seal a value", e);
+			return null;
+		}
+	}
+
+	/**
+	 * A value {@link #seal} gave out, null while the store is closed or when
+	 * it was sealed with another passphrase or altered since.
+	 */
+	public synchronized byte[] unseal(byte[] sealed) {
+		if (file == null || sealed.length < IV_SIZE + MAC_SIZE) {
+			return null;
+		}
+		try {
+			int signed = sealed.length - MAC_SIZE;
+			if (!MessageDigest.isEqual(Arrays.copyOfRange(sealed, signed, sealed.length),
+					mac(Arrays.copyOf(sealed, signed)))) {
+				return null;
+			}
+			Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(sealed, 0, IV_SIZE));
+			return cipher.doFinal(sealed, IV_SIZE, signed - IV_SIZE);
+		} catch (GeneralSecurityException e) {
+			log.error("Could not unseal a value", e);
+			return null;
+		}
+	}
+
+	@PreDestroy
+	public synchronized void close() {
+		try {
+			if (file != null) {
+				file.close();
+			}
+		} catch (IOException e) {
+			log.warn("Error closing key store", e);
+		}
+		file = null;
+		cipherKey = null;
+		macKey = null;
+		index.clear();
+	}
+
+	// rebuilds the index; a torn record at the end is cut off
+	private void load() throws IOException, GeneralSecurityException {
+		index.clear();
+		long position = HEADER_SIZE;
+		long length = file.length();
+		while (position < length) {
+			file.seek(position);
+			Record record;
+			try {
+				record = readRecord();
+			} catch (IOException e) {
+				break;
+			}
+			if (!MessageDigest.isEqual(record.mac, mac(record.signed()))) {
+				break;
+			}
+			String id = new String(record.id, UTF_8);
+			if (record.type == PUT) {
+				index.put(id, position);
+			} else {
+				index.remove(id);
+			}
+			position = file.getFilePointer();
+		}
+		if (position < length) {
+			log.warn("Dropping " + (length - position) + " unreadable bytes at the end of the key store");
+			file.setLength(position);
+		}
+	}
+
+	private long append(byte type, String id, byte[] iv, byte[] encrypted)
+			throws IOException, GeneralSecurityException {
+		Record record = new Record(type, id.getBytes(UTF_8), iv, encrypted);
+		record.mac = mac(record.signed());
+		long position = file.length();
+		file.seek(position);
+		file.write(record.bytes());
+		return position;
+	}
+
+	private Record readRecord() throws IOException {
+		byte type = file.readByte();
+		byte[] id = new byte[file.readUnsignedShort()];
+		file.readFully(id);
+		byte[] iv = new byte[IV_SIZE];
+		file.readFully(iv);
+		int size = file.readInt();
+		if (size < 0 || size > file.length()) {
+			throw new IOException("bad record");
+		}
+		byte[] encrypted = new byte[size];
+		file.readFully(encrypted);
+		Record record = new Record(type, id, iv, encrypted);
+		file.readFully(record.mac);
+		return record;
+	}
+
+	private byte[] decrypt(Record record) throws GeneralSecurityException {
+		if (!MessageDigest.isEqual(record.mac, mac(record.signed()))) {
+			throw new GeneralSecurityException("key record was altered");
+		}
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(record.iv));
+		return cipher.doFinal(record.encrypted);
+	}
+
+	private void deriveKeys(char[] passphrase, byte[] salt) throws GeneralSecurityException {
+		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+		byte[] keys = factory.generateSecret(new PBEKeySpec(passphrase, salt, KEY_ITERATIONS, 512)).getEncoded();
+		byte[] encryption = new byte[16];
+		byte[] authentication = new byte[32];
+		System.arraycopy(keys, 0, encryption, 0, encryption.length);
+		System.arraycopy(keys, 32, authentication, 0, authentication.length);
+		cipherKey = new SecretKeySpec(encryption, "AES");
+		macKey = new SecretKeySpec(authentication, "HmacSHA256");
+	}
+
+	private byte[] mac(byte[] data) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(macKey);
+		return mac.doFinal(data);
+	}
+
+	private static byte[] headerBytes(byte[] salt) {
+		byte[] header = new byte[8 + salt.length];
+		header[0] = (byte) (MAGIC >>> 24);
+		header[1] = (byte) (MAGIC >>> 16);
+		header[2] = (byte) (MAGIC >>> 8);
+		header[3] = (byte) MAGIC;
+		header[7] = VERSION;
+		System.arraycopy(salt, 0, header, 8, salt.length);
+		return header;
+	}
+
+	private static class Record {
+		private final byte type;
+		private final byte[] id;
+		private final byte[] iv;
+		private final byte[] encrypted;
+		private byte[] mac = new byte[MAC_SIZE];
+
+		Record(byte type, byte[] id, byte[] iv, byte[] encrypted) {
+			this.type = type;
+			this.id = id;
+			this.iv = iv;
+			this.encrypted = encrypted;
+		}
+
+		// everything but the mac, as written
+		byte[] signed() {
+			byte[] bytes = new byte[1 + 2 + id.length + iv.length + 4 + encrypted.length];
+			int i = 0;
+			bytes[i++] = type;
+			bytes[i++] = (byte) (id.length >>> 8);
+			bytes[i++] = (byte) id.length;
+			System.arraycopy(id, 0, bytes, i, id.length);
+			i += id.length;
+			System.arraycopy(iv, 0, bytes, i, iv.length);
+			i += iv.length;
+			bytes[i++] = (byte) (encrypted.length >>> 24);
+			bytes[i++] = (byte) (encrypted.length >>> 16);
+			bytes[i++] = (byte) (encrypted.length >>> 8);
+			bytes[i++] = (byte) encrypted.length;
+			System.arraycopy(encrypted, 0, bytes, i, encrypted.length);
+			return bytes;
+		}
+
+		byte[] bytes() {
+			byte[] signed = signed();
+			byte[] bytes = new byte[signed.length + mac.length];
+			System.arraycopy(signed, 0, bytes, 0, signed.length);
+			System.arraycopy(mac, 0, bytes, signed.length, mac.length);
+			return bytes;
+		}
+	}
+}
@@ -8,6 +8,7 @@ public class AccessToken {
 	private final String token;
 	private final long expirationTime;
 
+	// expires is the token lifetime in milliseconds
 	public AccessToken(long expires, String tokenType, String token) {
 		this.expires = expires;
 		this.tokenType = tokenType;
@@ -19,6 +20,14 @@ public class AccessToken {
 		return (System.currentTimeMillis() >= this.expirationTime);
 	}
 
+	public final boolean expiresWithin(long millis) {
+		return (System.currentTimeMillis() + millis >= this.expirationTime);
+	}
+
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
 	public long getExpires() {
 		return expires;
 	}
@@ -38,7 +47,8 @@ public class AccessToken {
 	}
 
 	public static AccessToken fromJSON(final JsonObject jsonObject) {
-		AccessToken token = new AccessToken(jsonObject.getInt("expires_in"), jsonObject.getString("token_type"),
+		// expires_in is in seconds
+		AccessToken token = new AccessToken(jsonObject.getInt("expires_in") * 1000L, jsonObject.getString("token_type"),
 				jsonObject.getString("access_token"));
 		return token;
 	}
@@ -0,0 +1,125 @@
+package com.oracle.iot.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.oracle.iot.util.Constants;
+
+/**
+ * The last values of every chart series of a device, one circular buffer of
+ * timestamps and values per series. Adding a point writes two array slots;
+ * the chart's JSON shape is only built when it is asked for. Not thread
+ * safe, the device's monitor guards it.
+ */
+public class ChartHistory {
+
+	public static final int DEFAULT_DEPTH = 10;
+
+	private final String[] names;
+	private final int depth;
+	// allocated on a series' first point
+	private final long[][] times;
+	private final double[][] values;
+	private final int[] next;
+	private final int[] count;
+
+	public ChartHistory(String[] names, Integer depth) {
+		this.names = names;
+		this.depth = depth == null || depth < 1 ? DEFAULT_DEPTH : depth;
+		this.times = new long[names.length][];
+		this.values = new double[names.length][];
+		this.next = new int[names.length];
+		this.count = new int[names.length];
+	}
+
+	public void add(int series, long time, double value) {
+		if (times[series] == null) {
+			times[series] = new long[depth];
+			values[series] = new double[depth];
+		}
+		int at = next[series];
+		times[series][at] = time;
+		values[series][at] = value;
+		next[series] = (at + 1) % depth;
+		if (count[series] < depth) {
+			count[series]++;
+		}
+	}
+
+	public void clear() {
+		for (int series = 0; series < names.length; series++) {
+			next[series] = 0;
+			count[series] = 0;
+		}
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Names of the series with points, in series order.
+	 */
+	public List<String> getSeries() {
+		List<String> series = new ArrayList<String>();
+		for (int s = 0; s < names.length; s++) {
+			if (count[s] > 0) {
+				series.add(names[s]);
+			}
+		}
+		return series;
+	}
+
+	/**
+	 * The values of every series with points, oldest first, each padded at
+	 * the front with its oldest value to the full depth.
+	 */
+	public List<List<Double>> getValues() {
+		List<List<Double>> all = new ArrayList<List<Double>>();
+		for (int s = 0; s < names.length; s++) {
+			if (count[s] == 0) {
+				continue;
+			}
+			List<Double> series = new ArrayList<Double>(depth);
+			int oldest = oldest(s);
+			for (int i = count[s]; i < depth; i++) {
+				series.add(values[s][oldest]);
+			}
+			for (int i = 0; i < count[s]; i++) {
+				series.add(values[s][(oldest + i) % depth]);
+			}
+			all.add(series);
+		}
+		return all;
+	}
+
+	/**
+	 * Time labels of the fullest series, blank where it has no point yet.
+	 */
+	public List<String> getLabels() {
+		int fullest = -1;
+		for (int s = 0; s < names.length; s++) {
+			if (count[s] > 0 && (fullest < 0 || count[s] > count[fullest])) {
+				fullest = s;
+			}
+		}
+		List<String> labels = new ArrayList<String>(depth);
+		int points = fullest < 0 ? 0 : count[fullest];
+		for (int i = points; i < depth; i++) {
+			labels.add(" ");
+		}
+		if (fullest >= 0) {
+			int oldest = oldest(fullest);
+			for (int i = 0; i < points; i++) {
+				labels.add(Constants.formatChartLabel(new DateTime(times[fullest][(oldest + i) % depth])));
+			}
+		}
+		return labels;
+	}
+
+	private int oldest(int series) {
+		return count[series] < depth ? 0 : next[series];
+	}
+}
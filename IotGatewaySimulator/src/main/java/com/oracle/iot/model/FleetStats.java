@@ -0,0 +1,98 @@
+package com.oracle.iot.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.oracle.iot.util.LogHistogram;
+
+/**
+ * Running aggregates of the current values of every device of one type, per
+ * value: count, mean and variance kept exactly the Welford way, min, max and
+ * percentiles from a {@link LogHistogram}. A device's new value replaces the
+ * one it counted before in O(1), so reading the aggregates never walks the
+ * fleet. Booleans count as 1 and 0, their mean is the share that is true.
+ */
+public class FleetStats {
+
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+
+	private final String[] names;
+	private final Value[] values;
+
+	FleetStats(String[] names) {
+		this.names = names;
+		this.values = new Value[names.length];
+		for (int slot = 0; slot < names.length; slot++) {
+			values[slot] = new Value();
+		}
+	}
+
+	/**
+	 * Swaps a device's previous value of the slot for its current one; either
+	 * may be absent.
+	 */
+	void replace(int slot, boolean counted, double previous, boolean present, double current) {
+		Value value = values[slot];
+		synchronized (value) {
+			if (counted) {
+				value.remove(previous);
+			}
+			if (present) {
+				value.add(current);
+			}
+		}
+	}
+
+	/**
+	 * The aggregates per display name.
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int slot = 0; slot < names.length; slot++) {
+			map.put(names[slot], values[slot].toMap());
+		}
+		return map;
+	}
+
+	private static class Value {
+		private final LogHistogram histogram = new LogHistogram();
+		private long count;
+		private double mean;
+		// sum of squared differences from the mean
+		private double m2;
+
+		void add(double x) {
+			count++;
+			double delta = x - mean;
+			mean += delta / count;
+			m2 += delta * (x - mean);
+			histogram.add(x);
+		}
+
+		void remove(double x) {
+			histogram.remove(x);
+			if (--count == 0) {
+				// start over clean rather than carry rounding along
+				mean = 0;
+				m2 = 0;
+				return;
+			}
+			double delta = x - mean;
+			mean -= delta / count;
+			m2 = Math.max(0, m2 - delta * (x - mean));
+		}
+
+		synchronized Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("count", count);
+			map.put("min", histogram.getMin());
+			map.put("max", histogram.getMax());
+			map.put("mean", count == 0 ? null : mean);
+			map.put("variance", count == 0 ? null : m2 / count);
+			for (double percentile : PERCENTILES) {
+				map.put("p" + Math.round(percentile * 100), histogram.quantile(percentile));
+			}
+			return map;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package com.oracle.iot.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The current values of every device of one type, kept column by column: a
+ * double array per value, packed bits for booleans and event flags, and a
+ * dense row index per device. A device costs a few bytes per metric instead
+ * of a map of boxed values.
+ * <p>
+ * Rows live in fixed size chunks that never move, so devices on different
+ * threads can write their own rows while the store grows. A row is only read
+ * and written under its device's monitor; bits sharing a word with other
+ * rows are updated atomically.
+ * <p>
+ * Each row also remembers the values it last counted in the type's
+ * {@link FleetStats}, so a tick only swaps a device's old values for its new
+ * ones.
+ * <p>
+ * {@link Row} is only a view: a device may keep its values somewhere else,
+ * such as its record in the device state file, and still animate and count
+ * them through the type's program and aggregates.
+ */
+public class FleetStore {
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int WORDS = CHUNK_SIZE / 64;
+
+	private static final Map<PropertyDeviceDetails, FleetStore> fleets = new WeakHashMap<PropertyDeviceDetails, FleetStore>();
+
+	private final MetricProgram program;
+	private final FleetStats stats;
+	private volatile Chunk[] chunks = new Chunk[0];
+	private int next;
+	private int[] free = new int[16];
+	private int freeCount;
+
+	FleetStore(MetricProgram program) {
+		this.program = program;
+		this.stats = new FleetStats(program.getDisplayNames());
+	}
+
+	/**
+	 * The store shared by every device of the given type.
+	 */
+	public static FleetStore forType(PropertyDeviceDetails details) {
+		synchronized (fleets) {
+			FleetStore fleet = fleets.get(details);
+			if (fleet == null) {
+				fleet = new FleetStore(MetricProgram.compile(details));
+				fleets.put(details, fleet);
+			}
+			return fleet;
+		}
+	}
+
+	public MetricProgram getProgram() {
+		return program;
+	}
+
+	public FleetStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Hands out a row, reusing released ones first, set to the type's
+	 * defaults with no event active.
+	 */
+	public Row allocate() {
+		int index;
+		Chunk chunk;
+		synchronized (this) {
+			index = freeCount > 0 ? free[--freeCount] : next++;
+			int chunkIndex = index >>> CHUNK_SHIFT;
+			if (chunkIndex == chunks.length) {
+				Chunk[] grown = Arrays.copyOf(chunks, chunkIndex + 1);
+				grown[chunkIndex] = new Chunk(program.getValueCount(), program.getEventCount());
+				chunks = grown;
+			}
+			chunk = chunks[chunkIndex];
+		}
+		Row row = new ChunkRow(index, chunk, index & (CHUNK_SIZE - 1));
+		program.reset(row);
+		tally(row);
+		return row;
+	}
+
+	/**
+	 * Brings the type's aggregates up to the row's current values. Called
+	 * under the device's monitor like every other row access.
+	 */
+	public void tally(Row row) {
+		tally(row, null);
+	}
+
+	/**
+	 * Same as {@link #tally(Row)}, also setting the bit of every slot whose
+	 * value changed since it was last counted in {@code changed}, when given.
+	 */
+	public void tally(Row row, long[] changed) {
+		for (int slot = 0; slot < row.getValueCount(); slot++) {
+			byte counted = row.getTallied(slot);
+			double previous = row.getTalliedValue(slot);
+			byte kind = MetricProgram.EMPTY;
+			double current = 0;
+			if (row.isNumber(slot)) {
+				kind = MetricProgram.NUMBER;
+				current = row.getNumber(slot);
+			} else if (row.isFlag(slot)) {
+				kind = MetricProgram.FLAG;
+				current = row.getFlag(slot) ? 1 : 0;
+			}
+			if (counted == kind && Double.compare(previous, current) == 0) {
+				continue;
+			}
+			stats.replace(slot, counted != MetricProgram.EMPTY, previous, kind != MetricProgram.EMPTY, current);
+			row.setTallied(slot, kind, current);
+			if (changed != null) {
+				changed[slot >>> 6] |= 1L << slot;
+			}
+		}
+	}
+
+	/**
+	 * Takes the row out of the type's aggregates; a row of this store goes
+	 * back to be handed out again.
+	 */
+	public void release(Row row) {
+		for (int slot = 0; slot < row.getValueCount(); slot++) {
+			if (row.getTallied(slot) != MetricProgram.EMPTY) {
+				stats.replace(slot, true, row.getTalliedValue(slot), false, 0);
+				row.setTallied(slot, MetricProgram.EMPTY, 0);
+			}
+		}
+		if (row instanceof ChunkRow) {
+			free((ChunkRow) row);
+		}
+	}
+
+	private synchronized void free(ChunkRow row) {
+		if (freeCount == free.length) {
+			free = Arrays.copyOf(free, freeCount * 2);
+		}
+		free[freeCount++] = row.index;
+	}
+
+	/**
+	 * Number of rows in use.
+	 */
+	public synchronized int size() {
+		return next - freeCount;
+	}
+
+	private static class Chunk {
+		private final byte[][] kinds;
+		private final double[][] numbers;
+		private final byte[][] tallied;
+		private final double[][] talliedValues;
+		private final AtomicLongArray[] flags;
+		private final AtomicLongArray[] events;
+
+		Chunk(int values, int eventCount) {
+			kinds = new byte[values][CHUNK_SIZE];
+			numbers = new double[values][CHUNK_SIZE];
+			tallied = new byte[values][CHUNK_SIZE];
+			talliedValues = new double[values][CHUNK_SIZE];
+			flags = new AtomicLongArray[values];
+			for (int i = 0; i < values; i++) {
+				flags[i] = new AtomicLongArray(WORDS);
+			}
+			events = new AtomicLongArray[eventCount];
+			for (int i = 0; i < eventCount; i++) {
+				events[i] = new AtomicLongArray(WORDS);
+			}
+		}
+	}
+
+	/**
+	 * One device's values and event flags.
+	 */
+	public abstract static class Row {
+
+		/**
+		 * The row's position in its store, -1 for a row kept elsewhere.
+		 */
+		public int getIndex() {
+			return -1;
+		}
+
+		public abstract int getValueCount();
+
+		public abstract int getEventCount();
+
+		public abstract boolean isNumber(int slot);
+
+		public abstract boolean isFlag(int slot);
+
+		public abstract double getNumber(int slot);
+
+		public abstract boolean getFlag(int slot);
+
+		public abstract boolean isActive(int event);
+
+		public abstract void setNumber(int slot, double value);
+
+		public abstract void setFlag(int slot, boolean value);
+
+		public abstract void setEmpty(int slot);
+
+		public abstract void setActive(int event, boolean active);
+
+		// what the type's aggregates last counted for the slot
+		protected abstract byte getTallied(int slot);
+
+		protected abstract double getTalliedValue(int slot);
+
+		protected abstract void setTallied(int slot, byte kind, double value);
+
+		public Object get(int slot) {
+			if (isNumber(slot)) {
+				return getNumber(slot);
+			} else if (isFlag(slot)) {
+				return getFlag(slot);
+			}
+			return null;
+		}
+
+		public void toggle(int event) {
+			setActive(event, !isActive(event));
+		}
+
+		/**
+		 * Copies the values and events into a row of the same shape, which
+		 * starts out counted nowhere.
+		 */
+		public void copyTo(Row target) {
+			for (int slot = 0; slot < getValueCount(); slot++) {
+				if (isNumber(slot)) {
+					target.setNumber(slot, getNumber(slot));
+				} else if (isFlag(slot)) {
+					target.setFlag(slot, getFlag(slot));
+				} else {
+					target.setEmpty(slot);
+				}
+				target.setTallied(slot, MetricProgram.EMPTY, 0);
+			}
+			for (int event = 0; event < getEventCount(); event++) {
+				target.setActive(event, isActive(event));
+			}
+		}
+	}
+
+	// a row in the store's own chunks
+	private static class ChunkRow extends Row {
+		private final int index;
+		private final Chunk chunk;
+		private final int offset;
+
+		ChunkRow(int index, Chunk chunk, int offset) {
+			this.index = index;
+			this.chunk = chunk;
+			this.offset = offset;
+		}
+
+		@Override
+		public int getIndex() {
+			return index;
+		}
+
+		@Override
+		public int getValueCount() {
+			return chunk.kinds.length;
+		}
+
+		@Override
+		public int getEventCount() {
+			return chunk.events.length;
+		}
+
+		@Override
+		public boolean isNumber(int slot) {
+			return chunk.kinds[slot][offset] == MetricProgram.NUMBER;
+		}
+
+		@Override
+		public boolean isFlag(int slot) {
+			return chunk.kinds[slot][offset] == MetricProgram.FLAG;
+		}
+
+		@Override
+		public double getNumber(int slot) {
+			return chunk.numbers[slot][offset];
+		}
+
+		@Override
+		public boolean getFlag(int slot) {
+			return getBit(chunk.flags[slot], offset);
+		}
+
+		@Override
+		public boolean isActive(int event) {
+			return getBit(chunk.events[event], offset);
+		}
+
+		@Override
+		public void setNumber(int slot, double value) {
+			chunk.kinds[slot][offset] = MetricProgram.NUMBER;
+			chunk.numbers[slot][offset] = value;
+		}
+
+		@Override
+		public void setFlag(int slot, boolean value) {
+			chunk.kinds[slot][offset] = MetricProgram.FLAG;
+			setBit(chunk.flags[slot], offset, value);
+		}
+
+		@Override
+		public void setEmpty(int slot) {
+			chunk.kinds[slot][offset] = MetricProgram.EMPTY;
+		}
+
+		@Override
+		public void setActive(int event, boolean active) {
+			setBit(chunk.events[event], offset, active);
+		}
+
+		@Override
+		protected byte getTallied(int slot) {
+			return chunk.tallied[slot][offset];
+		}
+
+		@Override
+		protected double getTalliedValue(int slot) {
+			return chunk.talliedValues[slot][offset];
+		}
+
+		@Override
+		protected void setTallied(int slot, byte kind, double value) {
+			chunk.tallied[slot][offset] = kind;
+			chunk.talliedValues[slot][offset] = value;
+		}
+	}
+
+	private static boolean getBit(AtomicLongArray words, int offset) {
+		return (words.get(offset >>> 6) & (1L << offset)) != 0;
+	}
+
+	private static void setBit(AtomicLongArray words, int offset, boolean value) {
+		int word = offset >>> 6;
+		long mask = 1L << offset;
+		while (true) {
+			long current = words.get(word);
+			long updated = value ? current | mask : current & ~mask;
+			if (current == updated || words.compareAndSet(word, current, updated)) {
+				return;
+			}
+		}
+	}
+}
@@ -129,7 +129,21 @@ public class IOTConnection {
 	}
 
 	public void setToken(AccessToken token) {
-		this.token = new AccessToken(token.getExpires(), token.getTokenType(), token.getToken());
+		// keep the instance so the expiry still counts from when it was issued
+		this.token = token;
+	}
+
+	public AccessToken getAccessToken() {
+		return token;
+	}
+
+	public boolean hasValidToken(long margin) {
+		AccessToken current = token;
+		return current != null && !current.expiresWithin(margin);
+	}
+
+	public void invalidateToken() {
+		this.token = null;
 	}
 
 	public String getTokenType() {
@@ -7,6 +7,7 @@ import java.util.Map;
 
 import org.joda.time.DateTime;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import oracle.iot.message.AlertMessage;
@@ -14,24 +15,19 @@ import oracle.iot.message.DataMessage;
 
 public abstract class IOTDevice {
 
-	private static final int MAX_CHART_SIZE = 10;
 	@JsonProperty("authToken")
 	private IOTAuthToken authToken;
 	@JsonProperty("createDate")
 	protected Date createDate;
-	@JsonProperty("chartSeries")
-	protected List<String> chartSeries = new ArrayList<String>();
-	@JsonProperty("chartValues")
-	protected List<List<Double>> chartValues = new ArrayList<List<Double>>();
-	@JsonProperty("chartLabels")
-	protected List<String> chartLabels = new ArrayList<String>();
+	// set by devices that chart their values
+	@JsonIgnore
+	protected ChartHistory chart;
+	private Long reportInterval;
+	private String endpointId;
 
 	public IOTDevice(String id, String secret) {
 		this.authToken = new IOTAuthToken(id, secret);
 		this.createDate = new DateTime().toDate();
-		for (int i = 0; i <= MAX_CHART_SIZE; i++) {
-			chartLabels.add(" ");
-		}
 	}
 
 	public String getId() {
@@ -42,22 +38,25 @@ public abstract class IOTDevice {
 		return new DateTime(createDate.getTime());
 	}
 
-	protected void addToChart(DateTime date, String series, Double value) {
-		int index = chartSeries.indexOf(series);
-		List<Double> seriesValues = null;
-		if (index == -1) {
-			chartSeries.add(series);
-			seriesValues = new ArrayList<Double>();
-			for (int i = 0; i <= MAX_CHART_SIZE; i++) {
-				seriesValues.add(value);
-			}
-			chartValues.add(seriesValues);
-		} else {
-			seriesValues = chartValues.get(index);
+	protected synchronized void addToChart(int series, long time, double value) {
+		if (chart != null) {
+			chart.add(series, time, value);
 		}
-		seriesValues.add(value);
-		// remove the oldest record
-		seriesValues.remove(0);
+	}
+
+	@JsonProperty("chartSeries")
+	public synchronized List<String> getChartSeries() {
+		return chart == null ? new ArrayList<String>() : chart.getSeries();
+	}
+
+	@JsonProperty("chartValues")
+	public synchronized List<List<Double>> getChartValues() {
+		return chart == null ? new ArrayList<List<Double>>() : chart.getValues();
+	}
+
+	@JsonProperty("chartLabels")
+	public synchronized List<String> getChartLabels() {
+		return chart == null ? new ArrayList<String>() : chart.getLabels();
 	}
 
 	public abstract Map<String, String> getAlerts();
@@ -66,6 +65,13 @@ public abstract class IOTDevice {
 
 	public abstract Map<String, Object> getMetrics();
 
+	/**
+	 * The values the last tick changed, in the shape of
+	 * {@link #getMetrics()}.
+	 */
+	@JsonIgnore
+	public abstract Map<String, Object> getChangedMetrics();
+
 	public abstract AlertMessage createAlertMessage(String alert);
 
 	public abstract Boolean eventHandler(String event);
@@ -74,16 +80,95 @@ public abstract class IOTDevice {
 
 	public abstract String getPicture();
 
+	/**
+	 * The endpoint id messages are sent from. A directly connected device is
+	 * its own endpoint; behind a gateway the server assigns one when the
+	 * device is registered.
+	 */
+	public String getSource() {
+		if (endpointId != null) {
+			return endpointId;
+		}
+		return getId();
+	}
+
+	public String getEndpointId() {
+		return endpointId;
+	}
+
+	public void setEndpointId(String endpointId) {
+		this.endpointId = endpointId;
+	}
+
+	public String getDeviceModel() {
+		return null;
+	}
+
 	public String getSecret() {
 		return this.authToken.getSecret();
 	}
 
 	public abstract String getResource();
 
-	public void clearChart() {
-		chartSeries = new ArrayList<String>();
-		chartValues = new ArrayList<List<Double>>();
-		chartLabels = new ArrayList<String>();
+	/**
+	 * Milliseconds between reports, this device's own interval if one was
+	 * set, otherwise the interval of its type (null means the default).
+	 */
+	public Long getReportInterval() {
+		if (reportInterval != null) {
+			return reportInterval;
+		}
+		return getTypeReportInterval();
+	}
+
+	/**
+	 * The interval set on this device alone, null when it follows its type.
+	 */
+	@JsonIgnore
+	public Long getOwnReportInterval() {
+		return reportInterval;
+	}
+
+	public void setReportInterval(Long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	protected Long getTypeReportInterval() {
+		return null;
+	}
+
+	public synchronized void clearChart() {
+		if (chart != null) {
+			chart.clear();
+		}
+	}
+
+	/**
+	 * The device's recorded values of a metric between two times, null when
+	 * it has no such metric.
+	 *
+	 * @param step
+	 *            milliseconds to average over, 0 for every point
+	 */
+	public Map<String, Object> getHistory(String metric, long from, long to, long step) {
+		return null;
+	}
+
+	/**
+	 * Forgets history older than {@code before} and then the oldest blocks
+	 * until no more than {@code maxBytes} are kept.
+	 *
+	 * @return bytes still kept
+	 */
+	public long trimHistory(long before, long maxBytes) {
+		return 0;
+	}
+
+	/**
+	 * Called once the device is removed, to hand back anything it holds in a
+	 * shared store.
+	 */
+	public void release() {
 	}
 
 	public abstract IOTDevice copy();
@@ -0,0 +1,60 @@
+package com.oracle.iot.model;
+
+import java.util.Arrays;
+
+/**
+ * A device's own metric defaults, set remotely, over the ones of its type:
+ * a sorted array of metric indexes with the values beside them, booleans as
+ * 1 and 0. Instances never change; setting a value returns a new one, so the
+ * tick reads them without locking. Most devices share {@link #NONE}.
+ */
+public final class MetricOverrides {
+
+	public static final MetricOverrides NONE = new MetricOverrides(new int[0], new double[0]);
+
+	private final int[] metrics;
+	private final double[] values;
+
+	private MetricOverrides(int[] metrics, double[] values) {
+		this.metrics = metrics;
+		this.values = values;
+	}
+
+	public MetricOverrides with(int metric, double value) {
+		int at = Arrays.binarySearch(metrics, metric);
+		if (at >= 0) {
+			double[] changed = values.clone();
+			changed[at] = value;
+			return new MetricOverrides(metrics, changed);
+		}
+		int insert = -at - 1;
+		int[] grownMetrics = new int[metrics.length + 1];
+		double[] grownValues = new double[values.length + 1];
+		System.arraycopy(metrics, 0, grownMetrics, 0, insert);
+		System.arraycopy(values, 0, grownValues, 0, insert);
+		grownMetrics[insert] = metric;
+		grownValues[insert] = value;
+		System.arraycopy(metrics, insert, grownMetrics, insert + 1, metrics.length - insert);
+		System.arraycopy(values, insert, grownValues, insert + 1, values.length - insert);
+		return new MetricOverrides(grownMetrics, grownValues);
+	}
+
+	public boolean has(int metric) {
+		return metrics.length > 0 && Arrays.binarySearch(metrics, metric) >= 0;
+	}
+
+	/**
+	 * The device's value for the metric, or {@code fallback} when it has none.
+	 */
+	public double get(int metric, double fallback) {
+		if (metrics.length == 0) {
+			return fallback;
+		}
+		int at = Arrays.binarySearch(metrics, metric);
+		return at < 0 ? fallback : values[at];
+	}
+
+	public int size() {
+		return metrics.length;
+	}
+}
@@ -0,0 +1,449 @@
+package com.oracle.iot.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.oracle.iot.util.Constants;
+
+/**
+ * A device type's metrics and events compiled into flat arrays, so animating a
+ * device each tick works on primitives and allocates nothing. The rules are
+ * the ones PropertyDevice has always applied: default/variation, increment,
+ * loop, alternate, hold and min/max per metric, then the overrides of every
+ * active event in priority order.
+ * <p>
+ * Current values are kept per display name, the key the rest of the
+ * application reads them by, in the type's {@link FleetStore}. Metric defaults
+ * and boolean values are compiled too, the type definition never changes; a
+ * device's own values set through its resources come in as
+ * {@link MetricOverrides}.
+ */
+public class MetricProgram {
+
+	static final byte EMPTY = 0;
+	static final byte NUMBER = 1;
+	static final byte FLAG = 2;
+
+	private final PropertyMetric[] metrics;
+	private final Rule[] metricRules;
+	private final byte[] defaultKind;
+	private final double[] defaultValue;
+	private final int[] slotOf;
+	private final String[] slotDisplayNames;
+	private final String[] slotMetricNames;
+	private final PropertyEvent[] events;
+	private final Rule[][] eventRules;
+	// lookups by name, built once with the program
+	private final Map<String, Integer> metricIndex = new HashMap<String, Integer>();
+	private final Map<String, Integer> slotIndex = new HashMap<String, Integer>();
+	private final Map<String, Integer> eventIndex = new HashMap<String, Integer>();
+	private final Map<String, String> alertDisplayNames = new HashMap<String, String>();
+	private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+	private MetricProgram(List<PropertyMetric> metricList, List<PropertyEvent> eventList,
+			List<PropertyAlert> alertList) {
+		metrics = metricList.toArray(new PropertyMetric[metricList.size()]);
+		metricRules = new Rule[metrics.length];
+		defaultKind = new byte[metrics.length];
+		defaultValue = new double[metrics.length];
+		slotOf = new int[metrics.length];
+		Map<String, Integer> slots = new LinkedHashMap<String, Integer>();
+		List<String> slotMetricNameList = new ArrayList<String>();
+		for (int m = 0; m < metrics.length; m++) {
+			PropertyMetric metric = metrics[m];
+			Integer slot = slots.get(metric.getDisplayName());
+			if (slot == null) {
+				slot = slots.size();
+				slots.put(metric.getDisplayName(), slot);
+				// messages name a value after the first metric showing it
+				slotMetricNameList.add(metric.getName());
+			}
+			slotOf[m] = slot;
+			String key = metric.getName().toLowerCase(Locale.ENGLISH);
+			if (!metricIndex.containsKey(key)) {
+				metricIndex.put(key, m);
+			}
+			if (metric.getBoolSet() != null) {
+				defaultKind[m] = FLAG;
+				defaultValue[m] = metric.getBoolSet() ? 1 : 0;
+			} else if (metric.getDefaultValue() != null) {
+				defaultKind[m] = NUMBER;
+				defaultValue[m] = metric.getDefaultValue();
+			}
+			metricRules[m] = new Rule(-1, null, metric.getIncrement(), metric.getAlternate(), metric.getLoop(),
+					metric.getMax(), metric.getMin(), metric.getHold(), metric.getVariation(), null);
+		}
+		slotDisplayNames = slots.keySet().toArray(new String[slots.size()]);
+		slotIndex.putAll(slots);
+		slotMetricNames = slotMetricNameList.toArray(new String[slotMetricNameList.size()]);
+
+		events = eventList.toArray(new PropertyEvent[eventList.size()]);
+		eventRules = new Rule[events.length][];
+		for (int e = 0; e < events.length; e++) {
+			if (!eventIndex.containsKey(events[e].getName())) {
+				eventIndex.put(events[e].getName(), e);
+			}
+			List<EventMetric> eventMetrics = events[e].getEventMetrics();
+			eventRules[e] = new Rule[eventMetrics.size()];
+			for (int r = 0; r < eventMetrics.size(); r++) {
+				EventMetric eventMetric = eventMetrics.get(r);
+				eventRules[e][r] = new Rule(indexOf(eventMetric.getMetricName()), eventMetric.getEventValue(),
+						eventMetric.getIncrement(), eventMetric.getAlternate(), eventMetric.getLoop(),
+						eventMetric.getMax(), eventMetric.getMin(), eventMetric.getHold(), eventMetric.getVariation(),
+						eventMetric.getBoolSet());
+			}
+		}
+		for (PropertyAlert alert : alertList) {
+			String key = alert.getName().toLowerCase(Locale.ENGLISH);
+			if (!alertDisplayNames.containsKey(key)) {
+				alertDisplayNames.put(key, alert.getDisplayName());
+			}
+		}
+	}
+
+	public static MetricProgram compile(PropertyDeviceDetails details) {
+		return new MetricProgram(details.getMetrics(), details.getEvents(), details.getAlerts());
+	}
+
+	/**
+	 * The metric's position in the type, ignoring case; -1 for none.
+	 */
+	public int indexOf(String metricName) {
+		Integer m = metricName == null ? null : metricIndex.get(metricName.toLowerCase(Locale.ENGLISH));
+		return m == null ? -1 : m;
+	}
+
+	/**
+	 * The value slot of a metric, by metric name or by display name; -1 for
+	 * none.
+	 */
+	public int slotOf(String name) {
+		int m = indexOf(name);
+		if (m >= 0) {
+			return slotOf[m];
+		}
+		Integer slot = name == null ? null : slotIndex.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * The event's position in priority order, -1 for none.
+	 */
+	public int eventIndexOf(String eventName) {
+		Integer e = eventIndex.get(eventName);
+		return e == null ? -1 : e;
+	}
+
+	/**
+	 * The alert's description, ignoring case; null for none.
+	 */
+	public String getAlertDisplayName(String alertName) {
+		return alertName == null ? null : alertDisplayNames.get(alertName.toLowerCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * A fresh device: every value at its default and no event active.
+	 */
+	void reset(FleetStore.Row row) {
+		for (int slot = 0; slot < slotDisplayNames.length; slot++) {
+			row.setEmpty(slot);
+		}
+		for (int m = 0; m < metrics.length; m++) {
+			int slot = slotOf[m];
+			if (defaultKind[m] == FLAG) {
+				row.setFlag(slot, defaultValue[m] != 0);
+			} else if (defaultKind[m] == NUMBER) {
+				row.setNumber(slot, defaultValue[m]);
+			} else {
+				row.setEmpty(slot);
+			}
+		}
+		for (int e = 0; e < events.length; e++) {
+			row.setActive(e, false);
+		}
+	}
+
+	/**
+	 * The default a metric animates around for a device, a Double or a
+	 * Boolean; null for none.
+	 */
+	public Object getDefault(int m, MetricOverrides overrides) {
+		if (defaultKind[m] == FLAG) {
+			return overrides.get(m, defaultValue[m]) != 0;
+		} else if (defaultKind[m] == NUMBER) {
+			return overrides.get(m, defaultValue[m]);
+		}
+		return null;
+	}
+
+	public boolean isFlag(int m) {
+		return defaultKind[m] == FLAG;
+	}
+
+	/**
+	 * Moves every metric one tick forward.
+	 */
+	public void animate(FleetStore.Row row, MetricOverrides overrides) {
+		Scratch state = scratch.get();
+		if (state == null) {
+			state = new Scratch(metrics.length);
+			scratch.set(state);
+		}
+		// metric rules, all reading the values of the previous tick
+		for (int m = 0; m < metrics.length; m++) {
+			if (defaultKind[m] == FLAG) {
+				state.calcKind[m] = FLAG;
+				state.calcFlag[m] = overrides.get(m, defaultValue[m]) != 0;
+			} else {
+				animateMetric(row, state, m, overrides.get(m, defaultValue[m]));
+			}
+		}
+		// overrides of the active events
+		for (int e = 0; e < events.length; e++) {
+			if (!row.isActive(e)) {
+				continue;
+			}
+			for (Rule rule : eventRules[e]) {
+				int m = rule.target;
+				if (m < 0) {
+					continue;
+				}
+				if (state.calcKind[m] == NUMBER) {
+					animateEvent(row, state, rule, m);
+				} else if (state.calcKind[m] == FLAG) {
+					if (rule.boolSet == null) {
+						state.calcKind[m] = EMPTY;
+					} else {
+						state.calcFlag[m] = rule.boolSet;
+					}
+				}
+			}
+		}
+		// publish as the current values
+		for (int m = 0; m < metrics.length; m++) {
+			int slot = slotOf[m];
+			if (state.calcKind[m] == NUMBER) {
+				row.setNumber(slot, Constants.roundHalfUp(state.calcNumber[m], 2));
+			} else if (state.calcKind[m] == FLAG) {
+				row.setFlag(slot, state.calcFlag[m]);
+			}
+		}
+	}
+
+	private void animateMetric(FleetStore.Row row, Scratch state, int m, double defaultValue) {
+		Rule rule = metricRules[m];
+		int slot = slotOf[m];
+		if (rule.hold) {
+			holdCurrent(row, state, m, slot);
+			return;
+		}
+		double value = randomWithinVariation(defaultValue, rule.variation);
+		if (rule.hasIncrement) {
+			value = row.getNumber(slot) + rule.increment;
+		} else if (rule.hasLoop) {
+			value = row.getNumber(slot) + rule.loop;
+		} else if (rule.hasAlternate) {
+			state.calcKind[m] = NUMBER;
+			if (!isWithinVariation(row.getNumber(slot), rule.alternate, rule.variation)) {
+				state.calcNumber[m] = randomWithinVariation(rule.alternate, rule.variation);
+			} else {
+				state.calcNumber[m] = randomWithinVariation(defaultValue, rule.variation);
+			}
+			return;
+		}
+		if (rule.hasMax && value > rule.max) {
+			if (rule.hasIncrement) {
+				value = rule.max;
+			} else if (rule.hasLoop) {
+				value = defaultValue;
+			}
+		}
+		if (rule.hasMin && value < rule.min) {
+			if (rule.hasIncrement) {
+				value = rule.min;
+			} else if (rule.hasLoop) {
+				value = defaultValue;
+			}
+		}
+		state.calcKind[m] = NUMBER;
+		state.calcNumber[m] = value;
+	}
+
+	private void animateEvent(FleetStore.Row row, Scratch state, Rule rule, int m) {
+		int slot = slotOf[m];
+		if (rule.hold) {
+			holdCurrent(row, state, m, slot);
+			return;
+		}
+		double value = state.calcNumber[m];
+		if (rule.hasValue) {
+			value = randomWithinVariation(rule.value, rule.variation);
+		}
+		if (rule.hasIncrement) {
+			value = row.getNumber(slot) + rule.increment;
+		}
+		if (rule.hasLoop) {
+			value = row.getNumber(slot) + rule.loop;
+		}
+		if (rule.hasAlternate) {
+			if (!isWithinVariation(row.getNumber(slot), rule.alternate, rule.variation)) {
+				state.calcNumber[m] = randomWithinVariation(rule.alternate, rule.variation);
+			} else if (rule.hasValue) {
+				state.calcNumber[m] = randomWithinVariation(rule.value, rule.variation);
+			} else {
+				// alternating towards a missing event value leaves nothing
+				state.calcKind[m] = EMPTY;
+			}
+			return;
+		}
+		if (rule.hasMax && value > rule.max) {
+			if (rule.hasIncrement) {
+				value = rule.max;
+			} else if (rule.hasLoop) {
+				if (!rule.hasValue) {
+					state.calcKind[m] = EMPTY;
+					return;
+				}
+				value = rule.value;
+			}
+		}
+		if (rule.hasMin && value < rule.min) {
+			if (rule.hasIncrement) {
+				value = rule.min;
+			} else if (rule.hasLoop) {
+				if (!rule.hasValue) {
+					state.calcKind[m] = EMPTY;
+					return;
+				}
+				value = rule.value;
+			}
+		}
+		state.calcNumber[m] = value;
+	}
+
+	private static void holdCurrent(FleetStore.Row row, Scratch state, int m, int slot) {
+		if (row.isNumber(slot)) {
+			state.calcKind[m] = NUMBER;
+			state.calcNumber[m] = row.getNumber(slot);
+		} else {
+			state.calcKind[m] = EMPTY;
+		}
+	}
+
+	// same as Constants.randomDoubleWithinVariation, without the boxing
+	private static double randomWithinVariation(double value, double variationPercent) {
+		if (Double.compare(variationPercent, 0d) == 0) {
+			return value;
+		}
+		double plus = value * (1 + variationPercent);
+		double minus = value * (1 - variationPercent);
+		return Constants.randomDouble(minus, plus, 2);
+	}
+
+	// same as Constants.isWithinVariation, without the boxing
+	private static boolean isWithinVariation(double value, double setValue, double variationPercent) {
+		if (Double.compare(variationPercent, 0d) == 0) {
+			return Double.compare(value, setValue) == 0;
+		}
+		double plus = setValue * (1 + variationPercent);
+		double minus = setValue * (1 - variationPercent);
+		if (setValue >= 0) {
+			return value <= plus && value >= minus;
+		} else {
+			return value >= plus && value <= minus;
+		}
+	}
+
+	public int getEventCount() {
+		return events.length;
+	}
+
+	public PropertyEvent getEvent(int index) {
+		return events[index];
+	}
+
+	public int getValueCount() {
+		return slotDisplayNames.length;
+	}
+
+	// shared, not to be changed
+	String[] getDisplayNames() {
+		return slotDisplayNames;
+	}
+
+	public String getDisplayName(int slot) {
+		return slotDisplayNames[slot];
+	}
+
+	public String getMetricName(int slot) {
+		return slotMetricNames[slot];
+	}
+
+	/**
+	 * The current values by display name, the shape of
+	 * {@link IOTDevice#getMetrics()}.
+	 */
+	public Map<String, Object> toMap(FleetStore.Row row) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int slot = 0; slot < slotDisplayNames.length; slot++) {
+			map.put(slotDisplayNames[slot], row.get(slot));
+		}
+		return map;
+	}
+
+	// per thread working values of a tick, reused by every device of the type
+	private static class Scratch {
+		private final byte[] calcKind;
+		private final double[] calcNumber;
+		private final boolean[] calcFlag;
+
+		Scratch(int metrics) {
+			calcKind = new byte[metrics];
+			calcNumber = new double[metrics];
+			calcFlag = new boolean[metrics];
+		}
+	}
+
+	private static class Rule {
+		private final int target;
+		private final boolean hasValue;
+		private final double value;
+		private final boolean hasIncrement;
+		private final double increment;
+		private final boolean hasAlternate;
+		private final double alternate;
+		private final boolean hasLoop;
+		private final double loop;
+		private final boolean hasMax;
+		private final double max;
+		private final boolean hasMin;
+		private final double min;
+		private final boolean hold;
+		private final double variation;
+		private final Boolean boolSet;
+
+		Rule(int target, Double value, Double increment, Double alternate, Double loop, Double max, Double min,
+				Boolean hold, Double variation, Boolean boolSet) {
+			this.target = target;
+			this.hasValue = value != null;
+			this.value = value == null ? 0 : value;
+			this.hasIncrement = increment != null;
+			this.increment = increment == null ? 0 : increment;
+			this.hasAlternate = alternate != null;
+			this.alternate = alternate == null ? 0 : alternate;
+			this.hasLoop = loop != null;
+			this.loop = loop == null ? 0 : loop;
+			this.hasMax = max != null;
+			this.max = max == null ? 0 : max;
+			this.hasMin = min != null;
+			this.min = min == null ? 0 : min;
+			this.hold = Boolean.TRUE.equals(hold);
+			this.variation = variation == null ? 0 : variation;
+			this.boolSet = boolSet;
+		}
+	}
+}
@@ -2,14 +2,18 @@ package com.oracle.iot.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.oracle.iot.util.CompressedSeries;
 import com.oracle.iot.util.Constants;
 
 import oracle.iot.client.device.Resource;
@@ -33,89 +37,62 @@ public class PropertyDevice extends IOTDevice {
 	@JsonIgnore
 	private PropertyDeviceDetails details;
 	@JsonIgnore
-	Map<String, Object> currentMetrics = new LinkedHashMap<String, Object>();
+	private final FleetStore fleet;
 	@JsonIgnore
-	Map<PropertyEvent, Boolean> eventTriggers = new LinkedHashMap<PropertyEvent, Boolean>();
+	private final MetricProgram program;
 	@JsonIgnore
-	List<DeviceResource> resources = new ArrayList<DeviceResource>();
+	private FleetStore.Row row;
+	@JsonIgnore
+	private final MetricHandler handler;
+	@JsonIgnore
+	private volatile MetricOverrides overrides = MetricOverrides.NONE;
+	// per value slot, created on its first point
+	@JsonIgnore
+	private final CompressedSeries[] history;
+	// one bit per value slot the last tick changed
+	@JsonIgnore
+	private final long[] changed;
+	@JsonIgnore
+	private static final Map<PropertyDeviceDetails, MetricHandler> handlers = new WeakHashMap<PropertyDeviceDetails, MetricHandler>();
 
 	public PropertyDevice(PropertyDeviceDetails details, String id, String secret) {
+		this(details, id, secret, null);
+	}
+
+	/**
+	 * A device working on the given row as it is, values and events
+	 * included, such as its record in the device state file; a row of its
+	 * type's store at the defaults when null.
+	 */
+	public PropertyDevice(PropertyDeviceDetails details, String id, String secret, FleetStore.Row row) {
 		super(id, secret);
 		this.details = details;
-		for (PropertyMetric metric : details.getMetrics()) {
-			if (metric.getBoolSet() != null) {
-				currentMetrics.put(metric.getDisplayName(), (boolean) metric.getBoolSet());
-			} else {
-				currentMetrics.put(metric.getDisplayName(), metric.getDefaultValue());
-			}
-			final PropertyDevice me = this;
-			Builder resourceBuilder = getResourceBuilder(id, metric);
-			DeviceResource resource = new DeviceResource(resourceBuilder.build(), new RequestMessageHandler() {
-
-				@Override
-				public HttpResponseMessage handleRequest(HttpRequestMessage request) throws Exception {
-					String metricName = request.getURL();
-					try {
-						if (request.getMethod().equalsIgnoreCase("get")) {
-							PropertyMetric metric = me.details.getMetricByName(metricName);
-							if (metric != null) {
-								String defaultValue;
-								if (metric.getBoolSet() == null) {
-									defaultValue = metric.getDefaultValue().toString();
-								} else {
-									defaultValue = metric.getBoolSet().toString();
-								}
-								return new HttpResponseMessage.Builder().header(metricName, Arrays.asList(defaultValue))
-										.contentType("text/xml").url(metricName).body(defaultValue)
-										.statusCode(StatusCode.OK).source(me.getId()).clientId(request.getClientId())
-										.sender(request.getDestination()).destination(request.getSender())
-										.requestId(request.getId()).build();
-							}
-						} else if (request.getMethod().equalsIgnoreCase("put")) {
-							String value = request.getBodyString();
-							PropertyMetric metric = me.details.getMetricByName(metricName);
-							if (metric != null) {
-								if (metric.getBoolSet() == null) {
-									metric.setDefaultValue(Double.valueOf(value));
-								} else {
-									metric.setBoolSet(Boolean.valueOf(value));
-								}
-								return new HttpResponseMessage.Builder().header(metricName, Arrays.asList(value))
-										.contentType("text/xml").url(metricName).body(value)
-										.statusCode(StatusCode.ACCEPTED).source(me.getId())
-										.clientId(request.getClientId()).sender(request.getDestination())
-										.destination(request.getSender()).requestId(request.getId()).build();
-							}
-						}
-					} catch (Exception e) {
-						log.error("Problem with Endpoint manipulation", e);
-					}
-					return new HttpResponseMessage.Builder().header(metricName, null).contentType("text/xml")
-							.url(metricName).body("invalid request").statusCode(StatusCode.BAD_REQUEST)
-							.source(me.getId()).clientId(request.getClientId()).sender(request.getDestination())
-							.destination(request.getSender()).requestId(request.getId()).build();
-				}
-			});
-			resources.add(resource);
-		}
-		log.info("Creating Events: " + details.getEvents().size());
-		for (
-
-		PropertyEvent event : details.getEvents())
-
-		{
-			eventTriggers.put(event, false);
+		this.fleet = FleetStore.forType(details);
+		this.program = fleet.getProgram();
+		if (row == null) {
+			this.row = fleet.allocate();
+		} else {
+			this.row = row;
+			fleet.tally(row);
 		}
-
+		this.handler = handlerFor(details);
+		this.chart = new ChartHistory(program.getDisplayNames(), details.getChartSize());
+		this.history = new CompressedSeries[program.getValueCount()];
+		this.changed = new long[(program.getValueCount() + 63) / 64];
+		handler.register(this);
+		log.debug("Creating Events: " + program.getEventCount());
 	}
 
-	private Builder getResourceBuilder(String id, PropertyMetric metric) {
-		List<Method> methods = new ArrayList<Method>();
-		methods.add(Method.PUT); // allow values to be updated
-		methods.add(Method.GET); // allow user to request the value
-		Builder resourceBuilder = new Resource.Builder();
-		resourceBuilder.endpointName(id).name(metric.getName()).path(metric.getName()).methods(methods);
-		return resourceBuilder;
+	// resources and their handler are built once per type and shared
+	private static MetricHandler handlerFor(PropertyDeviceDetails details) {
+		synchronized (handlers) {
+			MetricHandler handler = handlers.get(details);
+			if (handler == null) {
+				handler = new MetricHandler(details);
+				handlers.put(details, handler);
+			}
+			return handler;
+		}
 	}
 
 	@Override
@@ -127,190 +104,75 @@ public class PropertyDevice extends IOTDevice {
 		return alerts;
 	}
 
+	// events, metrics and the chart are guarded by the device's own monitor so
+	// the scheduler and REST calls on the same device never interleave
 	@Override
-	public Map<String, Object> getEvents() {
+	public synchronized Map<String, Object> getEvents() {
 		Map<String, Object> map = new LinkedHashMap<String, Object>();
-		for (PropertyEvent event : eventTriggers.keySet()) {
+		for (int i = 0; i < eventCount(); i++) {
+			PropertyEvent event = program.getEvent(i);
 			Map<String, Object> obj = new LinkedHashMap<String, Object>();
 			obj.put(DISPLAY, event.getDisplayName());
-			obj.put(VALUE, eventTriggers.get(event));
+			obj.put(VALUE, row.isActive(i));
 			map.put(event.getName(), obj);
 		}
 		return map;
 	}
 
 	@Override
-	public Map<String, Object> getMetrics() {
-		return currentMetrics;
-	}
-
-	public void animateMetrics() {
-		Map<PropertyMetric, Object> calcs = new LinkedHashMap<PropertyMetric, Object>();
-		// place default values
-		for (PropertyMetric metric : details.getMetrics()) {
-			if (metric.getBoolSet() != null) {
-				calcs.put(metric, (boolean) metric.getBoolSet());
-			} else {
-				Double value = calculateAnimatedValue(metric, metric.getDefaultValue());
-				calcs.put(metric, value);
-			}
-		}
-		// loop through events and change values if needed
-		for (PropertyEvent event : eventTriggers.keySet()) {
-			// loop through metrics in event that is active
-			if (eventTriggers.get(event)) {
-				for (EventMetric eventMetric : event.getEventMetrics()) {
-					PropertyMetric metric = getPropertyMetric(calcs, eventMetric);
-					if (calcs.get(metric) instanceof Double) {
-						Double value = calculateAnimatedEventValue(eventMetric, metric, (Double) calcs.get(metric));
-						calcs.put(metric, value);
-					} else if (calcs.get(metric) instanceof Boolean) {
-						Boolean value = eventMetric.getBoolSet();
-						calcs.put(metric, value);
-					}
-
-				}
-			}
-		}
-
-		// write out updated values as current values
-		for (PropertyMetric metric : calcs.keySet()) {
-			if (calcs.get(metric) instanceof Double) {
-				Double newValue = Constants.scale((Double) calcs.get(metric), 2);
-				currentMetrics.put(metric.getDisplayName(), newValue);
-			} else if (calcs.get(metric) instanceof Boolean) {
-				currentMetrics.put(metric.getDisplayName(), (Boolean) calcs.get(metric));
-			}
+	public synchronized Map<String, Object> getMetrics() {
+		if (row == null) {
+			return new LinkedHashMap<String, Object>();
 		}
+		return program.toMap(row);
 	}
 
-	private Double calculateAnimatedEventValue(EventMetric eventMetric, PropertyMetric metric, Double value) {
-		// hold number at current value
-		if (eventMetric.getHold()) {
-			return (Double) currentMetrics.get(metric.getDisplayName());
-		}
-		// set straight up value
-		if (eventMetric.getEventValue() != null) {
-			value = Constants.randomDoubleWithinVariation(eventMetric.getEventValue(), eventMetric.getVariation());
-		}
-		// increment
-		if (eventMetric.getIncrement() != null) {
-			value = (Double) currentMetrics.get(metric.getDisplayName()) + eventMetric.getIncrement();
+	public synchronized void animateMetrics() {
+		if (row != null) {
+			Arrays.fill(changed, 0L);
+			program.animate(row, overrides);
+			fleet.tally(row, changed);
 		}
-		// loop
-		if (eventMetric.getLoop() != null) {
-			value = (Double) currentMetrics.get(metric.getDisplayName()) + eventMetric.getLoop();
-		}
-		// alternate
-		if (eventMetric.getAlternate() != null) {
-			if (!Constants.isWithinVariation((Double) currentMetrics.get(metric.getDisplayName()),
-					eventMetric.getAlternate(), eventMetric.getVariation())) {
-				return Constants.randomDoubleWithinVariation(eventMetric.getAlternate(), eventMetric.getVariation());
-			} else {
-				return Constants.randomDoubleWithinVariation(eventMetric.getEventValue(), eventMetric.getVariation());
-			}
-		}
-		// max
-		if (eventMetric.getMax() != null && value > eventMetric.getMax()) {
-			if (eventMetric.getIncrement() != null) {
-				value = eventMetric.getMax();
-			} else if (eventMetric.getLoop() != null) {
-				value = eventMetric.getEventValue();
-			}
-		}
-		// min
-		if (eventMetric.getMin() != null && value < eventMetric.getMin()) {
-			if (eventMetric.getIncrement() != null) {
-				value = eventMetric.getMin();
-			} else if (eventMetric.getLoop() != null) {
-				value = eventMetric.getEventValue();
-			}
-		}
-		return value;
 	}
 
-	private Double calculateAnimatedValue(PropertyMetric metric, Double value) {
-		// if we have no current metric (first time)
-		// then start using the default value
-		if (currentMetrics.get(metric.getDisplayName()) == null) {
-			value = Constants.randomDoubleWithinVariation(metric.getDefaultValue(), metric.getVariation());
-		}
-		if (metric.getHold()) {
-			return (Double) currentMetrics.get(metric.getDisplayName());
-		} else {
-			value = Constants.randomDoubleWithinVariation(metric.getDefaultValue(), metric.getVariation());
-		}
-		// increment
-		if (metric.getIncrement() != null) {
-			value = (Double) currentMetrics.get(metric.getDisplayName()) + metric.getIncrement();
-		}
-		// loop
-		else if (metric.getLoop() != null) {
-			value = (Double) currentMetrics.get(metric.getDisplayName()) + metric.getLoop();
-		}
-		// alternate
-		else if (metric.getAlternate() != null) {
-			if (!Constants.isWithinVariation((Double) currentMetrics.get(metric.getDisplayName()),
-					metric.getAlternate(), metric.getVariation())) {
-				return Constants.randomDoubleWithinVariation(metric.getAlternate(), metric.getVariation());
-			} else {
-				return Constants.randomDoubleWithinVariation(metric.getDefaultValue(), metric.getVariation());
-			}
-		}
-		// max
-		if (metric.getMax() != null && value > metric.getMax()) {
-			if (metric.getIncrement() != null) {
-				value = metric.getMax();
-			} else if (metric.getLoop() != null) {
-				value = metric.getDefaultValue();
-			}
-		}
-		// min
-		if (metric.getMin() != null && value < metric.getMin()) {
-			if (metric.getIncrement() != null) {
-				value = metric.getMin();
-			} else if (metric.getLoop() != null) {
-				value = metric.getDefaultValue();
+	@Override
+	@JsonIgnore
+	public synchronized Map<String, Object> getChangedMetrics() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		for (int slot = 0; slot < valueCount(); slot++) {
+			if ((changed[slot >>> 6] & (1L << slot)) != 0) {
+				map.put(program.getDisplayName(slot), row.get(slot));
 			}
 		}
+		return map;
+	}
 
-		return value;
+	// a released device keeps answering, just without values or events
+	private int valueCount() {
+		return row == null ? 0 : program.getValueCount();
 	}
 
-	private PropertyMetric getPropertyMetric(Map<PropertyMetric, Object> list, EventMetric eventMetric) {
-		for (PropertyMetric metric : list.keySet()) {
-			if (metric.getName().equals(eventMetric.getMetricName())) {
-				return metric;
-			}
-		}
-		return null;
+	private int eventCount() {
+		return row == null ? 0 : program.getEventCount();
 	}
 
 	@Override
-	public AlertMessage createAlertMessage(String alertName) {
-		String description = "Invalid Alert";
-		for (PropertyAlert alert : details.getAlerts()) {
-			if (alert.getName().equalsIgnoreCase(alertName)) {
-				description = alert.getDisplayName();
-				break;
-			}
+	public synchronized AlertMessage createAlertMessage(String alertName) {
+		String description = program.getAlertDisplayName(alertName);
+		if (description == null) {
+			description = "Invalid Alert";
 		}
 
 		AlertMessage.Builder alertBuilder = new AlertMessage.Builder();
 		alertBuilder.format(details.getAlertFormat());
-		alertBuilder.source(getId());
+		alertBuilder.source(getSource());
 		alertBuilder.description(description);
 
-		for (String key : currentMetrics.keySet()) {
-			String id = getMetricNameByDisplayName(key);
-			if (id != null) {
-				if (currentMetrics.get(key) instanceof Double) {
-					Double metricValue = (Double) currentMetrics.get(key);
-					alertBuilder.dataItem(id, metricValue);
-				} else if (currentMetrics.get(key) instanceof Boolean) {
-					Boolean metricValue = (Boolean) currentMetrics.get(key);
-					alertBuilder.dataItem(id, metricValue);
-				}
+		for (int i = 0; i < valueCount(); i++) {
+			if (row.isNumber(i)) {
+				alertBuilder.dataItem(program.getMetricName(i), row.getNumber(i));
+			} else if (row.isFlag(i)) {
+				alertBuilder.dataItem(program.getMetricName(i), row.getFlag(i));
 			}
 		}
 
@@ -320,47 +182,35 @@ public class PropertyDevice extends IOTDevice {
 
 	}
 
-	private String getMetricNameByDisplayName(String displayName) {
-		for (PropertyMetric metric : details.getMetrics()) {
-			if (metric.getDisplayName().equals(displayName)) {
-				return metric.getName();
-			}
-		}
-		return null;
-	}
-
 	@Override
-	public Boolean eventHandler(String eventName) {
-		for (PropertyEvent event : eventTriggers.keySet()) {
-			if (event.getName().equals(eventName)) {
-				eventTriggers.put(event, !eventTriggers.get(event));
-				return true;
-			}
+	public synchronized Boolean eventHandler(String eventName) {
+		int event = program.eventIndexOf(eventName);
+		if (event < 0 || event >= eventCount()) {
+			return false;
 		}
-		return false;
+		row.toggle(event);
+		return true;
 	}
 
 	@Override
-	public DataMessage createMessage() {
+	public synchronized DataMessage createMessage() {
 		animateMetrics();
 
-		DateTime messageDate = new DateTime();
+		long messageTime = System.currentTimeMillis();
 		DataMessage.Builder msgBuilder = new DataMessage.Builder();
 		msgBuilder.format(details.getDataFormat());
-		msgBuilder.source(getId());
-
-		for (String key : currentMetrics.keySet()) {
-			String id = getMetricNameByDisplayName(key);
-			if (id != null) {
-				if (currentMetrics.get(key) instanceof Double) {
-					Double metric = (Double) currentMetrics.get(key);
-					msgBuilder.dataItem(id, metric);
-					addToChart(messageDate, key, metric);
-				} else if (currentMetrics.get(key) instanceof Boolean) {
-					Boolean metric = (Boolean) currentMetrics.get(key);
-					msgBuilder.dataItem(id, metric);
-					// addToChart(messageDate, key, metric ? 1d : 0d);
-				}
+		msgBuilder.source(getSource());
+
+		for (int i = 0; i < valueCount(); i++) {
+			if (row.isNumber(i)) {
+				double metric = row.getNumber(i);
+				msgBuilder.dataItem(program.getMetricName(i), metric);
+				addToChart(i, messageTime, metric);
+				record(i, messageTime, metric);
+			} else if (row.isFlag(i)) {
+				msgBuilder.dataItem(program.getMetricName(i), row.getFlag(i));
+				record(i, messageTime, row.getFlag(i) ? 1 : 0);
+				// addToChart(messageDate, key, metric ? 1d : 0d);
 			}
 		}
 		msgBuilder.reliability(Message.Reliability.BEST_EFFORT);
@@ -368,6 +218,56 @@ public class PropertyDevice extends IOTDevice {
 		return msgBuilder.build();
 	}
 
+	private void record(int slot, long time, double value) {
+		if (history[slot] == null) {
+			history[slot] = new CompressedSeries();
+		}
+		history[slot].add(time, value);
+	}
+
+	@Override
+	public synchronized Map<String, Object> getHistory(String metric, long from, long to, long step) {
+		int slot = program.slotOf(metric);
+		if (slot < 0) {
+			return null;
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("metric", program.getMetricName(slot));
+		result.put("display", program.getDisplayName(slot));
+		result.put("from", from);
+		result.put("to", to);
+		result.put("step", step);
+		result.put("points",
+				history[slot] == null ? new ArrayList<Object[]>() : history[slot].query(from, to, step));
+		return result;
+	}
+
+	@Override
+	public synchronized long trimHistory(long before, long maxBytes) {
+		long bytes = 0;
+		for (CompressedSeries series : history) {
+			if (series != null) {
+				series.trimBefore(before);
+				bytes += series.bytes();
+			}
+		}
+		// then blocks from the old end of every metric in turn
+		boolean dropped = true;
+		while (bytes > maxBytes && dropped) {
+			dropped = false;
+			for (CompressedSeries series : history) {
+				if (series != null && bytes > maxBytes) {
+					long size = series.bytes();
+					if (series.dropOldest()) {
+						bytes -= size - series.bytes();
+						dropped = true;
+					}
+				}
+			}
+		}
+		return bytes;
+	}
+
 	@Override
 	public String getPicture() {
 		return details.getPicture();
@@ -378,6 +278,89 @@ public class PropertyDevice extends IOTDevice {
 		return details.getName();
 	}
 
+	@Override
+	protected Long getTypeReportInterval() {
+		return details.getReportInterval();
+	}
+
+	@Override
+	public String getDeviceModel() {
+		return details.getDataFormat();
+	}
+
+	/**
+	 * The device's row in its type's store, null once released. Read and
+	 * write it while holding the device's monitor.
+	 */
+	@JsonIgnore
+	public synchronized FleetStore.Row getRow() {
+		return row;
+	}
+
+	/**
+	 * Carries on with the values and events in the given row of the same
+	 * shape, giving the current one back.
+	 */
+	public synchronized void moveTo(FleetStore.Row target) {
+		if (row == null || row == target) {
+			return;
+		}
+		row.copyTo(target);
+		fleet.release(row);
+		row = target;
+		fleet.tally(row);
+	}
+
+	/**
+	 * The number of values and events of the type, the shape of its rows.
+	 */
+	@JsonIgnore
+	public int getValueCount() {
+		return program.getValueCount();
+	}
+
+	@JsonIgnore
+	public int getEventCount() {
+		return program.getEventCount();
+	}
+
+	/**
+	 * The default the metric animates around for this device, its own if one
+	 * was set, a Double or a Boolean; null for an unknown metric.
+	 */
+	public Object getMetricDefault(String metricName) {
+		int m = program.indexOf(metricName);
+		return m < 0 ? null : program.getDefault(m, overrides);
+	}
+
+	/**
+	 * Sets this device's own default for the metric, leaving the type and
+	 * every other device as they are.
+	 *
+	 * @return false for an unknown metric
+	 */
+	public synchronized boolean setMetricDefault(String metricName, String value) {
+		int m = program.indexOf(metricName);
+		if (m < 0) {
+			return false;
+		}
+		if (program.isFlag(m)) {
+			overrides = overrides.with(m, Boolean.valueOf(value) ? 1 : 0);
+		} else {
+			overrides = overrides.with(m, Double.parseDouble(value));
+		}
+		return true;
+	}
+
+	@Override
+	public synchronized void release() {
+		if (row != null) {
+			fleet.release(row);
+			row = null;
+		}
+		handler.unregister(this);
+	}
+
 	@Override
 	public IOTDevice copy() {
 		return this;
@@ -385,7 +368,71 @@ public class PropertyDevice extends IOTDevice {
 
 	@Override
 	public List<DeviceResource> getResources() {
-		return resources;
+		return handler.resources;
 	}
 
+	/**
+	 * Answers GET and PUT requests for the metrics of one type. The device a
+	 * request is for is its destination, so one handler serves the fleet;
+	 * a PUT only changes that device.
+	 */
+	private static class MetricHandler implements RequestMessageHandler {
+		private final List<DeviceResource> resources;
+		private final ConcurrentMap<String, PropertyDevice> devices = new ConcurrentHashMap<String, PropertyDevice>();
+
+		MetricHandler(PropertyDeviceDetails details) {
+			List<DeviceResource> list = new ArrayList<DeviceResource>();
+			for (PropertyMetric metric : details.getMetrics()) {
+				List<Method> methods = new ArrayList<Method>();
+				methods.add(Method.PUT); // allow values to be updated
+				methods.add(Method.GET); // allow user to request the value
+				Builder resourceBuilder = new Resource.Builder();
+				resourceBuilder.name(metric.getName()).path(metric.getName()).methods(methods);
+				list.add(new DeviceResource(resourceBuilder.build(), this));
+			}
+			resources = Collections.unmodifiableList(list);
+		}
+
+		void register(PropertyDevice device) {
+			// a duplicate that is never inserted does not displace the original
+			devices.putIfAbsent(device.getId(), device);
+		}
+
+		void unregister(PropertyDevice device) {
+			devices.remove(device.getId(), device);
+		}
+
+		@Override
+		public HttpResponseMessage handleRequest(HttpRequestMessage request) throws Exception {
+			String metricName = request.getURL();
+			String id = request.getDestination();
+			PropertyDevice device = id == null ? null : devices.get(id);
+			try {
+				if (device != null && request.getMethod().equalsIgnoreCase("get")) {
+					Object defaultValue = device.getMetricDefault(metricName);
+					if (defaultValue != null) {
+						String body = defaultValue.toString();
+						return new HttpResponseMessage.Builder().header(metricName, Arrays.asList(body))
+								.contentType("text/xml").url(metricName).body(body).statusCode(StatusCode.OK)
+								.source(id).clientId(request.getClientId()).sender(request.getDestination())
+								.destination(request.getSender()).requestId(request.getId()).build();
+					}
+				} else if (device != null && request.getMethod().equalsIgnoreCase("put")) {
+					String value = request.getBodyString();
+					if (device.setMetricDefault(metricName, value)) {
+						return new HttpResponseMessage.Builder().header(metricName, Arrays.asList(value))
+								.contentType("text/xml").url(metricName).body(value).statusCode(StatusCode.ACCEPTED)
+								.source(id).clientId(request.getClientId()).sender(request.getDestination())
+								.destination(request.getSender()).requestId(request.getId()).build();
+					}
+				}
+			} catch (Exception e) {
+				log.error("Problem with Endpoint manipulation", e);
+			}
+			return new HttpResponseMessage.Builder().header(metricName, null).contentType("text/xml").url(metricName)
+					.body("invalid request").statusCode(StatusCode.BAD_REQUEST).source(id)
+					.clientId(request.getClientId()).sender(request.getDestination()).destination(request.getSender())
+					.requestId(request.getId()).build();
+		}
+	}
 }
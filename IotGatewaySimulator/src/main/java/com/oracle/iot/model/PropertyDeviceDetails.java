@@ -3,8 +3,10 @@ package com.oracle.iot.model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class PropertyDeviceDetails {
@@ -14,8 +16,12 @@ public class PropertyDeviceDetails {
 	private String dataFormat;
 	private String alertFormat;
 	private Boolean enabled = true;
+	private Long reportInterval;
+	private Integer chartSize;
 
 	private List<PropertyMetric> metrics = new ArrayList<PropertyMetric>();
+	// lower cased metric name to the first metric of that name
+	private Map<String, PropertyMetric> metricsByName = new HashMap<String, PropertyMetric>();
 	private List<PropertyAlert> alerts = new ArrayList<PropertyAlert>();
 	private Map<String, PropertyEvent> events = new LinkedHashMap<String, PropertyEvent>();
 
@@ -31,8 +37,15 @@ public class PropertyDeviceDetails {
 
 	public void addMetric(String name, String display, Double defaultValue, Double increment, Double alternate,
 			Double loop, Double max, Double min, Double variation, Boolean hold) {
-		metrics.add(
-				new PropertyMetric(name, display, defaultValue, increment, alternate, loop, max, min, variation, hold));
+		index(new PropertyMetric(name, display, defaultValue, increment, alternate, loop, max, min, variation, hold));
+	}
+
+	private void index(PropertyMetric metric) {
+		metrics.add(metric);
+		String key = metric.getName().toLowerCase(Locale.ENGLISH);
+		if (!metricsByName.containsKey(key)) {
+			metricsByName.put(key, metric);
+		}
 	}
 
 	public List<PropertyMetric> getMetrics() {
@@ -91,7 +104,7 @@ public class PropertyDeviceDetails {
 	}
 
 	public void addMetric(String name, String display, Boolean boolSet) {
-		metrics.add(new PropertyMetric(name, display, boolSet));
+		index(new PropertyMetric(name, display, boolSet));
 	}
 
 	public void addEvent(String name, String displayName, Integer priority, String metricName, Boolean boolSet) {
@@ -116,15 +129,26 @@ public class PropertyDeviceDetails {
 	}
 
 	public PropertyMetric getMetricByName(String metricName) {
-		for (PropertyMetric metric : this.metrics) {
-			if (metric.getName().equalsIgnoreCase(metricName)) {
-				return metric;
-			}
-		}
-		return null;
+		return metricName == null ? null : metricsByName.get(metricName.toLowerCase(Locale.ENGLISH));
 	}
 
 	public void setPicture(String picture) {
 		this.picture = picture;
 	}
+
+	public Long getReportInterval() {
+		return reportInterval;
+	}
+
+	public void setReportInterval(Long reportInterval) {
+		this.reportInterval = reportInterval;
+	}
+
+	public Integer getChartSize() {
+		return chartSize;
+	}
+
+	public void setChartSize(Integer chartSize) {
+		this.chartSize = chartSize;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.oracle.iot.model;
+
+import java.util.Locale;
+
+/**
+ * How devices are placed inside their reporting period.
+ */
+public enum SpreadStrategy {
+	// every device reports on the interval boundary, all at once
+	NONE,
+	// stable offset derived from the device id
+	HASHED,
+	// uniform random offset, picked whenever the device is scheduled
+	RANDOM;
+
+	/**
+	 * The strategy of that name, ignoring case; null for none.
+	 */
+	public static SpreadStrategy fromString(String value) {
+		if (value == null) {
+			return null;
+		}
+		String name = value.trim().toUpperCase(Locale.ENGLISH);
+		if (name.equals("UNIFORM-RANDOM")) {
+			return RANDOM;
+		}
+		for (SpreadStrategy strategy : values()) {
+			if (strategy.name().equals(name)) {
+				return strategy;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return name().toLowerCase();
+	}
+}
@@ -0,0 +1,105 @@
+package com.oracle.iot.scheduled;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.oracle.iot.service.SystemConfigService;
+
+/**
+ * Fans a tick's worth of device sends out over a bounded worker pool. The pool
+ * size caps the number of sends in flight and follows
+ * {@link SystemConfigService#getMaxConcurrentSends()}; a dispatch waits until
+ * every task has finished or the dispatch timeout elapses, whichever is first.
+ */
+@Component
+public class DeviceDispatcher {
+
+	private static final Logger log = Logger.getLogger(DeviceDispatcher.class);
+
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	private final ThreadPoolExecutor executor;
+
+	public DeviceDispatcher() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("device-dispatch-");
+		threadFactory.setDaemon(true);
+		executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs all tasks and blocks until they complete or time out. Tasks still
+	 * running at the timeout are cancelled.
+	 *
+	 * @return the number of tasks that completed without error
+	 */
+	public int dispatch(List<? extends Callable<Boolean>> tasks) {
+		if (tasks.isEmpty()) {
+			return 0;
+		}
+		resize(systemConfigService.getMaxConcurrentSends());
+		List<Future<Boolean>> futures;
+		try {
+			futures = executor.invokeAll(tasks, systemConfigService.getDispatchTimeout(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 0;
+		}
+
+		int completed = 0;
+		int timedOut = 0;
+		for (Future<Boolean> future : futures) {
+			try {
+				if (Boolean.TRUE.equals(future.get())) {
+					completed++;
+				}
+			} catch (CancellationException e) {
+				timedOut++;
+			} catch (ExecutionException e) {
+				log.error("Error dispatching device", e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		if (timedOut > 0) {
+			log.warn(timedOut + " of " + tasks.size() + " device dispatches timed out");
+		}
+		return completed;
+	}
+
+	private synchronized void resize(Integer maxConcurrentSends) {
+		int size = maxConcurrentSends == null || maxConcurrentSends < 1 ? 1 : maxConcurrentSends;
+		if (size == executor.getMaximumPoolSize()) {
+			return;
+		}
+		// order matters: core may never exceed max
+		if (size > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(size);
+			executor.setCorePoolSize(size);
+		} else {
+			executor.setCorePoolSize(size);
+			executor.setMaximumPoolSize(size);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,64 @@
+package com.oracle.iot.scheduled;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Component;
+
+import com.oracle.iot.model.SpreadStrategy;
+import com.oracle.iot.service.SystemConfigService;
+
+/**
+ * Picks where in its reporting period a device sends, so a fleet produces a
+ * steady stream of messages instead of one burst per period.
+ */
+@Component
+public class PhaseSpreader {
+
+	// jitter is capped below half a period so a report can never overtake the
+	// next one
+	static final int MAX_JITTER_PERCENT = 45;
+
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	/**
+	 * @return the device's offset in [0, interval), measured from the epoch
+	 */
+	public long phase(String id, long interval) {
+		SpreadStrategy strategy = systemConfigService.getSpreadStrategy();
+		if (strategy == null || strategy == SpreadStrategy.NONE) {
+			return 0;
+		} else if (strategy == SpreadStrategy.RANDOM) {
+			return ThreadLocalRandom.current().nextLong(interval);
+		}
+		return (mix(id.hashCode()) & Long.MAX_VALUE) % interval;
+	}
+
+	/**
+	 * @return a random shift in [-jitter, +jitter] for a single report
+	 */
+	public long jitter(long interval) {
+		Integer percent = systemConfigService.getSpreadJitter();
+		if (percent == null || percent <= 0) {
+			return 0;
+		}
+		long bound = interval * Math.min(percent, MAX_JITTER_PERCENT) / 100;
+		if (bound == 0) {
+			return 0;
+		}
+		return ThreadLocalRandom.current().nextLong(-bound, bound + 1);
+	}
+
+	// ids tend to differ only in their last characters (HVAC-1, HVAC-2...) so
+	// the raw hash codes sit next to each other; scramble them first
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,94 @@
+package com.oracle.iot.scheduled;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Component;
+
+import com.oracle.iot.model.DeviceDefaults;
+import com.oracle.iot.model.IOTDevice;
+import com.oracle.iot.util.TimingWheel;
+
+/**
+ * Keeps every device on its own reporting interval. Devices sit in a timing
+ * wheel keyed by id, so a tick only pays for the devices that are due. Each
+ * device reports at a fixed phase within its period, chosen by the
+ * {@link PhaseSpreader}.
+ */
+@Component
+public class ReportScheduler {
+
+	public static final long TICK_MILLIS = 100;
+	private static final int SLOTS = 64;
+	private static final int LEVELS = 4;
+
+	private final TimingWheel wheel = new TimingWheel(TICK_MILLIS, SLOTS, LEVELS, System.currentTimeMillis());
+	private final ConcurrentMap<String, Long> phases = new ConcurrentHashMap<String, Long>();
+
+	@Resource
+	private PhaseSpreader phaseSpreader;
+
+	/**
+	 * Picks a new phase for the device and schedules its next report.
+	 */
+	public void schedule(IOTDevice device) {
+		long interval = getInterval(device);
+		long phase = phaseSpreader.phase(device.getId(), interval);
+		phases.put(device.getId(), phase);
+		long next = nextAligned(System.currentTimeMillis(), phase, interval);
+		wheel.schedule(device.getId(), next + phaseSpreader.jitter(interval));
+	}
+
+	/**
+	 * Schedules the report after the one due at {@code previousDeadline},
+	 * keeping the device's phase. Jitter never accumulates since every report
+	 * is placed relative to the phase, and periods missed while the send was
+	 * running are skipped rather than fired back to back.
+	 */
+	public void reschedule(IOTDevice device, long previousDeadline) {
+		Long phase = phases.get(device.getId());
+		if (phase == null) {
+			schedule(device);
+			return;
+		}
+		long interval = getInterval(device);
+		// half a period past the last report lands inside the next period
+		// whatever jitter that report had
+		long from = Math.max(System.currentTimeMillis(), previousDeadline + interval / 2);
+		long next = nextAligned(from, phase % interval, interval);
+		wheel.schedule(device.getId(), next + phaseSpreader.jitter(interval));
+	}
+
+	public void cancel(String id) {
+		wheel.cancel(id);
+		phases.remove(id);
+	}
+
+	public boolean isScheduled(String id) {
+		return wheel.contains(id);
+	}
+
+	public List<TimingWheel.Entry> due(long now) {
+		return wheel.advance(now);
+	}
+
+	// the first time after {@code time} that sits at {@code phase} in the period
+	static long nextAligned(long time, long phase, long interval) {
+		long offset = (time - phase) % interval;
+		if (offset < 0) {
+			offset += interval;
+		}
+		return time - offset + interval;
+	}
+
+	public long getInterval(IOTDevice device) {
+		Long interval = device.getReportInterval();
+		if (interval == null || interval <= 0) {
+			return ((Integer) DeviceDefaults.MESSAGE_FREQUENCY.getValue()) * 1000L;
+		}
+		return interval;
+	}
+}
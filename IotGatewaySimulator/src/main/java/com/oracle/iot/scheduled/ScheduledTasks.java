@@ -1,15 +1,26 @@
 package com.oracle.iot.scheduled;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.annotation.Resource;
 
 import org.apache.log4j.Logger;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import com.oracle.iot.dao.MessagingDao.AlreadyActivatedException;
 import com.oracle.iot.model.IOTDevice;
 import com.oracle.iot.service.DeviceService;
 import com.oracle.iot.service.MessagingService;
+import com.oracle.iot.service.MetricStreamService;
+import com.oracle.iot.service.SendMetricsService;
 import com.oracle.iot.service.SystemConfigService;
+import com.oracle.iot.util.TimingWheel;
 
 @Component
 public class ScheduledTasks {
@@ -22,35 +33,128 @@ public class ScheduledTasks {
 	private SystemConfigService systemConfigService;
 	@Resource
 	private DeviceService deviceService;
+	@Resource
+	private DeviceDispatcher deviceDispatcher;
+	@Resource
+	private ReportScheduler reportScheduler;
+	@Resource
+	private MetricStreamService metricStreamService;
+	@Resource
+	private SendMetricsService sendMetrics;
 
-	// execute 5 seconds after the last message was sent
-	@Scheduled(fixedDelay = 2000)
+	// devices the server refused to activate, told about once
+	private final Set<String> refused = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// renew tokens ahead of their expiry so sends never wait on a token round
+	// trip
+	@Scheduled(fixedDelay = 5000)
+	public void refreshTokens() {
+		Integer margin = systemConfigService.getTokenRefreshMargin();
+		if (!systemConfigService.getMessageStatus() || margin == null) {
+			return;
+		}
+		int renewed = messageService.refreshTokens(margin * 1000L);
+		if (renewed > 0) {
+			log.info("Renewed " + renewed + " access tokens");
+		}
+	}
+
+	// the devices write to the mapped state file, get it onto the disk
+	@Scheduled(fixedDelay = 5000)
+	public void checkpointState() {
+		deviceService.checkpointState();
+	}
+
+	// a comment down every quiet metric stream finds the clients that left
+	@Scheduled(fixedDelay = MetricStreamService.KEEPALIVE_MILLIS)
+	public void keepMetricStreamsAlive() {
+		metricStreamService.keepAlive();
+	}
+
+	// hold metric history to its retention and memory budget
+	@Scheduled(fixedDelay = 10000)
+	public void trimHistory() {
+		Integer retention = systemConfigService.getHistoryRetention();
+		Integer megabytes = systemConfigService.getHistoryMaxMegabytes();
+		long before = retention == null ? Long.MIN_VALUE : System.currentTimeMillis() - retention * 1000L;
+		long maxBytes = megabytes == null ? Long.MAX_VALUE : megabytes * 1024L * 1024L;
+		deviceService.trimHistory(before, maxBytes);
+	}
+
+	// post the message batches that have waited their linger time
+	@Scheduled(fixedDelay = 100)
+	public void flushBatches() {
+		List<Callable<Boolean>> flushes = messageService.flushExpiredBatches(System.currentTimeMillis());
+		if (!flushes.isEmpty()) {
+			deviceDispatcher.dispatch(flushes);
+		}
+	}
+
+	// advance the timing wheel and send for the devices that came due
+	@Scheduled(fixedDelay = ReportScheduler.TICK_MILLIS)
 	public void reportCurrentTime() {
+		long start = System.nanoTime();
+		long now = System.currentTimeMillis();
+		List<TimingWheel.Entry> due = reportScheduler.due(now);
+		if (due.isEmpty()) {
+			return;
+		}
 		Boolean sendingMessages = systemConfigService.getMessageStatus();
-		for (IOTDevice device : deviceService.getAll()) {
-			try {
-				if (device != null) {
-					messageService.sendMessages(device, systemConfigService.getHost(), systemConfigService.getPort(),
-							sendingMessages, systemConfigService.getUsername(), systemConfigService.getPassword());
-					if (sendingMessages) {
-						deviceService.updateDevice(device);
-					}
-				}
-			} catch (final IllegalStateException ise) {
-				log.error("The device has already been activated, but there is no private key", ise);
-				log.error("Enroll a new device and try again.", ise);
-				disableMessages();
-			} catch (Exception e) {
-				log.error("Error sending message", e);
-				disableMessages();
+		List<SendTask> tasks = new ArrayList<SendTask>(due.size());
+		// how late the tick picked up the device that was due first
+		long earliest = now;
+		for (TimingWheel.Entry entry : due) {
+			earliest = Math.min(earliest, entry.getDeadline());
+			IOTDevice device = deviceService.getDevice(entry.getId());
+			// deleted devices simply drop out of the wheel
+			if (device != null) {
+				tasks.add(new SendTask(device, sendingMessages, entry.getDeadline()));
+			}
+		}
+		deviceDispatcher.dispatch(tasks);
+		for (SendTask task : tasks) {
+			if (deviceService.getDevice(task.device.getId()) != null) {
+				reportScheduler.reschedule(task.device, task.deadline);
 			}
 		}
+		sendMetrics.recordMillis(SendMetricsService.TICK_LAG, now - earliest);
+		sendMetrics.record(SendMetricsService.TICK_DURATION, start);
 	}
 
-	private void disableMessages() {
-		if (systemConfigService.getMessageStatus()) {
-			log.error("Error detected, turning off messages!");
-			systemConfigService.setMessageStatus(false);
+	private class SendTask implements Callable<Boolean> {
+		private final IOTDevice device;
+		private final Boolean sendingMessages;
+		private final long deadline;
+
+		SendTask(IOTDevice device, Boolean sendingMessages, long deadline) {
+			this.device = device;
+			this.sendingMessages = sendingMessages;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public Boolean call() {
+			try {
+				messageService.sendMessages(device, systemConfigService.getHost(), systemConfigService.getPort(),
+						sendingMessages, systemConfigService.getUsername(), systemConfigService.getPassword());
+				if (sendingMessages) {
+					deviceService.updateDevice(device);
+				}
+				metricStreamService.publish(device);
+				refused.remove(device.getId());
+				return true;
+			} catch (final AlreadyActivatedException ise) {
+				sendMetrics.exception(ise);
+				if (refused.add(device.getId())) {
+					log.error("The device has already been activated, but there is no private key", ise);
+					log.error("Enroll a new device and try again.", ise);
+				}
+			} catch (Exception e) {
+				// only this device fails, it tries again on its next tick
+				sendMetrics.exception(e);
+				log.error("Error sending message for " + device.getId(), e);
+			}
+			return false;
 		}
 	}
 }
@@ -0,0 +1,190 @@
+package com.oracle.iot.service;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Service;
+
+import com.oracle.iot.client.ActivationPolicyResponse;
+import com.oracle.iot.client.DirectActivationRequest;
+import com.oracle.iot.dao.MessagingDao;
+import com.oracle.iot.dao.MessagingDao.AlreadyActivatedException;
+import com.oracle.iot.model.IOTDevice;
+
+/**
+ * Activates many devices at once instead of one per send tick. Every device
+ * goes through policy fetch, key supply, request signing and the activation
+ * post, each stage with its own concurrency limit, and starts sending as soon
+ * as its own activation is through. A failure is reported for that device
+ * only.
+ */
+@Service
+public class ActivationService {
+
+	private static final Logger log = Logger.getLogger(ActivationService.class);
+
+	public static final String ACTIVATED = "activated";
+	public static final String SKIPPED = "skipped";
+	public static final String ALREADY_ACTIVATED = "already-activated";
+	public static final String FAILED = "failed";
+
+	@Resource
+	private MessagingDao dao;
+
+	@Resource
+	private DeviceService deviceService;
+
+	@Resource
+	private MessagingService messagingService;
+
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	/**
+	 * Told about every device as it finishes, from the activation threads.
+	 */
+	public interface Listener {
+		void onResult(Map<String, Object> result);
+	}
+
+	/**
+	 * Activates the given devices, or every device when {@code ids} is null,
+	 * and returns once all of them are done.
+	 *
+	 * @return counts per status
+	 */
+	public Map<String, Object> activate(List<String> ids, final Listener listener) throws InterruptedException {
+		if (ids == null) {
+			ids = new ArrayList<String>();
+			for (IOTDevice device : deviceService.getAll()) {
+				ids.add(device.getId());
+			}
+		}
+		final int total = ids.size();
+		final Semaphore policyPermits = new Semaphore(limit(systemConfigService.getActivationPolicyConcurrency()));
+		final Semaphore signPermits = new Semaphore(limit(systemConfigService.getActivationSignConcurrency()));
+		final Semaphore postPermits = new Semaphore(limit(systemConfigService.getActivationPostConcurrency()));
+		final AtomicInteger completed = new AtomicInteger();
+		final Map<String, AtomicInteger> counts = new LinkedHashMap<String, AtomicInteger>();
+		for (String status : new String[] { ACTIVATED, SKIPPED, ALREADY_ACTIVATED, FAILED }) {
+			counts.put(status, new AtomicInteger());
+		}
+
+		ExecutorService workers = Executors.newFixedThreadPool(limit(systemConfigService.getActivationParallelism()));
+		try {
+			for (final String id : ids) {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						long start = System.currentTimeMillis();
+						Map<String, Object> result = new LinkedHashMap<String, Object>();
+						result.put("id", id);
+						try {
+							activate(id, policyPermits, signPermits, postPermits, result);
+						} catch (AlreadyActivatedException e) {
+							result.put("status", ALREADY_ACTIVATED);
+							result.put("message", "activated before, but no private key is kept");
+						} catch (Exception e) {
+							log.error("Error activating " + id, e);
+							result.put("status", FAILED);
+							result.put("message", e.getMessage());
+						}
+						counts.get(result.get("status")).incrementAndGet();
+						result.put("millis", System.currentTimeMillis() - start);
+						result.put("completed", completed.incrementAndGet());
+						result.put("total", total);
+						if (listener != null) {
+							listener.onResult(result);
+						}
+					}
+				});
+			}
+		} finally {
+			workers.shutdown();
+		}
+		while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+			// keep waiting, every device reports back
+		}
+
+		Map<String, Object> summary = new LinkedHashMap<String, Object>();
+		summary.put("total", total);
+		for (Map.Entry<String, AtomicInteger> count : counts.entrySet()) {
+			summary.put(count.getKey(), count.getValue().get());
+		}
+		return summary;
+	}
+
+	private void activate(String id, Semaphore policyPermits, Semaphore signPermits, Semaphore postPermits,
+			Map<String, Object> result) throws Exception {
+		IOTDevice device = deviceService.getDevice(id);
+		if (device == null) {
+			throw new IllegalArgumentException("Unknown device " + id);
+		}
+		if (Boolean.TRUE.equals(systemConfigService.getGatewayMode())) {
+			result.put("status", SKIPPED);
+			result.put("message", "devices are registered through the gateway");
+			return;
+		}
+		dao.createConnection(systemConfigService.getHost(), systemConfigService.getPort(),
+				systemConfigService.getUsername(), systemConfigService.getPassword(), id, device.getSecret());
+		// the send tick activates through the same lock
+		synchronized (dao.activationLock(id)) {
+			if (dao.getPrivateKey(id) != null) {
+				result.put("status", SKIPPED);
+				result.put("message", "already has a private key");
+				return;
+			}
+
+			ActivationPolicyResponse policy;
+			policyPermits.acquire();
+			try {
+				policy = dao.fetchActivationPolicy(id);
+			} finally {
+				policyPermits.release();
+			}
+			// the key pool bounds generation by itself
+			KeyPair keyPair = dao.supplyKeyPair(policy);
+			DirectActivationRequest request;
+			signPermits.acquire();
+			try {
+				request = dao.signActivation(id, keyPair, policy);
+			} finally {
+				signPermits.release();
+			}
+			postPermits.acquire();
+			try {
+				dao.postActivation(id, request);
+			} finally {
+				postPermits.release();
+			}
+			dao.savePrivateKey(id, keyPair.getPrivate().getEncoded());
+		}
+		result.put("status", ACTIVATED);
+
+		if (Boolean.TRUE.equals(systemConfigService.getMessageStatus())) {
+			// the first send, the schedule takes over from here
+			try {
+				messagingService.sendMessages(device, systemConfigService.getHost(), systemConfigService.getPort(),
+						true, systemConfigService.getUsername(), systemConfigService.getPassword());
+			} catch (Exception e) {
+				log.error("Error sending first message for " + id, e);
+				result.put("message", "activated, first send failed: " + e.getMessage());
+			}
+		}
+	}
+
+	private static int limit(Integer configured) {
+		return configured == null || configured < 1 ? 1 : configured;
+	}
+}
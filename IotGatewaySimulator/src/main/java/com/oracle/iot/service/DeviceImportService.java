@@ -0,0 +1,211 @@
+package com.oracle.iot.service;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Service;
+
+import com.oracle.iot.model.PropertyDevice;
+
+/**
+ * Creates devices from a CSV in the device_batch.csv layout: the device id
+ * first, the shared secret in the seventh column and optionally the device
+ * type in the eighth, otherwise the type given for the whole file. Rows are
+ * read one at a time and inserted in batches, so memory stays flat however
+ * long the file is.
+ * <p>
+ * A file named by the {@value #FILE_PROPERTY} system property is imported at
+ * startup, with the type from {@value #TYPE_PROPERTY}.
+ */
+@Service
+public class DeviceImportService {
+
+	private static final Logger log = Logger.getLogger(DeviceImportService.class);
+
+	public static final String FILE_PROPERTY = "iot.import.file";
+	public static final String TYPE_PROPERTY = "iot.import.type";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int BATCH_SIZE = 500;
+	private static final int MAX_ERRORS = 100;
+	private static final int ID_COLUMN = 0;
+	private static final int SECRET_COLUMN = 6;
+	private static final int TYPE_COLUMN = 7;
+
+	@Resource
+	private DeviceService deviceService;
+
+	@PostConstruct
+	public void importAtStartup() {
+		String path = System.getProperty(FILE_PROPERTY);
+		if (path == null || path.trim().length() == 0) {
+			return;
+		}
+		InputStream in = null;
+		try {
+			in = new FileInputStream(new File(path.trim()));
+			Map<String, Object> result = importCsv(in, System.getProperty(TYPE_PROPERTY));
+			log.info("Imported " + path + ": " + result);
+		} catch (IOException e) {
+			log.error("Could not import devices from " + path, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					log.warn("Error closing " + path, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Imports every row of the stream.
+	 *
+	 * @param defaultType
+	 *            type of the rows that do not name one, may be null
+	 * @return line, created and failed counts plus the first errors by line
+	 */
+	public Map<String, Object> importCsv(InputStream in, String defaultType) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+		List<PropertyDevice> batch = new ArrayList<PropertyDevice>(BATCH_SIZE);
+		List<Integer> batchLines = new ArrayList<Integer>(BATCH_SIZE);
+		List<Map<String, Object>> errors = new ArrayList<Map<String, Object>>();
+		int lines = 0;
+		int created = 0;
+		int failed = 0;
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines++;
+			if (line.trim().length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			List<String> columns = parseLine(line);
+			if (lines == 1 && isHeader(columns)) {
+				continue;
+			}
+			String problem = null;
+			String id = column(columns, ID_COLUMN);
+			String secret = column(columns, SECRET_COLUMN);
+			String type = column(columns, TYPE_COLUMN);
+			if (type == null) {
+				type = defaultType;
+			}
+			if (id == null) {
+				problem = "missing device id";
+			} else if (secret == null) {
+				problem = "missing secret in column " + (SECRET_COLUMN + 1);
+			} else if (type == null) {
+				problem = "no device type";
+			} else {
+				PropertyDevice device = deviceService.newDevice(type, id, secret);
+				if (device == null) {
+					problem = "unknown device type " + type;
+				} else {
+					batch.add(device);
+					batchLines.add(lines);
+				}
+			}
+			if (problem != null) {
+				failed++;
+				addError(errors, lines, problem);
+			}
+			if (batch.size() == BATCH_SIZE) {
+				int rejected = flush(batch, batchLines, errors);
+				created += batch.size() - rejected;
+				failed += rejected;
+				batch.clear();
+				batchLines.clear();
+			}
+		}
+		int rejected = flush(batch, batchLines, errors);
+		created += batch.size() - rejected;
+		failed += rejected;
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("lines", lines);
+		result.put("created", created);
+		result.put("failed", failed);
+		result.put("errors", errors);
+		return result;
+	}
+
+	private int flush(List<PropertyDevice> batch, List<Integer> batchLines, List<Map<String, Object>> errors) {
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		List<Integer> rejected = deviceService.insertAll(batch);
+		for (Integer index : rejected) {
+			addError(errors, batchLines.get(index), "device " + batch.get(index).getId() + " already exists");
+		}
+		return rejected.size();
+	}
+
+	private static void addError(List<Map<String, Object>> errors, int line, String message) {
+		// only the first errors are kept, the counts cover the rest
+		if (errors.size() < MAX_ERRORS) {
+			Map<String, Object> error = new LinkedHashMap<String, Object>();
+			error.put("line", line);
+			error.put("message", message);
+			errors.add(error);
+		}
+	}
+
+	private static boolean isHeader(List<String> columns) {
+		String first = column(columns, ID_COLUMN);
+		return first != null && (first.equalsIgnoreCase("id") || first.equalsIgnoreCase("hardwareId"));
+	}
+
+	private static String column(List<String> columns, int index) {
+		if (index >= columns.size()) {
+			return null;
+		}
+		String value = columns.get(index).trim();
+		return value.length() == 0 ? null : value;
+	}
+
+	// splits one CSV line, honouring double quoted fields
+	static List<String> parseLine(String line) {
+		List<String> columns = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"') {
+					if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+						current.append('"');
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					current.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				columns.add(current.toString());
+				current.setLength(0);
+			} else {
+				current.append(c);
+			}
+		}
+		columns.add(current.toString());
+		return columns;
+	}
+}
@@ -2,16 +2,30 @@ package com.oracle.iot.service;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Service;
@@ -19,10 +33,14 @@ import org.springframework.web.multipart.MultipartFile;
 
 import com.oracle.iot.dao.DeviceCentralDao;
 import com.oracle.iot.dao.DeviceDaoInMemory;
-import com.oracle.iot.dao.DevicePropertiesLoaderDao;
+import com.oracle.iot.dao.DevicePropertiesLoaderDao;
+import com.oracle.iot.dao.DeviceStateSegment;
+import com.oracle.iot.model.FleetStore;
 import com.oracle.iot.model.IOTDevice;
+import com.oracle.iot.model.MetricProgram;
 import com.oracle.iot.model.PropertyDevice;
 import com.oracle.iot.model.PropertyDeviceDetails;
+import com.oracle.iot.scheduled.ReportScheduler;
 import com.oracle.iot.util.Constants;
 
 @Service
@@ -30,6 +48,24 @@ public class DeviceService {
 
 	private static final Logger logger = Logger.getLogger(DeviceService.class);
 
+	public static final String SECRET_FIXED = "fixed";
+	public static final String SECRET_RANDOM = "random";
+	public static final String SECRET_ID = "id";
+
+	static final int GENERATE_BATCH = 500;
+	static final int GENERATE_LIMIT = 1000000;
+	private static final Pattern COUNTER = Pattern.compile("\\{(\\d+)(?:\\.\\.(\\d+))?\\}");
+
+	/**
+	 * Fields of a device listing row, all of them unless a listing asks for
+	 * fewer.
+	 */
+	public static final List<String> LIST_FIELDS = Collections
+			.unmodifiableList(Arrays.asList("name", "secret", "image", "type", "display"));
+
+	private final ConcurrentMap<String, String> typeDisplayNames = new ConcurrentHashMap<String, String>();
+	private final ConcurrentMap<String, Picture> pictures = new ConcurrentHashMap<String, Picture>();
+
 	@Resource
 	private DeviceDaoInMemory deviceDao;
 
@@ -38,39 +74,387 @@ public class DeviceService {
 
 	@Resource
 	private DeviceCentralDao centralDao;
-	
+
+	@Resource
+	private ReportScheduler reportScheduler;
+
+	@Resource
+	private DeviceStateSegment stateSegment;
+
+	/**
+	 * Brings back the fleet kept in the device state file. Every device
+	 * carries on in its record as it is, values and events included.
+	 */
+	@PostConstruct
+	public void restore() {
+		if (!stateSegment.isOpen()) {
+			return;
+		}
+		int restored = 0;
+		for (DeviceStateSegment.Record record : stateSegment.findAll()) {
+			String id = record.getId();
+			PropertyDeviceDetails deviceDetails = loaderDao.getDevice(record.getType());
+			if (deviceDetails == null) {
+				logger.warn("Not restoring " + id + ", unknown type " + record.getType());
+				stateSegment.remove(id);
+				continue;
+			}
+			MetricProgram program = FleetStore.forType(deviceDetails).getProgram();
+			String secret = stateSegment.getSecret(record);
+			PropertyDevice device;
+			if (record.getValueCount() == program.getValueCount()
+					&& record.getEventCount() == program.getEventCount()) {
+				device = new PropertyDevice(deviceDetails, id, secret, record);
+			} else {
+				// the type has changed shape since, its record starts over
+				device = new PropertyDevice(deviceDetails, id, secret);
+				stateSegment.attach(device);
+			}
+			device.setReportInterval(record.getReportInterval());
+			if (deviceDao.insert(device)) {
+				reportScheduler.schedule(device);
+				restored++;
+			} else {
+				device.release();
+			}
+		}
+		logger.info("Restored " + restored + " devices");
+	}
+
+	/**
+	 * Writes the device state file's changed pages out to disk; the devices
+	 * work on the file itself.
+	 */
+	public void checkpointState() {
+		if (stateSegment.isOpen()) {
+			stateSegment.force();
+		}
+	}
+
+	/**
+	 * Applies the history retention, the byte budget shared evenly by the
+	 * devices.
+	 *
+	 * @return bytes of history kept
+	 */
+	public long trimHistory(long before, long maxBytes) {
+		List<IOTDevice> devices = deviceDao.findAll();
+		if (devices.isEmpty()) {
+			return 0;
+		}
+		long perDevice = maxBytes / devices.size();
+		long kept = 0;
+		for (IOTDevice device : devices) {
+			kept += device.trimHistory(before, perDevice);
+		}
+		return kept;
+	}
+
+	public Map<String, Object> getHistory(String id, String metric, long from, long to, long step) {
+		IOTDevice device = deviceDao.findById(id);
+		return device == null ? null : device.getHistory(metric, from, to, step);
+	}
+
+	/**
+	 * Fleet-wide aggregates of the type's current values per display name,
+	 * null for an unknown type.
+	 */
+	public Map<String, Object> getTypeStats(String type) {
+		PropertyDeviceDetails deviceDetails = loaderDao.getDevice(type);
+		return deviceDetails == null ? null : FleetStore.forType(deviceDetails).getStats().toMap();
+	}
+
+	private void attachState(IOTDevice device) {
+		if (device instanceof PropertyDevice) {
+			stateSegment.attach((PropertyDevice) device);
+		}
+	}
+
 	public boolean create(String name, String id, String secret) {
 		PropertyDeviceDetails deviceDetails = loaderDao.getDevice(name);
-		return deviceDao.insert(new PropertyDevice(deviceDetails, id, secret));
+		PropertyDevice device = new PropertyDevice(deviceDetails, id, secret);
+		if (deviceDao.insert(device)) {
+			reportScheduler.schedule(device);
+			attachState(device);
+			return true;
+		}
+		device.release();
+		return false;
+	}
+
+	/**
+	 * A device of the given type, not yet registered; null for an unknown
+	 * type.
+	 */
+	public PropertyDevice newDevice(String type, String id, String secret) {
+		PropertyDeviceDetails deviceDetails = loaderDao.getDevice(type);
+		if (deviceDetails == null) {
+			return null;
+		}
+		return new PropertyDevice(deviceDetails, id, secret);
+	}
+
+	/**
+	 * Registers and schedules a batch of new devices.
+	 *
+	 * @return positions in the batch of the devices whose id was taken
+	 */
+	public List<Integer> insertAll(List<PropertyDevice> devices) {
+		List<Integer> rejected = new ArrayList<Integer>();
+		for (int i = 0; i < devices.size(); i++) {
+			PropertyDevice device = devices.get(i);
+			if (deviceDao.insert(device)) {
+				reportScheduler.schedule(device);
+				attachState(device);
+			} else {
+				device.release();
+				rejected.add(i);
+			}
+		}
+		return rejected;
+	}
+
+	/**
+	 * Creates a fleet of one type without a file. Ids come from the counter in
+	 * {@code pattern}: "hvac-{00000}" gives hvac-00000, hvac-00001 and so on,
+	 * and "hvac-{00000..19999}" also sets the count when none is given. The
+	 * devices are built and inserted in batches on one thread per core, all
+	 * sharing the type's single definition.
+	 *
+	 * @param secretMode
+	 *            {@value #SECRET_FIXED} for {@code secret} on every device,
+	 *            {@value #SECRET_RANDOM} or {@value #SECRET_ID}
+	 * @return requested, created and duplicate counts with the first and last
+	 *         id
+	 */
+	public Map<String, Object> generate(String type, Integer count, String pattern, final String secret,
+			final String secretMode) throws InterruptedException {
+		final PropertyDeviceDetails deviceDetails = loaderDao.getDevice(type);
+		if (deviceDetails == null) {
+			throw new IllegalArgumentException("Unknown device type " + type);
+		}
+		if (pattern == null || pattern.trim().length() == 0) {
+			pattern = type + "-{00000}";
+		}
+		Matcher counter = COUNTER.matcher(pattern);
+		if (!counter.find()) {
+			throw new IllegalArgumentException("No counter like {00000} in " + pattern);
+		}
+		if (SECRET_FIXED.equals(secretMode) && (secret == null || secret.length() == 0)) {
+			throw new IllegalArgumentException("A fixed secret is needed");
+		} else if (!SECRET_FIXED.equals(secretMode) && !SECRET_RANDOM.equals(secretMode)
+				&& !SECRET_ID.equals(secretMode)) {
+			throw new IllegalArgumentException("Unknown secret mode " + secretMode);
+		}
+		final String prefix = pattern.substring(0, counter.start());
+		final String suffix = pattern.substring(counter.end());
+		final int width = counter.group(1).length();
+		final long start = Long.parseLong(counter.group(1));
+		long total = -1;
+		if (count != null) {
+			total = count;
+		} else if (counter.group(2) != null) {
+			total = Long.parseLong(counter.group(2)) - start + 1;
+		}
+		if (total < 1 || total > GENERATE_LIMIT) {
+			throw new IllegalArgumentException("Count must be between 1 and " + GENERATE_LIMIT);
+		}
+
+		int batches = (int) ((total + GENERATE_BATCH - 1) / GENERATE_BATCH);
+		ExecutorService workers = Executors
+				.newFixedThreadPool(Math.min(batches, Runtime.getRuntime().availableProcessors()));
+		List<Future<Integer>> rejections = new ArrayList<Future<Integer>>(batches);
+		try {
+			for (int batch = 0; batch < batches; batch++) {
+				final long from = start + (long) batch * GENERATE_BATCH;
+				final long to = Math.min(from + GENERATE_BATCH, start + total);
+				rejections.add(workers.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						List<PropertyDevice> devices = new ArrayList<PropertyDevice>((int) (to - from));
+						for (long n = from; n < to; n++) {
+							String id = generatedId(prefix, n, width, suffix);
+							devices.add(new PropertyDevice(deviceDetails, id, generatedSecret(secretMode, secret, id)));
+						}
+						return insertAll(devices).size();
+					}
+				}));
+			}
+		} finally {
+			workers.shutdown();
+		}
+		int duplicates = 0;
+		for (Future<Integer> rejected : rejections) {
+			try {
+				duplicates += rejected.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Device generation failed", e.getCause());
+			}
+		}
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("requested", total);
+		result.put("created", total - duplicates);
+		result.put("duplicates", duplicates);
+		result.put("first", generatedId(prefix, start, width, suffix));
+		result.put("last", generatedId(prefix, start + total - 1, width, suffix));
+		return result;
+	}
+
+	static String generatedId(String prefix, long n, int width, String suffix) {
+		String digits = Long.toString(n);
+		StringBuilder id = new StringBuilder(prefix.length() + Math.max(width, digits.length()) + suffix.length());
+		id.append(prefix);
+		for (int i = digits.length(); i < width; i++) {
+			id.append('0');
+		}
+		return id.append(digits).append(suffix).toString();
+	}
+
+	private static String generatedSecret(String secretMode, String secret, String id) {
+		if (SECRET_ID.equals(secretMode)) {
+			return id;
+		} else if (SECRET_RANDOM.equals(secretMode)) {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			return Long.toString(random.nextLong() & Long.MAX_VALUE, 36)
+					+ Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+		}
+		return secret;
 	}
 
+	public Boolean setReportInterval(String id, Long reportInterval) {
+		IOTDevice device = deviceDao.findById(id);
+		if (device == null) {
+			return false;
+		}
+		device.setReportInterval(reportInterval);
+		deviceDao.update(device);
+		reportScheduler.schedule(device);
+		stateSegment.saveInterval(device);
+		return true;
+	}
+
+	/**
+	 * Every device as a listing row with the default fields.
+	 */
 	public List<Map<String,Object>> findAll() {
-		List<IOTDevice> findAll = deviceDao.findAll();
-		//TODO: TAKE OUT WHEN DONE TESTING NEW UI
-//		if(findAll.size() == 0){
-//			create("hvac","0-AM","secret");
-//			create("smartThermostat","0-AY","secret");
-//			create("hvac","0-AV","secret");
-//			create("smartThermostat","0-AB","secret");
-//			create("smartThermostat","0-AN","secret");
-//			create("hvac","0-AP","secret");
-//			create("hvac","0-AL","secret");
-//		}
-		List<Map<String,Object>> devices = new ArrayList<>();
-		for(IOTDevice device:deviceDao.findAll()){
-			Map<String,Object> map = new LinkedHashMap<>();
-			map.put("name", device.getId());
-			map.put("secret", device.getSecret());
-			map.put("image", device.getPicture());
-			map.put("type", device.getResource());
-			map.put("display", Constants.splitCamelCase(device.getResource()));
-			devices.add(map);
-		}
-		return devices;
+		return toRows(deviceDao.findAll(), LIST_FIELDS);
+	}
+
+	/**
+	 * A page of devices after the cursor, in the order they were created,
+	 * optionally of one type or with ids starting with a prefix.
+	 *
+	 * @param limit
+	 *            null or less than one for no limit
+	 */
+	public DeviceDaoInMemory.Page findPage(Long cursor, Integer limit, String type, String idPrefix) {
+		return deviceDao.findPage(cursor == null ? 0 : cursor, limit == null || limit < 1 ? Integer.MAX_VALUE : limit,
+				type, idPrefix);
+	}
+
+	public int count() {
+		return deviceDao.count();
+	}
+
+	/**
+	 * Devices a {@link #findPage} with the same type and prefix walks through
+	 * over all its pages.
+	 */
+	public int count(String type, String idPrefix) {
+		return deviceDao.count(type, idPrefix);
+	}
+
+	/**
+	 * Listing rows holding only the given fields of {@link #LIST_FIELDS}. The
+	 * image is the URL of the type's picture, not the picture itself.
+	 */
+	public List<Map<String, Object>> toRows(List<IOTDevice> devices, Collection<String> fields) {
+		boolean name = fields.contains("name");
+		boolean secret = fields.contains("secret");
+		boolean image = fields.contains("image");
+		boolean type = fields.contains("type");
+		boolean display = fields.contains("display");
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(devices.size());
+		for (IOTDevice device : devices) {
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			if (name) {
+				row.put("name", device.getId());
+			}
+			if (secret) {
+				row.put("secret", device.getSecret());
+			}
+			if (image) {
+				row.put("image", pictureUrl(device.getResource()));
+			}
+			if (type) {
+				row.put("type", device.getResource());
+			}
+			if (display) {
+				row.put("display", typeDisplayName(device.getResource()));
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private String pictureUrl(String type) {
+		Picture picture = type == null ? null : getPicture(type);
+		return picture == null ? null : "device/types/" + type + "/picture?v=" + picture.getEtag();
+	}
+
+	// split once per type rather than a regex per row
+	private String typeDisplayName(String type) {
+		if (type == null) {
+			return null;
+		}
+		String display = typeDisplayNames.get(type);
+		if (display == null) {
+			display = Constants.splitCamelCase(type);
+			typeDisplayNames.putIfAbsent(type, display);
+		}
+		return display;
+	}
+
+	/**
+	 * The decoded picture of a type, null for an unknown type.
+	 */
+	public Picture getPicture(String type) {
+		PropertyDeviceDetails deviceDetails = loaderDao.getDevice(type);
+		if (deviceDetails == null || deviceDetails.getPicture() == null) {
+			return null;
+		}
+		Picture picture = pictures.get(type);
+		// a type loaded again brings its own picture string
+		if (picture == null || picture.source != deviceDetails.getPicture()) {
+			picture = new Picture(deviceDetails.getPicture());
+			pictures.put(type, picture);
+		}
+		return picture;
+	}
+
+	/**
+	 * Re-places every device in its reporting period, e.g. after the spread
+	 * strategy changed.
+	 */
+	public void respreadReports() {
+		for (IOTDevice device : deviceDao.findAll()) {
+			reportScheduler.schedule(device);
+		}
+	}
+
+	public void clearEndpoints() {
+		for (IOTDevice device : deviceDao.findAll()) {
+			device.setEndpointId(null);
+		}
 	}
 
 	public Boolean delete(String id) {
-		return deviceDao.delete(id);
+		reportScheduler.cancel(id);
+		// released first, the device must be done with its record
+		Boolean deleted = deviceDao.delete(id);
+		stateSegment.remove(id);
+		return deleted;
 	}
 
 	public IOTDevice findById(String id) {
@@ -81,6 +465,10 @@ public class DeviceService {
 		return deviceDao.updateAll(allDevices);
 	}
 
+	/**
+	 * Called by the dispatcher for every report; the state file catches up at
+	 * the next {@link #checkpointState()}.
+	 */
 	public Boolean updateDevice(IOTDevice device) {
 		return deviceDao.update(device);
 	}
@@ -223,4 +611,44 @@ public class DeviceService {
 	public List<IOTDevice> getAll() {
 		return deviceDao.findAll();
 	}
+
+	/**
+	 * A type's picture decoded once, with a tag that changes with its content.
+	 */
+	public static class Picture {
+		private final String source;
+		private final byte[] bytes;
+		private final String etag;
+		private final String contentType;
+
+		Picture(String source) {
+			this.source = source;
+			this.bytes = Base64.decodeBase64(source);
+			this.etag = DigestUtils.sha1Hex(bytes);
+			this.contentType = contentType(bytes);
+		}
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		// the pictures are stored without a type, so look at the magic bytes
+		static String contentType(byte[] bytes) {
+			if (bytes.length > 3 && (bytes[0] & 0xff) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+				return "image/png";
+			}
+			if (bytes.length > 2 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F') {
+				return "image/gif";
+			}
+			return "image/jpeg";
+		}
+	}
 }
@@ -1,11 +1,16 @@
 package com.oracle.iot.service;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import javax.annotation.Resource;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Service;
 
+import com.oracle.iot.dao.HttpConnectionPool;
 import com.oracle.iot.dao.MessagingDao;
+import com.oracle.iot.dao.MessagingDao.AlreadyActivatedException;
 import com.oracle.iot.model.IOTDevice;
 
 import oracle.iot.client.ClientException;
@@ -15,12 +20,29 @@ import oracle.iot.message.Message;
 @Service
 public class MessagingService {
 	Logger log = Logger.getLogger(MessagingService.class);
+	// don't start a send with a token that may expire while it is in flight
+	private static final long TOKEN_EXPIRY_SKEW = 5000;
+
 	@Resource
 	private MessagingDao dao;
 
+	@Resource
+	private SystemConfigService systemConfigService;
+
+	@Resource
+	private HttpConnectionPool httpConnectionPool;
+
 	public void sendMessages(IOTDevice device, String iotcsServer, Integer iotcsPort, Boolean sendMessages,
 			String username, String password) throws ClientException {
 		System.setProperty("com.oracle.iot.client.server.cn", iotcsServer);
+		if (sendMessages && isGatewayMode()) {
+			String gatewayId = connectGateway(iotcsServer, iotcsPort, username, password);
+			// register first, the message carries the endpoint id as its source
+			if (registerIndirectDevice(gatewayId, device)) {
+				dao.sendMessage(gatewayId, device.createMessage());
+			}
+			return;
+		}
 		DataMessage message = device.createMessage();
 		if (sendMessages) {
 			dao.createConnection(iotcsServer, iotcsPort, username, password, device.getId(), device.getSecret());
@@ -33,19 +55,34 @@ public class MessagingService {
 	}
 
 	private boolean getDeviceClientConnection(IOTDevice device) throws ClientException {
-		byte[] privateKey = dao.getPrivateKey(device.getId());
+		return getClientConnection(device.getId());
+	}
+
+	private boolean getClientConnection(String id) throws ClientException {
+		byte[] privateKey = dao.getPrivateKey(id);
 		try {
 			if (privateKey == null) {
-				privateKey = dao.activateDevice(device.getId());
-//				for (DeviceResource resource : device.getResources()) {
-//					dao.registerRequestHandler(device.getId(), resource.getResource(), resource.getHandler());
-//				}
-				dao.savePrivateKey(device.getId(), privateKey);
-			} else {
+				// shared with bulk activation, whoever gets in second finds the key
+				synchronized (dao.activationLock(id)) {
+					privateKey = dao.getPrivateKey(id);
+					if (privateKey == null) {
+						privateKey = dao.activateDevice(id);
+//						for (DeviceResource resource : device.getResources()) {
+//							dao.registerRequestHandler(device.getId(), resource.getResource(), resource.getHandler());
+//						}
+						dao.savePrivateKey(id, privateKey);
+						return true;
+					}
+				}
+			}
+			if (!dao.hasValidToken(id, TOKEN_EXPIRY_SKEW)) {
 				// Authenticate with, and connect to, the server
 				System.out.println("\nConnecting with client-assertion...");
-				dao.authenticate(privateKey, device.getId());
+				dao.authenticate(privateKey, id);
 			}
+		} catch (AlreadyActivatedException e) {
+			// nothing a retry fixes, the caller tells the user
+			throw e;
 		} catch (Exception e) {
 			log.error("Error activating/authenticating", e);
 			throw new RuntimeException("Error activating", e);
@@ -53,14 +90,93 @@ public class MessagingService {
 		return true;
 	}
 
+	private boolean isGatewayMode() {
+		return Boolean.TRUE.equals(systemConfigService.getGatewayMode());
+	}
+
+	/**
+	 * Makes sure the gateway endpoint is activated and holds a token. In
+	 * gateway mode this is the only connection that authenticates, every
+	 * simulated device sends through it.
+	 */
+	private String connectGateway(String iotcsServer, Integer iotcsPort, String username, String password)
+			throws ClientException {
+		String gatewayId = systemConfigService.getGatewayId();
+		String gatewaySecret = systemConfigService.getGatewaySecret();
+		if (gatewayId == null || gatewaySecret == null) {
+			throw new IllegalArgumentException("Gateway mode needs a gateway id and secret");
+		}
+		dao.createConnection(iotcsServer, iotcsPort, username, password, gatewayId, gatewaySecret);
+		if (dao.getPrivateKey(gatewayId) != null && dao.hasValidToken(gatewayId, TOKEN_EXPIRY_SKEW)) {
+			return gatewayId;
+		}
+		// every dispatch worker gets here on the first tick, one activates
+		synchronized (dao.activationLock(gatewayId)) {
+			getClientConnection(gatewayId);
+			if (!dao.hasValidToken(gatewayId, TOKEN_EXPIRY_SKEW)) {
+				// a gateway that was just activated still needs its first token
+				getClientConnection(gatewayId);
+			}
+		}
+		return gatewayId;
+	}
+
+	/**
+	 * Registers the device with the gateway unless it has its endpoint id
+	 * already. A device that fails to register is skipped and tried again on
+	 * its next tick, the rest of the fleet keeps sending.
+	 *
+	 * @return whether the device has an endpoint id to send with
+	 */
+	private boolean registerIndirectDevice(String gatewayId, IOTDevice device) {
+		if (device.getEndpointId() != null) {
+			return true;
+		}
+		try {
+			device.setEndpointId(dao.registerIndirectDevice(gatewayId, device.getId(), device.getDeviceModel()));
+			return true;
+		} catch (Exception e) {
+			log.error("Error registering indirect device " + device.getId(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * Renews the tokens that expire within {@code margin} milliseconds so
+	 * sends keep reusing a valid one.
+	 */
+	public int refreshTokens(long margin) {
+		return dao.refreshExpiringTokens(margin);
+	}
+
+	/**
+	 * Applies changed HTTP pool limits and timeouts to the shared client.
+	 */
+	public void applyHttpConfig() {
+		httpConnectionPool.applyConfig();
+	}
+
+	public List<Callable<Boolean>> flushExpiredBatches(long now) {
+		return dao.flushExpiredBatches(now);
+	}
+
 	public Boolean sendAlert(IOTDevice device, String alert, String iotcsServer, Integer iotcsPort,
 			Boolean sendMessages) {
 		if (sendMessages && device != null) {
-			Message message = device.createAlertMessage(alert);
 			try {
-				dao.createConnection(iotcsServer, iotcsPort, "username", "password", device.getId(), device.getSecret());
-				getDeviceClientConnection(device);
-				dao.sendMessage(device.getId(), message);
+				String senderId = device.getId();
+				if (isGatewayMode()) {
+					senderId = connectGateway(iotcsServer, iotcsPort, systemConfigService.getUsername(),
+							systemConfigService.getPassword());
+					if (!registerIndirectDevice(senderId, device)) {
+						return false;
+					}
+				} else {
+					dao.createConnection(iotcsServer, iotcsPort, "username", "password", device.getId(), device.getSecret());
+					getDeviceClientConnection(device);
+				}
+				Message message = device.createAlertMessage(alert);
+				dao.sendMessage(senderId, message);
 			} catch (Exception e) {
 				log.error("Error sending alert", e);
 				return false;
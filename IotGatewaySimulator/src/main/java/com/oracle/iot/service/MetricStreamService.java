@@ -0,0 +1,268 @@
+package com.oracle.iot.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oracle.iot.model.IOTDevice;
+
+/**
+ * Pushes the metric values that changed on a device's tick to the dashboards
+ * watching it, instead of each of them polling the whole device. The change
+ * comes from the tick itself and is serialized once, whatever the number of
+ * watchers; devices nobody watches cost a map lookup. Watchers hold no
+ * thread: each queues its events and a few sender threads write them out.
+ */
+@Service
+public class MetricStreamService {
+
+	private static final Logger log = Logger.getLogger(MetricStreamService.class);
+
+	static final int QUEUE_SIZE = 256;
+	public static final long KEEPALIVE_MILLIS = 15000;
+	private static final int SENDERS = 2;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ConcurrentMap<String, List<Subscription>> byDevice = new ConcurrentHashMap<String, List<Subscription>>();
+	// subscriptions to every device
+	private final List<Subscription> everyDevice = new CopyOnWriteArrayList<Subscription>();
+	private final Executor senders;
+
+	public MetricStreamService() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("metric-stream-");
+		threadFactory.setDaemon(true);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(SENDERS, SENDERS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		senders = executor;
+	}
+
+	MetricStreamService(Executor senders) {
+		this.senders = senders;
+	}
+
+	/**
+	 * Where a watcher's events go, such as the response of its request.
+	 */
+	public interface Sink {
+		void send(String event) throws IOException;
+
+		void keepAlive() throws IOException;
+	}
+
+	/**
+	 * Starts sending the events of the given devices, or of all of them when
+	 * {@code ids} is null, to the sink.
+	 */
+	public Subscription subscribe(List<String> ids, Sink sink) {
+		Subscription subscription = new Subscription(ids, sink);
+		if (ids == null) {
+			everyDevice.add(subscription);
+		} else {
+			for (String id : ids) {
+				while (true) {
+					List<Subscription> list = byDevice.get(id);
+					if (list == null) {
+						list = new CopyOnWriteArrayList<Subscription>();
+						List<Subscription> existing = byDevice.putIfAbsent(id, list);
+						if (existing != null) {
+							list = existing;
+						}
+					}
+					list.add(subscription);
+					// an unsubscribe may have dropped the list meanwhile
+					if (byDevice.get(id) == list) {
+						break;
+					}
+					list.remove(subscription);
+				}
+			}
+		}
+		return subscription;
+	}
+
+	public void unsubscribe(Subscription subscription) {
+		if (!subscription.open.compareAndSet(true, false)) {
+			return;
+		}
+		subscription.events.clear();
+		if (subscription.ids == null) {
+			everyDevice.remove(subscription);
+			return;
+		}
+		for (String id : subscription.ids) {
+			List<Subscription> list = byDevice.get(id);
+			if (list != null) {
+				list.remove(subscription);
+				if (list.isEmpty()) {
+					byDevice.remove(id, list);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the values the device's tick changed to its watchers, after the
+	 * tick.
+	 */
+	public void publish(IOTDevice device) {
+		String id = device.getId();
+		List<Subscription> watchers = byDevice.get(id);
+		if ((watchers == null || watchers.isEmpty()) && everyDevice.isEmpty()) {
+			return;
+		}
+		Map<String, Object> changed = device.getChangedMetrics();
+		if (changed.isEmpty()) {
+			return;
+		}
+		String event = toEvent(id, changed);
+		if (event == null) {
+			return;
+		}
+		if (watchers != null) {
+			for (Subscription subscription : watchers) {
+				subscription.offer(event);
+				schedule(subscription);
+			}
+		}
+		for (Subscription subscription : everyDevice) {
+			subscription.offer(event);
+			schedule(subscription);
+		}
+	}
+
+	/**
+	 * Has every watcher with nothing else to send write a keepalive, which
+	 * finds out the clients that went away.
+	 */
+	public void keepAlive() {
+		for (List<Subscription> list : byDevice.values()) {
+			for (Subscription subscription : list) {
+				subscription.idle = true;
+				schedule(subscription);
+			}
+		}
+		for (Subscription subscription : everyDevice) {
+			subscription.idle = true;
+			schedule(subscription);
+		}
+	}
+
+	/**
+	 * All current values of a device, the first event of a new watcher.
+	 */
+	public String snapshot(IOTDevice device) {
+		return toEvent(device.getId(), device.getMetrics());
+	}
+
+	private String toEvent(String id, Map<String, Object> metrics) {
+		Map<String, Object> event = new LinkedHashMap<String, Object>();
+		event.put("id", id);
+		event.put("metrics", metrics);
+		try {
+			return mapper.writeValueAsString(event);
+		} catch (JsonProcessingException e) {
+			log.error("Could not serialize the metrics of " + id, e);
+			return null;
+		}
+	}
+
+	// one drain per subscription at a time keeps its events in order
+	private void schedule(final Subscription subscription) {
+		if (!subscription.open.get() || !subscription.draining.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			senders.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain(subscription);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			subscription.draining.set(false);
+		}
+	}
+
+	private void drain(Subscription subscription) {
+		try {
+			boolean sent = false;
+			String event;
+			while (subscription.open.get() && (event = subscription.events.poll()) != null) {
+				subscription.sink.send(event);
+				sent = true;
+			}
+			boolean idle = subscription.idle;
+			subscription.idle = false;
+			if (idle && !sent && subscription.open.get()) {
+				subscription.sink.keepAlive();
+			}
+		} catch (IOException e) {
+			log.debug("Metric stream closed", e);
+			unsubscribe(subscription);
+		} finally {
+			subscription.draining.set(false);
+		}
+		// an event offered after the last poll but before the flag went down
+		if (!subscription.events.isEmpty()) {
+			schedule(subscription);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (senders instanceof ExecutorService) {
+			((ExecutorService) senders).shutdownNow();
+		}
+	}
+
+	/**
+	 * The events waiting for one watcher. A watcher that falls behind loses
+	 * its oldest events.
+	 */
+	public static class Subscription {
+		private final List<String> ids;
+		private final Sink sink;
+		private final AtomicBoolean open = new AtomicBoolean(true);
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private volatile boolean idle;
+		private final BlockingQueue<String> events = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+
+		Subscription(List<String> ids, Sink sink) {
+			this.ids = ids == null ? null : new ArrayList<String>(ids);
+			this.sink = sink;
+		}
+
+		void offer(String event) {
+			while (!events.offer(event)) {
+				events.poll();
+			}
+		}
+
+		public List<String> getIds() {
+			return ids;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.oracle.iot.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import com.oracle.iot.util.LogHistogram;
+
+/**
+ * Latency, throughput and error counts of the send pipeline: a
+ * {@link LogHistogram} of milliseconds per stage, counters for messages, HTTP
+ * status classes and exceptions by class, and the duration and lag of the
+ * report ticks. Recording is a clock read and a short lock per stage, cheap
+ * enough for every send.
+ * <p>
+ * Read as JSON from /system/metrics, or over JMX.
+ */
+@Service
+@ManagedResource(objectName = "com.oracle.iot:type=SendMetrics", description = "Send pipeline metrics")
+public class SendMetricsService {
+
+	public static final String ACTIVATION_POLICY = "activation.policy";
+	public static final String ACTIVATION_KEYPAIR = "activation.keypair";
+	public static final String ACTIVATION_SIGN = "activation.sign";
+	public static final String ACTIVATION_POST = "activation.post";
+	public static final String TOKEN_RENEWAL = "token.renewal";
+	public static final String SERIALIZATION = "serialization";
+	public static final String HTTP_POST = "http.post";
+	public static final String BATCH_SEND = "batch.send";
+	public static final String TICK_DURATION = "tick.duration";
+	public static final String TICK_LAG = "tick.lag";
+
+	private static final String[] STAGES = { ACTIVATION_POLICY, ACTIVATION_KEYPAIR, ACTIVATION_SIGN, ACTIVATION_POST,
+			TOKEN_RENEWAL, SERIALIZATION, HTTP_POST, BATCH_SEND, TICK_DURATION, TICK_LAG };
+	private static final double[] PERCENTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+	private static final int RATE_SECONDS = 60;
+
+	// fixed at construction, read without locking
+	private final Map<String, Timer> timers = new LinkedHashMap<String, Timer>();
+	private final AtomicLong messagesSent = new AtomicLong();
+	private final AtomicLong messagesFailed = new AtomicLong();
+	private final AtomicLong batchesSent = new AtomicLong();
+	private final AtomicLong batchesFailed = new AtomicLong();
+	// 1xx to 5xx
+	private final AtomicLongArray statusClasses = new AtomicLongArray(6);
+	private final ConcurrentMap<String, AtomicLong> exceptions = new ConcurrentHashMap<String, AtomicLong>();
+	private final Rate sendRate = new Rate();
+	private final long started = System.currentTimeMillis();
+
+	public SendMetricsService() {
+		for (String stage : STAGES) {
+			timers.put(stage, new Timer());
+		}
+	}
+
+	/**
+	 * Records a stage that started at the given {@link System#nanoTime()}.
+	 */
+	public void record(String stage, long startNanos) {
+		recordMillis(stage, (System.nanoTime() - startNanos) / 1e6);
+	}
+
+	public void recordMillis(String stage, double millis) {
+		Timer timer = timers.get(stage);
+		if (timer != null) {
+			timer.record(millis);
+		}
+	}
+
+	public void status(int status) {
+		int statusClass = status / 100;
+		if (statusClass >= 1 && statusClass <= 5) {
+			statusClasses.incrementAndGet(statusClass);
+		}
+	}
+
+	public void exception(Throwable e) {
+		String name = e.getClass().getSimpleName();
+		AtomicLong count = exceptions.get(name);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = exceptions.putIfAbsent(name, created);
+			if (count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Counts a batch of messages the server accepted or not.
+	 */
+	public void batch(int messages, boolean accepted) {
+		if (accepted) {
+			batchesSent.incrementAndGet();
+			messagesSent.addAndGet(messages);
+			sendRate.add(System.currentTimeMillis(), messages);
+		} else {
+			batchesFailed.incrementAndGet();
+			messagesFailed.addAndGet(messages);
+		}
+	}
+
+	/**
+	 * Everything recorded so far.
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> messages = new LinkedHashMap<String, Object>();
+		messages.put("sent", messagesSent.get());
+		messages.put("failed", messagesFailed.get());
+		messages.put("batchesSent", batchesSent.get());
+		messages.put("batchesFailed", batchesFailed.get());
+		messages.put("perSecond", getMessagesPerSecond());
+
+		Map<String, Object> http = new LinkedHashMap<String, Object>();
+		for (int statusClass = 1; statusClass <= 5; statusClass++) {
+			http.put(statusClass + "xx", statusClasses.get(statusClass));
+		}
+
+		Map<String, Object> exceptionCounts = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, AtomicLong> entry : exceptions.entrySet()) {
+			exceptionCounts.put(entry.getKey(), entry.getValue().get());
+		}
+
+		Map<String, Object> latency = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			latency.put(entry.getKey(), entry.getValue().toMap());
+		}
+
+		Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+		snapshot.put("uptime", System.currentTimeMillis() - started);
+		snapshot.put("messages", messages);
+		snapshot.put("http", http);
+		snapshot.put("exceptions", exceptionCounts);
+		snapshot.put("latency", latency);
+		return snapshot;
+	}
+
+	@ManagedAttribute(description = "Messages the server accepted")
+	public long getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	@ManagedAttribute(description = "Messages in batches the server refused or never got")
+	public long getMessagesFailed() {
+		return messagesFailed.get();
+	}
+
+	@ManagedAttribute(description = "Messages accepted per second over the last minute")
+	public double getMessagesPerSecond() {
+		return sendRate.perSecond(System.currentTimeMillis());
+	}
+
+	@ManagedAttribute(description = "HTTP responses with a 2xx status")
+	public long getHttp2xx() {
+		return statusClasses.get(2);
+	}
+
+	@ManagedAttribute(description = "HTTP responses with a 4xx status")
+	public long getHttp4xx() {
+		return statusClasses.get(4);
+	}
+
+	@ManagedAttribute(description = "HTTP responses with a 5xx status")
+	public long getHttp5xx() {
+		return statusClasses.get(5);
+	}
+
+	@ManagedAttribute(description = "Exceptions caught in the send pipeline")
+	public long getExceptions() {
+		long total = 0;
+		for (AtomicLong count : exceptions.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	@ManagedAttribute(description = "Stages with latency histograms")
+	public String[] getStages() {
+		return STAGES.clone();
+	}
+
+	/**
+	 * A latency percentile of one stage in milliseconds, -1 before the
+	 * stage's first record.
+	 */
+	@ManagedOperation(description = "Latency of a stage in milliseconds at a percentile between 0 and 1")
+	public double getLatency(String stage, double percentile) {
+		Timer timer = timers.get(stage);
+		Double latency = timer == null ? null : timer.quantile(percentile);
+		return latency == null ? -1 : latency;
+	}
+
+	@ManagedOperation(description = "Everything recorded so far")
+	public String getSnapshot() {
+		return snapshot().toString();
+	}
+
+	private static class Timer {
+		private final LogHistogram histogram = new LogHistogram();
+		private long count;
+		private double total;
+		private double max;
+
+		synchronized void record(double millis) {
+			histogram.add(millis);
+			count++;
+			total += millis;
+			max = Math.max(max, millis);
+		}
+
+		synchronized Double quantile(double fraction) {
+			return histogram.quantile(fraction);
+		}
+
+		synchronized Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("count", count);
+			map.put("mean", count == 0 ? null : total / count);
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				map.put(PERCENTILE_NAMES[i], histogram.quantile(PERCENTILES[i]));
+			}
+			// exact, the histogram only knows the bucket
+			map.put("max", count == 0 ? null : max);
+			return map;
+		}
+	}
+
+	// counts per second for the last minute, in a ring indexed by the second;
+	// each slot packs its second in the high and its count in the low 32 bits
+	// so moving it on to a new second and counting are one compare-and-set
+	static class Rate {
+		private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+		private final AtomicLongArray slots = new AtomicLongArray(RATE_SECONDS);
+
+		void add(long now, long count) {
+			long second = now / 1000;
+			int slot = (int) (second % RATE_SECONDS);
+			while (true) {
+				long held = slots.get(slot);
+				long heldSecond = held >>> 32;
+				long next;
+				if (heldSecond == second) {
+					next = held + count;
+				} else if (heldSecond < second) {
+					next = (second << 32) | count;
+				} else {
+					// a minute late, that second has left the window
+					return;
+				}
+				if (slots.compareAndSet(slot, held, next)) {
+					return;
+				}
+			}
+		}
+
+		// the last full seconds, the current one is still filling
+		double perSecond(long now) {
+			long second = now / 1000;
+			long total = 0;
+			for (int slot = 0; slot < RATE_SECONDS; slot++) {
+				long held = slots.get(slot);
+				long heldSecond = held >>> 32;
+				if (heldSecond < second && heldSecond >= second - RATE_SECONDS) {
+					total += held & COUNT_MASK;
+				}
+			}
+			return total / (double) RATE_SECONDS;
+		}
+	}
+}
@@ -2,6 +2,8 @@ package com.oracle.iot.service;
 
 import org.springframework.stereotype.Service;
 
+import com.oracle.iot.model.SpreadStrategy;
+
 @Service
 public class SystemConfigService {
 
@@ -11,6 +13,29 @@ public class SystemConfigService {
 	private Boolean sendingMessages = false;
 	private String username = "iot";
 	private String password = "welcome1";
+	private Integer maxConcurrentSends = 20;
+	private Integer dispatchTimeout = 30000;
+	private SpreadStrategy spreadStrategy = SpreadStrategy.HASHED;
+	private Integer spreadJitter = 0;
+	private Integer tokenRefreshMargin = 60;
+	private Integer httpMaxConnections = 200;
+	private Integer httpMaxConnectionsPerRoute = 50;
+	private Integer httpConnectTimeout = 20000;
+	private Integer httpReadTimeout = 20000;
+	private Integer httpIdleTimeout = 30000;
+	private Integer batchMaxMessages = 20;
+	private Integer batchMaxBytes = 65536;
+	private Integer batchLinger = 0;
+	private Integer keyPoolDepth = 16;
+	private Integer activationParallelism = 32;
+	private Integer activationPolicyConcurrency = 1;
+	private Integer activationSignConcurrency = Runtime.getRuntime().availableProcessors();
+	private Integer activationPostConcurrency = 16;
+	private Integer historyRetention = 3600;
+	private Integer historyMaxMegabytes = 256;
+	private Boolean gatewayMode = false;
+	private String gatewayId;
+	private String gatewaySecret;
 
 	public String getHost() {
 		return host;
@@ -58,6 +83,195 @@ public class SystemConfigService {
 	public void setPassword(String password) {
 		this.password = password;
 	}
-	
-	
+
+	public Integer getMaxConcurrentSends() {
+		return maxConcurrentSends;
+	}
+
+	public void setMaxConcurrentSends(Integer maxConcurrentSends) {
+		this.maxConcurrentSends = maxConcurrentSends;
+	}
+
+	public Integer getDispatchTimeout() {
+		return dispatchTimeout;
+	}
+
+	public void setDispatchTimeout(Integer dispatchTimeout) {
+		this.dispatchTimeout = dispatchTimeout;
+	}
+
+	public SpreadStrategy getSpreadStrategy() {
+		return spreadStrategy;
+	}
+
+	public void setSpreadStrategy(SpreadStrategy spreadStrategy) {
+		this.spreadStrategy = spreadStrategy;
+	}
+
+	public Integer getSpreadJitter() {
+		return spreadJitter;
+	}
+
+	public void setSpreadJitter(Integer spreadJitter) {
+		this.spreadJitter = spreadJitter;
+	}
+
+	public Integer getTokenRefreshMargin() {
+		return tokenRefreshMargin;
+	}
+
+	public void setTokenRefreshMargin(Integer tokenRefreshMargin) {
+		this.tokenRefreshMargin = tokenRefreshMargin;
+	}
+
+	public Integer getHttpMaxConnections() {
+		return httpMaxConnections;
+	}
+
+	public void setHttpMaxConnections(Integer httpMaxConnections) {
+		this.httpMaxConnections = httpMaxConnections;
+	}
+
+	public Integer getHttpMaxConnectionsPerRoute() {
+		return httpMaxConnectionsPerRoute;
+	}
+
+	public void setHttpMaxConnectionsPerRoute(Integer httpMaxConnectionsPerRoute) {
+		this.httpMaxConnectionsPerRoute = httpMaxConnectionsPerRoute;
+	}
+
+	public Integer getHttpConnectTimeout() {
+		return httpConnectTimeout;
+	}
+
+	public void setHttpConnectTimeout(Integer httpConnectTimeout) {
+		this.httpConnectTimeout = httpConnectTimeout;
+	}
+
+	public Integer getHttpReadTimeout() {
+		return httpReadTimeout;
+	}
+
+	public void setHttpReadTimeout(Integer httpReadTimeout) {
+		this.httpReadTimeout = httpReadTimeout;
+	}
+
+	public Integer getHttpIdleTimeout() {
+		return httpIdleTimeout;
+	}
+
+	public void setHttpIdleTimeout(Integer httpIdleTimeout) {
+		this.httpIdleTimeout = httpIdleTimeout;
+	}
+
+	public Integer getBatchMaxMessages() {
+		return batchMaxMessages;
+	}
+
+	public void setBatchMaxMessages(Integer batchMaxMessages) {
+		this.batchMaxMessages = batchMaxMessages;
+	}
+
+	public Integer getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	public void setBatchMaxBytes(Integer batchMaxBytes) {
+		this.batchMaxBytes = batchMaxBytes;
+	}
+
+	public Integer getBatchLinger() {
+		return batchLinger;
+	}
+
+	public void setBatchLinger(Integer batchLinger) {
+		this.batchLinger = batchLinger;
+	}
+
+	public Integer getKeyPoolDepth() {
+		return keyPoolDepth;
+	}
+
+	public void setKeyPoolDepth(Integer keyPoolDepth) {
+		this.keyPoolDepth = keyPoolDepth;
+	}
+
+	public Integer getActivationParallelism() {
+		return activationParallelism;
+	}
+
+	public void setActivationParallelism(Integer activationParallelism) {
+		this.activationParallelism = activationParallelism;
+	}
+
+	public Integer getActivationPolicyConcurrency() {
+		return activationPolicyConcurrency;
+	}
+
+	public void setActivationPolicyConcurrency(Integer activationPolicyConcurrency) {
+		this.activationPolicyConcurrency = activationPolicyConcurrency;
+	}
+
+	public Integer getActivationSignConcurrency() {
+		return activationSignConcurrency;
+	}
+
+	public void setActivationSignConcurrency(Integer activationSignConcurrency) {
+		this.activationSignConcurrency = activationSignConcurrency;
+	}
+
+	public Integer getActivationPostConcurrency() {
+		return activationPostConcurrency;
+	}
+
+	public void setActivationPostConcurrency(Integer activationPostConcurrency) {
+		this.activationPostConcurrency = activationPostConcurrency;
+	}
+
+	/**
+	 * Seconds of metric history kept per device.
+	 */
+	public Integer getHistoryRetention() {
+		return historyRetention;
+	}
+
+	public void setHistoryRetention(Integer historyRetention) {
+		this.historyRetention = historyRetention;
+	}
+
+	/**
+	 * Megabytes of metric history kept for the whole fleet.
+	 */
+	public Integer getHistoryMaxMegabytes() {
+		return historyMaxMegabytes;
+	}
+
+	public void setHistoryMaxMegabytes(Integer historyMaxMegabytes) {
+		this.historyMaxMegabytes = historyMaxMegabytes;
+	}
+
+	public Boolean getGatewayMode() {
+		return gatewayMode;
+	}
+
+	public void setGatewayMode(Boolean gatewayMode) {
+		this.gatewayMode = gatewayMode;
+	}
+
+	public String getGatewayId() {
+		return gatewayId;
+	}
+
+	public void setGatewayId(String gatewayId) {
+		this.gatewayId = gatewayId;
+	}
+
+	public String getGatewaySecret() {
+		return gatewaySecret;
+	}
+
+	public void setGatewaySecret(String gatewaySecret) {
+		this.gatewaySecret = gatewaySecret;
+	}
+
 }
@@ -0,0 +1,282 @@
+package com.oracle.iot.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A time series of (millisecond, double) points compressed the Gorilla way:
+ * timestamps as deltas of deltas in a few variable length buckets, values as
+ * the XOR with the previous value, storing only its meaningful bits. A steady
+ * report interval costs one bit per timestamp and an unchanged value one bit.
+ * <p>
+ * Points go into blocks of at most {@value #BLOCK_BYTES} bytes, each starting
+ * with a full timestamp and value, so retention drops whole blocks from the
+ * old end. The open block grows as it fills and is trimmed when sealed. Not
+ * thread safe.
+ */
+public class CompressedSeries {
+
+	static final int BLOCK_BYTES = 1024;
+	private static final int INITIAL_BYTES = 32;
+	// the largest point: a 4+64 bit timestamp and a 2+5+6+64 bit value
+	private static final int MAX_POINT_BITS = 145;
+
+	private final ArrayDeque<Block> sealed = new ArrayDeque<Block>();
+	private Block open;
+	private long sealedBytes;
+
+	/**
+	 * Appends a point; timestamps are expected in order.
+	 */
+	public void add(long time, double value) {
+		if (open == null) {
+			open = new Block();
+		} else if (open.isFull()) {
+			open.seal();
+			sealed.addLast(open);
+			sealedBytes += open.data.length;
+			open = new Block();
+		}
+		open.append(time, value);
+	}
+
+	/**
+	 * The points between {@code from} and {@code to}, both inclusive, as
+	 * [time, value] pairs. With a positive {@code step} the points are
+	 * averaged per step, each pair timed at the start of its step.
+	 */
+	public List<Object[]> query(long from, long to, long step) {
+		List<Object[]> points = new ArrayList<Object[]>();
+		List<Block> blocks = new ArrayList<Block>(sealed);
+		if (open != null) {
+			blocks.add(open);
+		}
+		long bucket = 0;
+		double sum = 0;
+		int count = 0;
+		for (Block block : blocks) {
+			if (block.count == 0 || block.lastTime < from || block.firstTime > to) {
+				continue;
+			}
+			Decoder decoder = new Decoder(block);
+			while (decoder.next()) {
+				if (decoder.time < from || decoder.time > to) {
+					continue;
+				}
+				if (step <= 0) {
+					points.add(new Object[] { decoder.time, decoder.value });
+					continue;
+				}
+				long offset = decoder.time % step;
+				long start = decoder.time - (offset < 0 ? offset + step : offset);
+				if (count > 0 && start != bucket) {
+					points.add(new Object[] { bucket, sum / count });
+					sum = 0;
+					count = 0;
+				}
+				bucket = start;
+				sum += decoder.value;
+				count++;
+			}
+		}
+		if (count > 0) {
+			points.add(new Object[] { bucket, sum / count });
+		}
+		return points;
+	}
+
+	/**
+	 * Drops the blocks whose points are all older than {@code time}.
+	 */
+	public void trimBefore(long time) {
+		while (!sealed.isEmpty() && sealed.peekFirst().lastTime < time) {
+			sealedBytes -= sealed.removeFirst().data.length;
+		}
+		if (sealed.isEmpty() && open != null && open.count > 0 && open.lastTime < time) {
+			open = null;
+		}
+	}
+
+	/**
+	 * Drops the oldest sealed block, if there is one.
+	 *
+	 * @return false when only the open block is left
+	 */
+	public boolean dropOldest() {
+		if (sealed.isEmpty()) {
+			return false;
+		}
+		sealedBytes -= sealed.removeFirst().data.length;
+		return true;
+	}
+
+	public long bytes() {
+		return sealedBytes + (open == null ? 0 : open.data.length);
+	}
+
+	public int size() {
+		int size = open == null ? 0 : open.count;
+		for (Block block : sealed) {
+			size += block.count;
+		}
+		return size;
+	}
+
+	private static class Block {
+		private byte[] data = new byte[INITIAL_BYTES];
+		private int bits;
+		private int count;
+		private long firstTime;
+		private long lastTime;
+		private long delta;
+		private long previous;
+		private int leading = -1;
+		private int trailing;
+
+		boolean isFull() {
+			return data.length >= BLOCK_BYTES && data.length * 8L - bits < MAX_POINT_BITS;
+		}
+
+		void append(long time, double value) {
+			if (data.length * 8L - bits < MAX_POINT_BITS) {
+				byte[] grown = new byte[Math.min(data.length * 2, BLOCK_BYTES)];
+				System.arraycopy(data, 0, grown, 0, data.length);
+				data = grown;
+			}
+			long valueBits = Double.doubleToRawLongBits(value);
+			if (count == 0) {
+				write(time, 64);
+				write(valueBits, 64);
+				firstTime = time;
+			} else {
+				long newDelta = time - lastTime;
+				long dod = newDelta - delta;
+				if (dod == 0) {
+					write(0, 1);
+				} else if (dod >= -63 && dod <= 64) {
+					write(2, 2);
+					write(dod, 7);
+				} else if (dod >= -255 && dod <= 256) {
+					write(6, 3);
+					write(dod, 9);
+				} else if (dod >= -2047 && dod <= 2048) {
+					write(14, 4);
+					write(dod, 12);
+				} else {
+					write(15, 4);
+					write(dod, 64);
+				}
+				delta = newDelta;
+
+				long xor = valueBits ^ previous;
+				if (xor == 0) {
+					write(0, 1);
+				} else {
+					int newLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+					int newTrailing = Long.numberOfTrailingZeros(xor);
+					if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+						// fits the previous window
+						write(2, 2);
+						write(xor >>> trailing, 64 - leading - trailing);
+					} else {
+						int meaningful = 64 - newLeading - newTrailing;
+						write(3, 2);
+						write(newLeading, 5);
+						write(meaningful - 1, 6);
+						write(xor >>> newTrailing, meaningful);
+						leading = newLeading;
+						trailing = newTrailing;
+					}
+				}
+			}
+			previous = valueBits;
+			lastTime = time;
+			count++;
+		}
+
+		// the low n bits of value, most significant first
+		private void write(long value, int n) {
+			for (int i = n - 1; i >= 0; i--) {
+				if (((value >>> i) & 1) != 0) {
+					data[bits >>> 3] |= 0x80 >>> (bits & 7);
+				}
+				bits++;
+			}
+		}
+
+		void seal() {
+			byte[] trimmed = new byte[(bits + 7) >>> 3];
+			System.arraycopy(data, 0, trimmed, 0, trimmed.length);
+			data = trimmed;
+		}
+	}
+
+	private static class Decoder {
+		private final byte[] data;
+		private final int count;
+		private int bits;
+		private int read;
+		private long delta;
+		private long valueBits;
+		private int leading;
+		private int trailing;
+		long time;
+		double value;
+
+		Decoder(Block block) {
+			this.data = block.data;
+			this.count = block.count;
+		}
+
+		boolean next() {
+			if (read == count) {
+				return false;
+			}
+			if (read == 0) {
+				time = read(64);
+				valueBits = read(64);
+			} else {
+				long dod;
+				if (read(1) == 0) {
+					dod = 0;
+				} else if (read(1) == 0) {
+					dod = signed(read(7), 7);
+				} else if (read(1) == 0) {
+					dod = signed(read(9), 9);
+				} else if (read(1) == 0) {
+					dod = signed(read(12), 12);
+				} else {
+					dod = read(64);
+				}
+				delta += dod;
+				time += delta;
+				if (read(1) == 1) {
+					if (read(1) == 1) {
+						leading = (int) read(5);
+						int meaningful = (int) read(6) + 1;
+						trailing = 64 - leading - meaningful;
+					}
+					valueBits ^= read(64 - leading - trailing) << trailing;
+				}
+			}
+			value = Double.longBitsToDouble(valueBits);
+			read++;
+			return true;
+		}
+
+		// the buckets hold -(2^(n-1) - 1) to 2^(n-1)
+		private static long signed(long value, int n) {
+			return value > (1L << (n - 1)) ? value - (1L << n) : value;
+		}
+
+		private long read(int n) {
+			long value = 0;
+			for (int i = 0; i < n; i++) {
+				value = (value << 1) | ((data[bits >>> 3] >>> (7 - (bits & 7))) & 1);
+				bits++;
+			}
+			return value;
+		}
+	}
+}
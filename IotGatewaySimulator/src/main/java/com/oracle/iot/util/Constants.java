@@ -6,7 +6,7 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
@@ -15,6 +15,9 @@ import com.oracle.iot.model.IOTDevice;
 
 public final class Constants {
 
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15 };
+
 	public static String formatChartLabel(DateTime date) {
 		return DateTimeFormat.forPattern("MM/dd/yy kk:mm:ss").print(date);
 	}
@@ -52,8 +55,30 @@ public final class Constants {
 	}
 
 	public static double randomDouble(double min, double max, int scale) {
-		Random r = new Random();
-		return new BigDecimal(min + (max - min) * r.nextDouble()).setScale(2, BigDecimal.ROUND_HALF_UP).doubleValue();
+		return roundHalfUp(min + (max - min) * ThreadLocalRandom.current().nextDouble(), 2);
+	}
+
+	/**
+	 * Same result as rounding the exact value with BigDecimal and ROUND_HALF_UP,
+	 * without allocating unless the value is within a hair of a tie.
+	 */
+	public static double roundHalfUp(double value, int scale) {
+		if (scale >= 0 && scale <= 15) {
+			double factor = POWERS_OF_TEN[scale];
+			double scaled = Math.abs(value) * factor;
+			if (scaled < 1e9) {
+				double whole = Math.floor(scaled);
+				double fraction = scaled - whole;
+				if (Math.abs(fraction - 0.5) > 1e-6) {
+					double rounded = fraction > 0.5 ? whole + 1 : whole;
+					if (rounded == 0) {
+						return 0d;
+					}
+					return value < 0 ? -rounded / factor : rounded / factor;
+				}
+			}
+		}
+		return new BigDecimal(value).setScale(scale, BigDecimal.ROUND_HALF_UP).doubleValue();
 	}
 
 	public static List<List<Double>> copyListofLists(List<List<Double>> values) {
@@ -92,7 +117,7 @@ public final class Constants {
 		if (value == null) {
 			return null;
 		}
-		return new BigDecimal(value).setScale(scale, BigDecimal.ROUND_HALF_UP).doubleValue();
+		return roundHalfUp(value, scale);
 	}
 
 	public static List<String> removeWhiteSpace(List<String> asList) {
@@ -0,0 +1,149 @@
+package com.oracle.iot.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts of values in logarithmic buckets, each {@value #GROWTH} times wider
+ * than the one below, so any quantile is known to within about one percent of
+ * its value however many values went in. Adding or removing a value is O(1);
+ * histograms of the same kind merge by adding their counts.
+ * <p>
+ * Positive and negative values keep their own buckets, grown on demand around
+ * the range actually seen. Magnitudes below {@value #MIN_MAGNITUDE} count as
+ * zero; NaN and infinities are ignored. Not thread safe.
+ */
+public class LogHistogram {
+
+	static final double GROWTH = 1.02;
+	static final double MIN_MAGNITUDE = 1e-9;
+	private static final double LOG_GROWTH = Math.log(GROWTH);
+
+	private final Buckets positive = new Buckets();
+	private final Buckets negative = new Buckets();
+	private long zero;
+	private long count;
+
+	public void add(double value) {
+		add(value, 1);
+	}
+
+	/**
+	 * Takes back a value added before.
+	 */
+	public void remove(double value) {
+		add(value, -1);
+	}
+
+	private void add(double value, long times) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return;
+		}
+		if (Math.abs(value) < MIN_MAGNITUDE) {
+			zero += times;
+		} else if (value > 0) {
+			positive.add(index(value), times);
+		} else {
+			negative.add(index(-value), times);
+		}
+		count += times;
+	}
+
+	/**
+	 * Adds every value of the other histogram to this one.
+	 */
+	public void merge(LogHistogram other) {
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zero += other.zero;
+		count += other.count;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * The value below which the given fraction of the values lie, null when
+	 * the histogram is empty.
+	 */
+	public Double quantile(double fraction) {
+		if (count <= 0) {
+			return null;
+		}
+		long rank = (long) Math.floor(Math.min(Math.max(fraction, 0), 1) * (count - 1));
+		// negatives from the most negative up, then zero, then the positives
+		for (int i = negative.counts.length - 1; i >= 0; i--) {
+			rank -= negative.counts[i];
+			if (rank < 0) {
+				return -value(negative.offset + i);
+			}
+		}
+		rank -= zero;
+		if (rank < 0) {
+			return 0d;
+		}
+		for (int i = 0; i < positive.counts.length; i++) {
+			rank -= positive.counts[i];
+			if (rank < 0) {
+				return value(positive.offset + i);
+			}
+		}
+		return null;
+	}
+
+	public Double getMin() {
+		return quantile(0);
+	}
+
+	public Double getMax() {
+		return quantile(1);
+	}
+
+	public void clear() {
+		positive.counts = new long[0];
+		negative.counts = new long[0];
+		zero = 0;
+		count = 0;
+	}
+
+	// bucket i holds the magnitudes in (GROWTH^(i-1), GROWTH^i]
+	private static int index(double magnitude) {
+		return (int) Math.ceil(Math.log(magnitude) / LOG_GROWTH);
+	}
+
+	// the middle of the bucket, the same relative error to both ends
+	private static double value(int index) {
+		return 2 * Math.pow(GROWTH, index) / (GROWTH + 1);
+	}
+
+	private static class Buckets {
+		private long[] counts = new long[0];
+		private int offset;
+
+		void add(int index, long times) {
+			if (counts.length == 0) {
+				counts = new long[8];
+				offset = index - 4;
+			}
+			if (index < offset) {
+				int grow = Math.max(offset - index, counts.length / 2);
+				long[] grown = new long[counts.length + grow];
+				System.arraycopy(counts, 0, grown, grow, counts.length);
+				counts = grown;
+				offset -= grow;
+			} else if (index >= offset + counts.length) {
+				int grow = Math.max(index - offset - counts.length + 1, counts.length / 2);
+				counts = Arrays.copyOf(counts, counts.length + grow);
+			}
+			counts[index - offset] += times;
+		}
+
+		void merge(Buckets other) {
+			for (int i = 0; i < other.counts.length; i++) {
+				if (other.counts[i] != 0) {
+					add(other.offset + i, other.counts[i]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.oracle.iot.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical timing wheel keyed by id. Scheduling, rescheduling and
+ * cancelling are O(1); advancing the clock only touches the slots that
+ * elapsed, so the cost of a tick is proportional to the entries that are due
+ * (plus the occasional cascade from an upper level), never to the total
+ * number of entries.
+ */
+public class TimingWheel {
+
+	public static final class Entry {
+		private final String id;
+		private long deadline;
+		private long deadlineTick;
+		private Entry prev;
+		private Entry next;
+
+		private Entry(String id) {
+			this.id = id;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+	}
+
+	private final long tickMillis;
+	private final int slots;
+	private final int levels;
+	private final long startTime;
+	private final long[] levelTicks;
+	private final Entry[][] wheel;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private long currentTick;
+
+	public TimingWheel(long tickMillis, int slots, int levels, long startTime) {
+		this.tickMillis = tickMillis;
+		this.slots = slots;
+		this.levels = levels;
+		this.startTime = startTime;
+		this.levelTicks = new long[levels + 1];
+		this.wheel = new Entry[levels][slots];
+		levelTicks[0] = 1;
+		for (int level = 1; level <= levels; level++) {
+			levelTicks[level] = levelTicks[level - 1] * slots;
+		}
+		for (int level = 0; level < levels; level++) {
+			for (int slot = 0; slot < slots; slot++) {
+				Entry head = new Entry(null);
+				head.prev = head;
+				head.next = head;
+				wheel[level][slot] = head;
+			}
+		}
+	}
+
+	public synchronized void schedule(String id, long deadline) {
+		Entry entry = entries.get(id);
+		if (entry == null) {
+			entry = new Entry(id);
+			entries.put(id, entry);
+		} else {
+			unlink(entry);
+		}
+		entry.deadline = deadline;
+		// round up so an entry never fires before its deadline
+		entry.deadlineTick = (deadline - startTime + tickMillis - 1) / tickMillis;
+		// the current slot has already fired, so the earliest is the next one
+		place(entry, currentTick + 1);
+	}
+
+	public synchronized boolean cancel(String id) {
+		Entry entry = entries.remove(id);
+		if (entry == null) {
+			return false;
+		}
+		unlink(entry);
+		return true;
+	}
+
+	public synchronized boolean contains(String id) {
+		return entries.containsKey(id);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Moves the wheel forward to {@code now} and removes and returns every
+	 * entry whose deadline has been reached.
+	 */
+	public synchronized List<Entry> advance(long now) {
+		List<Entry> due = new ArrayList<Entry>();
+		long nowTick = (now - startTime) / tickMillis;
+		while (currentTick < nowTick) {
+			currentTick++;
+			// cascade from the top so entries can fall through several levels
+			for (int level = levels - 1; level > 0; level--) {
+				if (currentTick % levelTicks[level] == 0) {
+					cascade(level, (int) ((currentTick / levelTicks[level]) % slots));
+				}
+			}
+			Entry head = wheel[0][(int) (currentTick % slots)];
+			while (head.next != head) {
+				Entry entry = head.next;
+				unlink(entry);
+				entries.remove(entry.id);
+				due.add(entry);
+			}
+		}
+		return due;
+	}
+
+	private void cascade(int level, int slot) {
+		Entry head = wheel[level][slot];
+		Entry entry = head.next;
+		head.next = head;
+		head.prev = head;
+		while (entry != head) {
+			Entry next = entry.next;
+			// cascades run before the current slot fires, so it is still open
+			place(entry, currentTick);
+			entry = next;
+		}
+	}
+
+	private void place(Entry entry, long earliestTick) {
+		long tick = Math.max(entry.deadlineTick, earliestTick);
+		long delta = tick - currentTick;
+		int level = 0;
+		while (level < levels - 1 && delta >= levelTicks[level + 1]) {
+			level++;
+		}
+		if (delta >= levelTicks[levels]) {
+			// beyond the top level: park it in the furthest slot, it gets
+			// re-placed when that slot cascades
+			tick = currentTick + levelTicks[levels] - 1;
+		}
+		link(wheel[level][(int) ((tick / levelTicks[level]) % slots)], entry);
+	}
+
+	private static void link(Entry head, Entry entry) {
+		entry.prev = head.prev;
+		entry.next = head;
+		head.prev.next = entry;
+		head.prev = entry;
+	}
+
+	private static void unlink(Entry entry) {
+		if (entry.prev != null) {
+			entry.prev.next = entry.next;
+			entry.next.prev = entry.prev;
+			entry.prev = null;
+			entry.next = null;
+		}
+	}
+}
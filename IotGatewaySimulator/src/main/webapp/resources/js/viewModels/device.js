@@ -9,6 +9,8 @@ define([ 'ojs/ojcore', 'knockout', 'jquery', 'ojs/ojknockout', 'ojs/ojmasonrylay
 		'ojs/ojlistview', 'ojs/ojdialog', 'ojs/ojinputtext', 'ojs/ojselectcombobox', 'ojs/ojarraytabledatasource' ], function(oj, ko, $) {
 
 	var baseUrl = '';
+	// pushed metric changes for the shown device, polling where unsupported
+	var stream = null;
 	function alertClick(data, event) {
 		var alertDisplay = data.name;
 		$.ajax({
@@ -49,6 +51,7 @@ define([ 'ojs/ojcore', 'knockout', 'jquery', 'ojs/ojknockout', 'ojs/ojmasonrylay
 	function deleteClick(data) {
 		var id = data.currentId;
 		vm.currentId = null;
+		watchDevice(null);
 		vm.title('Select/Create a Device');
 		vm.id(null);
 		vm.type(null);
@@ -126,11 +129,59 @@ define([ 'ojs/ojcore', 'knockout', 'jquery', 'ojs/ojknockout', 'ojs/ojmasonrylay
 				vm.lineGroupsValue.push(value);
 			});
 			vm.currentId = device.id;
+			watchDevice(device.id);
 			$("#metricsLayout").ojMasonryLayout("refresh");
 			$("#eventsLayout").ojMasonryLayout("refresh");
 		});
 	}
 
+	function watchDevice(id) {
+		if (stream) {
+			stream.close();
+			stream = null;
+		}
+		if (!id || typeof EventSource === 'undefined') {
+			return;
+		}
+		var source = new EventSource(baseUrl + '/device/stream?ids=' + encodeURIComponent(id));
+		source.addEventListener('metrics', function(event) {
+			var update = JSON.parse(event.data);
+			if (update.id === vm.currentId) {
+				showMetrics(update.metrics);
+			}
+		});
+		// the browser gave up reconnecting, polling takes over
+		source.onerror = function() {
+			if (source.readyState === EventSource.CLOSED && stream === source) {
+				stream = null;
+			}
+		};
+		stream = source;
+	}
+
+	function showMetrics(changed) {
+		vm.metrics($.map(vm.metrics(), function(tile) {
+			if (!changed.hasOwnProperty(tile.name)) {
+				return tile;
+			}
+			return {
+				name : tile.name,
+				value : changed[tile.name],
+				sizeClass : tile.sizeClass
+			};
+		}));
+		vm.lineSeriesValue($.map(vm.lineSeriesValue(), function(series) {
+			if (!changed.hasOwnProperty(series.name)) {
+				return series;
+			}
+			return {
+				name : series.name,
+				items : series.items.slice(1).concat([ changed[series.name] ])
+			};
+		}));
+		$("#metricsLayout").ojMasonryLayout("refresh");
+	}
+
 	function updateDevice(id) {
 		$.getJSON(baseUrl + '/device/' + id).then(function(device) {
 			vm.metrics.removeAll();
@@ -197,7 +248,8 @@ define([ 'ojs/ojcore', 'knockout', 'jquery', 'ojs/ojknockout', 'ojs/ojmasonrylay
 		$.getJSON(baseUrl + "device/list").then(function(devices) {
 			$.each(devices, function(index, value) {
 				value.deviceClick = deviceClick;
-				value.image = 'data:image/jpeg;base64,' + value.image;
+				// a cacheable URL rather than the picture inline
+				value.image = baseUrl + value.image;
 			});
 			devicesDatasource.add(devices);
 		});
@@ -259,7 +311,7 @@ define([ 'ojs/ojcore', 'knockout', 'jquery', 'ojs/ojknockout', 'ojs/ojmasonrylay
 		self.typesource = ko.observable();
 		self.deviceTypes = ko.observableArray([]);
 		var timer = setInterval(function() {
-			if (self.currentId) {
+			if (self.currentId && !stream) {
 				updateDevice(self.currentId);
 			}
 		}, 2000);
@@ -221,6 +221,79 @@ public class DeviceDaoInMemoryTest {
 		assertFalse(dao.exists(id));
 	}
 
+	@Test
+	public void findAllKeepsInsertionOrder() throws Exception {
+		// setup
+		PropertyDeviceDetails deviceDetails = Mockito.mock(PropertyDeviceDetails.class);
+		PropertyDevice first = new PropertyDevice(deviceDetails, "B", "secret");
+		dao.insert(first);
+		dao.insert(new PropertyDevice(deviceDetails, "A", "secret"));
+		dao.insert(new PropertyDevice(deviceDetails, "C", "secret"));
+
+		// execute
+		dao.delete("A");
+		dao.update(first);
+		dao.insert(new PropertyDevice(deviceDetails, "A", "secret"));
+		List<IOTDevice> devices = dao.findAll();
+
+		// assert
+		assertEquals(3, devices.size());
+		assertEquals("B", devices.get(0).getId());
+		assertEquals("C", devices.get(1).getId());
+		assertEquals("A", devices.get(2).getId());
+	}
+
+	@Test
+	public void findAllWhileInserting() throws Exception {
+		// setup
+		final PropertyDeviceDetails deviceDetails = Mockito.mock(PropertyDeviceDetails.class);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 2000; i++) {
+					dao.insert(new PropertyDevice(deviceDetails, "Test-" + i, "secret"));
+				}
+			}
+		};
+
+		// execute
+		writer.start();
+		while (writer.isAlive()) {
+			for (IOTDevice device : dao.findAll()) {
+				assertTrue(dao.exists(device.getId()));
+			}
+		}
+		writer.join();
+
+		// assert
+		assertEquals(2000, dao.findAll().size());
+	}
+
+	@Test
+	public void findPageFollowsCursor() throws Exception {
+		// setup
+		PropertyDeviceDetails deviceDetails = Mockito.mock(PropertyDeviceDetails.class);
+		for (int i = 0; i < 5; i++) {
+			dao.insert(new PropertyDevice(deviceDetails, "A-" + i, "secret"));
+			dao.insert(new PropertyDevice(deviceDetails, "B-" + i, "secret"));
+		}
+
+		// execute
+		DeviceDaoInMemory.Page first = dao.findPage(0, 3, null, "A-");
+		DeviceDaoInMemory.Page second = dao.findPage(first.getNext(), 3, null, "A-");
+
+		// assert
+		assertEquals(10, dao.count());
+		assertEquals(5, dao.count(null, "A-"));
+		assertEquals(10, dao.count(null, null));
+		assertEquals(3, first.getDevices().size());
+		assertEquals("A-0", first.getDevices().get(0).getId());
+		assertEquals("A-2", first.getDevices().get(2).getId());
+		assertEquals(2, second.getDevices().size());
+		assertEquals("A-3", second.getDevices().get(0).getId());
+		assertNull(second.getNext());
+	}
+
 	@Test
 	public void deleteAllIdDoesNotExist() throws Exception {
 		// setup
@@ -0,0 +1,199 @@
+package com.oracle.iot.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.model.PropertyDevice;
+import com.oracle.iot.model.PropertyDeviceDetails;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceStateSegmentTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Spy
+	PrivateKeyStore keyStore = new PrivateKeyStore();
+
+	@InjectMocks
+	DeviceStateSegment segment;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		keyStore.open(new File(folder.getRoot(), "keys.db"), "passphrase".toCharArray());
+		file = new File(folder.getRoot(), "devices.seg");
+	}
+
+	@After
+	public void tearDown() {
+		segment.close();
+		keyStore.close();
+	}
+
+	private PropertyDeviceDetails createDetails() {
+		PropertyDeviceDetails details = new PropertyDeviceDetails("pump", "Pump", "urn:pump:data", "urn:pump:alert",
+				null);
+		details.addMetric("pressure", "Pressure", 10d, 1d, null, null, null, null, 0d, false);
+		details.addMetric("running", "Running", true);
+		details.addEvent("stall", "Stall", 1, "running", false);
+		return details;
+	}
+
+	@Test
+	public void restoresDevicesAfterReopen() throws Exception {
+		// setup
+		PropertyDeviceDetails details = createDetails();
+		PropertyDevice device = new PropertyDevice(details, "pump-1", "secret");
+		device.setReportInterval(2500L);
+		segment.open(file);
+		segment.attach(device);
+		device.eventHandler("stall");
+		device.animateMetrics();
+		segment.close();
+
+		// execute
+		segment.open(file);
+		List<DeviceStateSegment.Record> records = segment.findAll();
+		DeviceStateSegment.Record record = records.get(0);
+		PropertyDevice restored = new PropertyDevice(details, record.getId(), segment.getSecret(record), record);
+
+		// assert
+		assertEquals(1, records.size());
+		assertEquals("pump-1", record.getId());
+		assertEquals("secret", segment.getSecret(record));
+		assertEquals("pump", record.getType());
+		assertEquals(Long.valueOf(2500L), record.getReportInterval());
+		assertEquals(11d, (Double) restored.getMetrics().get("Pressure"), 0d);
+		assertEquals(false, restored.getMetrics().get("Running"));
+		assertEquals(device.getEvents(), restored.getEvents());
+	}
+
+	@Test
+	public void attachedDeviceWorksOnItsRecord() throws Exception {
+		// setup
+		PropertyDevice device = new PropertyDevice(createDetails(), "pump-1", "secret");
+		segment.open(file);
+
+		// execute
+		segment.attach(device);
+		device.animateMetrics();
+
+		// assert
+		DeviceStateSegment.Record record = segment.findAll().get(0);
+		assertSame(record.getClass(), device.getRow().getClass());
+		assertEquals(11d, record.getNumber(0), 0d);
+		assertEquals(11d, (Double) device.getMetrics().get("Pressure"), 0d);
+	}
+
+	@Test
+	public void secretsAreSealed() throws Exception {
+		// setup
+		segment.open(file);
+		segment.attach(new PropertyDevice(createDetails(), "pump-1", "plain-secret"));
+		segment.close();
+
+		// execute
+		keyStore.close();
+		segment.open(file);
+
+		// assert
+		String contents = new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+		assertFalse(contents.contains("plain-secret"));
+		assertNull(segment.getSecret(segment.findAll().get(0)));
+	}
+
+	@Test
+	public void removedDevicesStayRemoved() throws Exception {
+		// setup
+		PropertyDeviceDetails details = createDetails();
+		segment.open(file);
+		segment.attach(new PropertyDevice(details, "pump-1", "secret"));
+		segment.attach(new PropertyDevice(details, "pump-2", "secret"));
+
+		// execute
+		segment.remove("pump-1");
+		segment.close();
+		segment.open(file);
+
+		// assert
+		List<DeviceStateSegment.Record> records = segment.findAll();
+		assertEquals(1, records.size());
+		assertEquals("pump-2", records.get(0).getId());
+	}
+
+	@Test
+	public void growsPastInitialCapacity() throws Exception {
+		// setup
+		PropertyDeviceDetails details = createDetails();
+		segment.open(file);
+		PropertyDevice first = new PropertyDevice(details, "pump-0", "secret");
+		segment.attach(first);
+
+		// execute
+		for (int i = 1; i < DeviceStateSegment.BLOCK_RECORDS + 500; i++) {
+			segment.attach(new PropertyDevice(details, "pump-" + i, "secret"));
+		}
+		first.animateMetrics();
+		segment.close();
+		segment.open(file);
+
+		// assert
+		assertEquals(DeviceStateSegment.BLOCK_RECORDS + 500, segment.findAll().size());
+		for (DeviceStateSegment.Record record : segment.findAll()) {
+			if (record.getId().equals("pump-0")) {
+				assertEquals(11d, record.getNumber(0), 0d);
+			}
+		}
+	}
+
+	@Test
+	public void devicesTooBigStayOnTheHeap() throws Exception {
+		// setup
+		PropertyDeviceDetails details = new PropertyDeviceDetails("panel", "Panel", "urn:panel:data",
+				"urn:panel:alert", null);
+		for (int i = 0; i <= DeviceStateSegment.MAX_VALUES; i++) {
+			details.addMetric("switch" + i, "Switch " + i, true);
+		}
+		PropertyDevice device = new PropertyDevice(details, "panel-1", "secret");
+		segment.open(file);
+
+		// execute
+		segment.attach(device);
+
+		// assert
+		assertTrue(segment.findAll().isEmpty());
+		assertFalse(device.getRow() instanceof DeviceStateSegment.Record);
+	}
+
+	@Test
+	public void closedSegmentKeepsNothing() throws Exception {
+		// setup
+		PropertyDevice device = new PropertyDevice(createDetails(), "pump-1", "secret");
+
+		// execute
+		segment.attach(device);
+
+		// assert
+		assertFalse(segment.isOpen());
+		assertTrue(segment.findAll().isEmpty());
+	}
+}
@@ -0,0 +1,70 @@
+package com.oracle.iot.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.web.client.RestTemplate;
+
+import com.oracle.iot.service.SystemConfigService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HttpConnectionPoolTest {
+
+	@Mock
+	SystemConfigService systemConfigService;
+
+	@InjectMocks
+	HttpConnectionPool pool;
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void getRestTemplateIsShared() throws Exception {
+		// setup
+		when(systemConfigService.getHttpMaxConnections()).thenReturn(10);
+		when(systemConfigService.getHttpMaxConnectionsPerRoute()).thenReturn(5);
+		when(systemConfigService.getHttpConnectTimeout()).thenReturn(1000);
+		when(systemConfigService.getHttpReadTimeout()).thenReturn(1000);
+		pool.init();
+
+		// execute
+		RestTemplate first = pool.getRestTemplate();
+		when(systemConfigService.getHttpReadTimeout()).thenReturn(2000);
+		RestTemplate second = pool.getRestTemplate();
+
+		// assert
+		assertSame(first, second);
+	}
+
+	@Test
+	public void applyConfigUpdatesPoolLimits() throws Exception {
+		// setup
+		when(systemConfigService.getHttpMaxConnections()).thenReturn(10);
+		when(systemConfigService.getHttpMaxConnectionsPerRoute()).thenReturn(5);
+		pool.init();
+		assertEquals(10, pool.getConnectionManager().getMaxTotal());
+		assertEquals(5, pool.getConnectionManager().getDefaultMaxPerRoute());
+
+		// execute
+		when(systemConfigService.getHttpMaxConnections()).thenReturn(40);
+		when(systemConfigService.getHttpMaxConnectionsPerRoute()).thenReturn(20);
+		pool.getRestTemplate();
+		int untouched = pool.getConnectionManager().getMaxTotal();
+		pool.applyConfig();
+
+		// assert
+		assertEquals(10, untouched);
+		assertEquals(40, pool.getConnectionManager().getMaxTotal());
+		assertEquals(20, pool.getConnectionManager().getDefaultMaxPerRoute());
+	}
+}
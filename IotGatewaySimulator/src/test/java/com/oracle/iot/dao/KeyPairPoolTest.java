@@ -0,0 +1,104 @@
+package com.oracle.iot.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.when;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.service.SystemConfigService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class KeyPairPoolTest {
+
+	@Mock
+	SystemConfigService systemConfigService;
+
+	@InjectMocks
+	KeyPairPool pool;
+
+	@Before
+	public void setUp() {
+		pool.init();
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	private void awaitAvailable(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (pool.available() < count && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void takeFillsPoolInBackground() throws Exception {
+		// setup
+		when(systemConfigService.getKeyPoolDepth()).thenReturn(3);
+
+		// execute
+		KeyPair first = pool.take("RSA", 512);
+		awaitAvailable(3);
+
+		// assert
+		assertNotNull(first);
+		assertEquals(3, pool.available());
+	}
+
+	@Test
+	public void takeUsesPooledPairs() throws Exception {
+		// setup
+		when(systemConfigService.getKeyPoolDepth()).thenReturn(2);
+		pool.take("RSA", 512);
+		awaitAvailable(2);
+
+		// execute
+		KeyPair pair = pool.take("RSA", 512);
+
+		// assert
+		assertEquals(512, ((RSAPublicKey) pair.getPublic()).getModulus().bitLength());
+		awaitAvailable(2);
+		assertEquals(2, pool.available());
+	}
+
+	@Test
+	public void newKeySizeReplacesPool() throws Exception {
+		// setup
+		when(systemConfigService.getKeyPoolDepth()).thenReturn(2);
+		pool.take("RSA", 512);
+		awaitAvailable(2);
+
+		// execute
+		KeyPair pair = pool.take("RSA", 1024);
+		awaitAvailable(2);
+
+		// assert
+		assertEquals(1024, ((RSAPublicKey) pair.getPublic()).getModulus().bitLength());
+		assertEquals(1024, ((RSAPublicKey) pool.take("RSA", 1024).getPublic()).getModulus().bitLength());
+	}
+
+	@Test
+	public void zeroDepthGeneratesOnDemand() throws Exception {
+		// setup
+		when(systemConfigService.getKeyPoolDepth()).thenReturn(0);
+
+		// execute
+		KeyPair pair = pool.take("RSA", 512);
+
+		// assert
+		assertNotNull(pair);
+		assertEquals(0, pool.available());
+	}
+}
@@ -0,0 +1,129 @@
+package com.oracle.iot.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.service.SystemConfigService;
+import com.oracle.json.Json;
+import com.oracle.json.JsonObject;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MessageBatcherTest {
+
+	@Mock
+	SystemConfigService systemConfigService;
+
+	@InjectMocks
+	MessageBatcher batcher;
+
+	private static JsonObject message(String value) {
+		return Json.createObjectBuilder().add("value", value).build();
+	}
+
+	@Test
+	public void addSendsImmediatelyWithoutLinger() throws Exception {
+		// setup
+		when(systemConfigService.getBatchLinger()).thenReturn(0);
+
+		// execute
+		List<List<JsonObject>> batches = batcher.add("Test-123", message("0"));
+
+		// assert
+		assertEquals(1, batches.size());
+		assertEquals(1, batches.get(0).size());
+	}
+
+	@Test
+	public void addReleasesFullBatch() throws Exception {
+		// setup
+		when(systemConfigService.getBatchLinger()).thenReturn(60000);
+		when(systemConfigService.getBatchMaxMessages()).thenReturn(3);
+		when(systemConfigService.getBatchMaxBytes()).thenReturn(0);
+
+		// execute
+		List<List<JsonObject>> first = batcher.add("Test-123", message("0"));
+		List<List<JsonObject>> second = batcher.add("Test-123", message("0"));
+		List<List<JsonObject>> third = batcher.add("Test-123", message("0"));
+
+		// assert
+		assertTrue(first.isEmpty());
+		assertTrue(second.isEmpty());
+		assertEquals(1, third.size());
+		assertEquals(3, third.get(0).size());
+	}
+
+	@Test
+	public void addStartsNewBatchAtByteLimit() throws Exception {
+		// setup
+		when(systemConfigService.getBatchLinger()).thenReturn(60000);
+		when(systemConfigService.getBatchMaxMessages()).thenReturn(100);
+		JsonObject message = message("0123456789");
+		int size = message.toString().getBytes("UTF-8").length;
+		when(systemConfigService.getBatchMaxBytes()).thenReturn(size * 2 + 1);
+
+		// execute
+		batcher.add("Test-123", message);
+		batcher.add("Test-123", message);
+		List<List<JsonObject>> third = batcher.add("Test-123", message);
+
+		// assert
+		assertEquals(1, third.size());
+		assertEquals(2, third.get(0).size());
+	}
+
+	@Test
+	public void addFlushesOpenBatchFirstWhenLingerDropsToZero() throws Exception {
+		// setup
+		when(systemConfigService.getBatchLinger()).thenReturn(60000);
+		when(systemConfigService.getBatchMaxMessages()).thenReturn(10);
+		when(systemConfigService.getBatchMaxBytes()).thenReturn(0);
+		JsonObject first = message("1");
+		JsonObject second = message("2");
+		JsonObject third = message("3");
+		batcher.add("Test-123", first);
+		batcher.add("Test-123", second);
+
+		// execute
+		when(systemConfigService.getBatchLinger()).thenReturn(0);
+		List<List<JsonObject>> batches = batcher.add("Test-123", third);
+
+		// assert
+		assertEquals(2, batches.size());
+		assertEquals(2, batches.get(0).size());
+		assertSame(first, batches.get(0).get(0));
+		assertSame(second, batches.get(0).get(1));
+		assertSame(third, batches.get(1).get(0));
+		assertTrue(batcher.drainExpired(System.currentTimeMillis() + 120000).isEmpty());
+	}
+
+	@Test
+	public void drainExpiredReleasesLingeringBatches() throws Exception {
+		// setup
+		when(systemConfigService.getBatchLinger()).thenReturn(1000);
+		when(systemConfigService.getBatchMaxMessages()).thenReturn(10);
+		when(systemConfigService.getBatchMaxBytes()).thenReturn(0);
+		batcher.add("Test-1", message("0"));
+		batcher.add("Test-2", message("0"));
+		long now = System.currentTimeMillis();
+
+		// execute
+		Map<String, List<JsonObject>> early = batcher.drainExpired(now);
+		Map<String, List<JsonObject>> expired = batcher.drainExpired(now + 2000);
+
+		// assert
+		assertTrue(early.isEmpty());
+		assertEquals(2, expired.size());
+		assertEquals(1, expired.get("Test-1").size());
+	}
+}
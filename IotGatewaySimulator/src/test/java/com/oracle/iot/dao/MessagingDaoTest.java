@@ -6,9 +6,26 @@ import static org.junit.Assert.assertNull;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
 
+import com.oracle.iot.service.SendMetricsService;
+
+@RunWith(MockitoJUnitRunner.class)
 public class MessagingDaoTest {
 
+	@Mock
+	MessageBatcher messageBatcher;
+
+	@Mock
+	PrivateKeyStore privateKeyStore;
+
+	@Mock
+	SendMetricsService sendMetrics;
+
+	@InjectMocks
 	MessagingDao dao = new MessagingDao();
 
 	@Before
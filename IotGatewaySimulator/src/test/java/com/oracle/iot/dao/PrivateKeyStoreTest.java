@@ -0,0 +1,117 @@
+package com.oracle.iot.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrivateKeyStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PrivateKeyStore store = new PrivateKeyStore();
+
+	@After
+	public void tearDown() {
+		store.close();
+	}
+
+	@Test
+	public void keysSurviveReopen() throws Exception {
+		// setup
+		File file = new File(folder.getRoot(), "keys.db");
+		byte[] key = "privateByteSizedKey".getBytes();
+		store.open(file, "passphrase".toCharArray());
+		store.put("Test-123", key);
+		store.put("Test-456", "otherKey".getBytes());
+		store.delete("Test-456");
+		store.close();
+
+		// execute
+		store.open(file, "passphrase".toCharArray());
+
+		// assert
+		assertArrayEquals(key, store.get("Test-123"));
+		assertNull(store.get("Test-456"));
+	}
+
+	@Test
+	public void keysAreEncryptedAtRest() throws Exception {
+		// setup
+		File file = new File(folder.getRoot(), "keys.db");
+		byte[] key = "privateByteSizedKey".getBytes();
+		store.open(file, "passphrase".toCharArray());
+
+		// execute
+		store.put("Test-123", key);
+		store.close();
+
+		// assert
+		String contents = new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+		assertFalse(contents.contains("privateByteSizedKey"));
+	}
+
+	@Test
+	public void wrongPassphraseKeepsStoreClosed() throws Exception {
+		// setup
+		File file = new File(folder.getRoot(), "keys.db");
+		store.open(file, "passphrase".toCharArray());
+		store.put("Test-123", "privateByteSizedKey".getBytes());
+		store.close();
+
+		// execute
+		store.open(file, "guess".toCharArray());
+
+		// assert
+		assertFalse(store.isOpen());
+		assertNull(store.get("Test-123"));
+	}
+
+	@Test
+	public void tornRecordIsDropped() throws Exception {
+		// setup
+		File file = new File(folder.getRoot(), "keys.db");
+		byte[] key = "privateByteSizedKey".getBytes();
+		store.open(file, "passphrase".toCharArray());
+		store.put("Test-123", key);
+		store.put("Test-456", "otherKey".getBytes());
+		store.close();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		raw.setLength(raw.length() - 5);
+		raw.close();
+
+		// execute
+		store.open(file, "passphrase".toCharArray());
+
+		// assert
+		assertTrue(store.isOpen());
+		assertArrayEquals(key, store.get("Test-123"));
+		assertNull(store.get("Test-456"));
+	}
+
+	@Test
+	public void sealedValuesOpenOnlyUnaltered() throws Exception {
+		// setup
+		store.open(new File(folder.getRoot(), "keys.db"), "passphrase".toCharArray());
+		byte[] secret = "secret".getBytes();
+
+		// execute
+		byte[] sealed = store.seal(secret);
+		byte[] altered = sealed.clone();
+		altered[20] ^= 1;
+
+		// assert
+		assertArrayEquals(secret, store.unseal(sealed));
+		assertNull(store.unseal(altered));
+	}
+}
@@ -0,0 +1,36 @@
+package com.oracle.iot.model;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AccessTokenTest {
+
+	@Test
+	public void expiresWithin() throws Exception {
+		// setup
+		AccessToken token = new AccessToken(60000, "Bearer", "token");
+
+		// execute / assert
+		assertFalse(token.hasExpired());
+		assertFalse(token.expiresWithin(30000));
+		assertTrue(token.expiresWithin(60000));
+	}
+
+	@Test
+	public void connectionKeepsTokenExpiry() throws Exception {
+		// setup
+		AccessToken token = new AccessToken(10000, "Bearer", "token");
+		IOTConnection connection = new IOTConnection("username", "password", "server", 7001);
+
+		// execute
+		connection.setToken(token);
+
+		// assert
+		assertTrue(connection.hasValidToken(5000));
+		assertFalse(connection.hasValidToken(10000));
+		connection.invalidateToken();
+		assertFalse(connection.hasValidToken(0));
+	}
+}
@@ -0,0 +1,65 @@
+package com.oracle.iot.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChartHistoryTest {
+
+	@Test
+	public void keepsTheLastPointsOfEverySeries() throws Exception {
+		// setup
+		ChartHistory chart = new ChartHistory(new String[] { "a", "b", "c" }, 3);
+
+		// execute
+		for (int i = 1; i <= 5; i++) {
+			chart.add(0, i * 1000L, i);
+		}
+		chart.add(2, 5000L, 9);
+
+		// assert
+		assertEquals(Arrays.asList("a", "c"), chart.getSeries());
+		List<List<Double>> values = chart.getValues();
+		assertEquals(Arrays.asList(3.0, 4.0, 5.0), values.get(0));
+		assertEquals(Arrays.asList(9.0, 9.0, 9.0), values.get(1));
+		List<String> labels = chart.getLabels();
+		assertEquals(3, labels.size());
+		assertTrue(labels.get(0).trim().length() > 0);
+	}
+
+	@Test
+	public void padsUntilFull() throws Exception {
+		// setup
+		ChartHistory chart = new ChartHistory(new String[] { "a" }, null);
+
+		// execute
+		chart.add(0, 1000L, 1);
+		chart.add(0, 2000L, 2);
+
+		// assert
+		assertEquals(ChartHistory.DEFAULT_DEPTH, chart.getDepth());
+		List<Double> values = chart.getValues().get(0);
+		assertEquals(ChartHistory.DEFAULT_DEPTH, values.size());
+		assertEquals(1.0, values.get(0), 0);
+		assertEquals(2.0, values.get(ChartHistory.DEFAULT_DEPTH - 1), 0);
+		assertEquals(" ", chart.getLabels().get(0));
+	}
+
+	@Test
+	public void clearEmptiesEverySeries() throws Exception {
+		// setup
+		ChartHistory chart = new ChartHistory(new String[] { "a" }, 2);
+		chart.add(0, 1000L, 1);
+
+		// execute
+		chart.clear();
+
+		// assert
+		assertTrue(chart.getSeries().isEmpty());
+		assertEquals(Arrays.asList(" ", " "), chart.getLabels());
+	}
+}
@@ -0,0 +1,129 @@
+package com.oracle.iot.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FleetStoreTest {
+
+	private PropertyDeviceDetails createDetails() {
+		PropertyDeviceDetails details = new PropertyDeviceDetails("pump", "Pump", "urn:pump:data", "urn:pump:alert",
+				null);
+		details.addMetric("pressure", "Pressure", 10d, 1d, null, null, null, null, 0d, false);
+		details.addMetric("running", "Running", true);
+		details.addEvent("stall", "Stall", 1, "running", false);
+		return details;
+	}
+
+	@Test
+	public void forTypeSharesOneStorePerType() throws Exception {
+		// setup
+		PropertyDeviceDetails details = createDetails();
+
+		// execute
+		FleetStore first = FleetStore.forType(details);
+		FleetStore second = FleetStore.forType(details);
+
+		// assert
+		assertSame(first, second);
+	}
+
+	@Test
+	public void releasedRowIsReusedWithDefaults() throws Exception {
+		// setup
+		FleetStore fleet = FleetStore.forType(createDetails());
+		FleetStore.Row row = fleet.allocate();
+		row.toggle(0);
+		fleet.getProgram().animate(row, MetricOverrides.NONE);
+		assertEquals(11d, row.getNumber(0), 0d);
+		assertFalse(row.getFlag(1));
+
+		// execute
+		fleet.release(row);
+		FleetStore.Row reused = fleet.allocate();
+
+		// assert
+		assertEquals(row.getIndex(), reused.getIndex());
+		assertEquals(1, fleet.size());
+		assertEquals(10d, reused.getNumber(0), 0d);
+		assertTrue(reused.getFlag(1));
+		assertFalse(reused.isActive(0));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void statsFollowCurrentValues() throws Exception {
+		// setup
+		FleetStore fleet = FleetStore.forType(createDetails());
+		FleetStore.Row first = fleet.allocate();
+		FleetStore.Row second = fleet.allocate();
+		FleetStore.Row third = fleet.allocate();
+
+		// execute
+		first.setNumber(0, 20d);
+		fleet.tally(first);
+		second.setFlag(1, false);
+		fleet.tally(second);
+		fleet.release(third);
+		Map<String, Object> stats = fleet.getStats().toMap();
+
+		// assert
+		Map<String, Object> pressure = (Map<String, Object>) stats.get("Pressure");
+		assertEquals(2L, pressure.get("count"));
+		assertEquals(15d, (Double) pressure.get("mean"), 1e-9);
+		assertEquals(25d, (Double) pressure.get("variance"), 1e-9);
+		assertEquals(10d, (Double) pressure.get("min"), 0.1);
+		assertEquals(20d, (Double) pressure.get("max"), 0.2);
+		Map<String, Object> running = (Map<String, Object>) stats.get("Running");
+		assertEquals(2L, running.get("count"));
+		assertEquals(0.5d, (Double) running.get("mean"), 1e-9);
+	}
+
+	@Test
+	public void rowsAcrossChunksAreIndependent() throws Exception {
+		// setup
+		FleetStore fleet = FleetStore.forType(createDetails());
+		List<FleetStore.Row> rows = new ArrayList<FleetStore.Row>();
+		for (int i = 0; i < 3000; i++) {
+			rows.add(fleet.allocate());
+		}
+
+		// execute
+		for (FleetStore.Row row : rows) {
+			if (row.getIndex() % 2 == 1) {
+				row.toggle(0);
+				fleet.getProgram().animate(row, MetricOverrides.NONE);
+			}
+		}
+
+		// assert
+		assertEquals(3000, fleet.size());
+		for (FleetStore.Row row : rows) {
+			boolean odd = row.getIndex() % 2 == 1;
+			assertEquals(odd, row.isActive(0));
+			assertEquals(!odd, row.getFlag(1));
+			assertEquals(odd ? 11d : 10d, row.getNumber(0), 0d);
+		}
+	}
+
+	@Test
+	public void releasedDeviceHasNoValues() throws Exception {
+		// setup
+		PropertyDevice device = new PropertyDevice(createDetails(), "id", "secret");
+
+		// execute
+		device.release();
+
+		// assert
+		assertTrue(device.getMetrics().isEmpty());
+		assertTrue(device.getEvents().isEmpty());
+		assertFalse(device.eventHandler("stall"));
+	}
+}
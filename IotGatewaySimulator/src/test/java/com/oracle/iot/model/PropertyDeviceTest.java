@@ -1,10 +1,14 @@
 package com.oracle.iot.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Resource;
@@ -50,6 +54,104 @@ public class PropertyDeviceTest {
 		assertMetric((Double) metrics.get("Motor Amperage (A)"), 50.0);
 	}
 
+	@Test
+	public void hvacPropertyDeviceTest_sharesResources() throws Exception {
+		// setup
+		PropertyDeviceDetails deviceDetails = dao.getDevice("hvac");
+
+		// execute
+		PropertyDevice first = new PropertyDevice(deviceDetails, "first", "secret");
+		PropertyDevice second = new PropertyDevice(deviceDetails, "second", "secret");
+
+		// assert
+		assertSame(first.getResources(), second.getResources());
+		assertEquals(deviceDetails.getMetrics().size(), first.getResources().size());
+		for (DeviceResource resource : first.getResources()) {
+			assertSame(first.getResources().get(0).getHandler(), resource.getHandler());
+		}
+	}
+
+	@Test
+	public void hvacPropertyDeviceTest_metricDefaultOnlyForOneDevice() throws Exception {
+		// setup
+		PropertyDeviceDetails deviceDetails = dao.getDevice("hvac");
+		PropertyDevice changed = new PropertyDevice(deviceDetails, "changed", "secret");
+		PropertyDevice other = new PropertyDevice(deviceDetails, "other", "secret");
+
+		// execute
+		boolean set = changed.setMetricDefault("outputTemp", "100");
+		changed.createMessage();
+		other.createMessage();
+
+		// assert
+		assertTrue(set);
+		assertFalse(changed.setMetricDefault("noSuchMetric", "1"));
+		assertEquals(100.0, changed.getMetricDefault("outputTemp"));
+		assertEquals(30.0, other.getMetricDefault("outputTemp"));
+		assertEquals(30.0, deviceDetails.getMetricByName("outputTemp").getDefaultValue(), 0);
+		assertMetric((Double) changed.getMetrics().get("Output Temp (C)"), 100.0);
+		assertMetric((Double) other.getMetrics().get("Output Temp (C)"), 30.0);
+	}
+
+	@Test
+	public void hvacPropertyDeviceTest_lookupsByName() throws Exception {
+		// setup
+		PropertyDeviceDetails deviceDetails = dao.getDevice("hvac");
+		PropertyDevice device = new PropertyDevice(deviceDetails, "testId", "secret");
+
+		// execute
+		MetricProgram program = FleetStore.forType(deviceDetails).getProgram();
+
+		// assert
+		assertEquals("outputTemp", deviceDetails.getMetricByName("OUTPUTTEMP").getName());
+		assertEquals(0, program.indexOf("OutputTemp"));
+		assertEquals(-1, program.indexOf("noSuchMetric"));
+		assertEquals("eventMotorOverheat", program.getEvent(program.eventIndexOf("eventMotorOverheat")).getName());
+		assertFalse(device.eventHandler("noSuchEvent"));
+		assertTrue(device.eventHandler("eventMotorOverheat"));
+	}
+
+	@Test
+	public void hvacPropertyDeviceTest_history() throws Exception {
+		// setup
+		PropertyDevice device = new PropertyDevice(dao.getDevice("hvac"), "testId", "secret");
+
+		// execute
+		device.createMessage();
+		device.createMessage();
+
+		// assert
+		Map<String, Object> history = device.getHistory("Output Temp (C)", 0, Long.MAX_VALUE, 0);
+		assertEquals("outputTemp", history.get("metric"));
+		assertEquals(2, ((List<?>) history.get("points")).size());
+		assertNull(device.getHistory("noSuchMetric", 0, Long.MAX_VALUE, 0));
+	}
+
+	@Test
+	public void propertyDeviceTest_changedMetrics() throws Exception {
+		// setup
+		PropertyDeviceDetails details = new PropertyDeviceDetails("tank", "Tank", "urn:tank:data", "urn:tank:alert",
+				null);
+		details.addMetric("pressure", "Pressure", 10d, 1d, null, null, null, null, 0d, false);
+		details.addMetric("running", "Running", true);
+		details.addEvent("stall", "Stall", 1, "running", false);
+		PropertyDevice device = new PropertyDevice(details, "tank-1", "secret");
+
+		// execute
+		device.animateMetrics();
+		Map<String, Object> first = device.getChangedMetrics();
+		device.eventHandler("stall");
+		device.animateMetrics();
+		Map<String, Object> second = device.getChangedMetrics();
+
+		// assert
+		assertEquals(1, first.size());
+		assertEquals(11d, (Double) first.get("Pressure"), 0d);
+		assertEquals(2, second.size());
+		assertEquals(12d, (Double) second.get("Pressure"), 0d);
+		assertEquals(false, second.get("Running"));
+	}
+
 	@Test
 	// @Ignore
 	public void hvacPropertyDeviceTest_eventMotorOverheat_increment() throws Exception {
@@ -0,0 +1,103 @@
+package com.oracle.iot.scheduled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.service.SystemConfigService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceDispatcherTest {
+
+	@Mock
+	SystemConfigService systemConfigService;
+
+	@InjectMocks
+	DeviceDispatcher dispatcher;
+
+	@After
+	public void tearDown() {
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void dispatchRunsSendsConcurrently() throws Exception {
+		// setup
+		when(systemConfigService.getMaxConcurrentSends()).thenReturn(10);
+		when(systemConfigService.getDispatchTimeout()).thenReturn(5000);
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int i = 0; i < 10; i++) {
+			tasks.add(sleepingTask(200));
+		}
+
+		// execute
+		long start = System.currentTimeMillis();
+		int completed = dispatcher.dispatch(tasks);
+		long elapsed = System.currentTimeMillis() - start;
+
+		// assert
+		assertEquals(10, completed);
+		assertTrue(elapsed < 1000);
+	}
+
+	@Test
+	public void dispatchTimesOutSlowSends() throws Exception {
+		// setup
+		when(systemConfigService.getMaxConcurrentSends()).thenReturn(2);
+		when(systemConfigService.getDispatchTimeout()).thenReturn(300);
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		tasks.add(sleepingTask(10));
+		tasks.add(sleepingTask(5000));
+
+		// execute
+		long start = System.currentTimeMillis();
+		int completed = dispatcher.dispatch(tasks);
+		long elapsed = System.currentTimeMillis() - start;
+
+		// assert
+		assertEquals(1, completed);
+		assertTrue(elapsed < 2000);
+	}
+
+	@Test
+	public void dispatchCountsFailedSends() throws Exception {
+		// setup
+		when(systemConfigService.getMaxConcurrentSends()).thenReturn(4);
+		when(systemConfigService.getDispatchTimeout()).thenReturn(5000);
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		tasks.add(sleepingTask(10));
+		tasks.add(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return false;
+			}
+		});
+
+		// execute
+		int completed = dispatcher.dispatch(tasks);
+
+		// assert
+		assertEquals(1, completed);
+	}
+
+	private Callable<Boolean> sleepingTask(final long millis) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				Thread.sleep(millis);
+				return true;
+			}
+		};
+	}
+}
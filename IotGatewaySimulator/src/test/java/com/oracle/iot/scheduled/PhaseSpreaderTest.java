@@ -0,0 +1,85 @@
+package com.oracle.iot.scheduled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.model.SpreadStrategy;
+import com.oracle.iot.service.SystemConfigService;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PhaseSpreaderTest {
+
+	@Mock
+	SystemConfigService systemConfigService;
+
+	@InjectMocks
+	PhaseSpreader spreader;
+
+	@Test
+	public void phase_NoneAlignsEveryDevice() throws Exception {
+		// setup
+		when(systemConfigService.getSpreadStrategy()).thenReturn(SpreadStrategy.NONE);
+
+		// execute / assert
+		assertEquals(0, spreader.phase("HVAC-1", 2000));
+		assertEquals(0, spreader.phase("HVAC-2", 2000));
+	}
+
+	@Test
+	public void phase_HashedIsStable() throws Exception {
+		// setup
+		when(systemConfigService.getSpreadStrategy()).thenReturn(SpreadStrategy.HASHED);
+
+		// execute
+		long first = spreader.phase("HVAC-1", 2000);
+		long second = spreader.phase("HVAC-1", 2000);
+
+		// assert
+		assertEquals(first, second);
+		assertTrue(first >= 0 && first < 2000);
+	}
+
+	@Test
+	public void phase_HashedSpreadsSequentialIds() throws Exception {
+		// setup
+		when(systemConfigService.getSpreadStrategy()).thenReturn(SpreadStrategy.HASHED);
+		int[] buckets = new int[10];
+
+		// execute: 1000 devices over ten 200ms buckets of a 2s period
+		for (int i = 0; i < 1000; i++) {
+			buckets[(int) (spreader.phase("HVAC-" + i, 2000) / 200)]++;
+		}
+
+		// assert
+		for (int count : buckets) {
+			assertTrue(count > 50 && count < 150);
+		}
+	}
+
+	@Test
+	public void jitter_StaysWithinBounds() throws Exception {
+		// setup
+		when(systemConfigService.getSpreadJitter()).thenReturn(10);
+
+		// execute / assert
+		for (int i = 0; i < 1000; i++) {
+			long jitter = spreader.jitter(2000);
+			assertTrue(jitter >= -200 && jitter <= 200);
+		}
+	}
+
+	@Test
+	public void nextAligned_LandsOnPhase() throws Exception {
+		// execute / assert
+		assertEquals(10500, ReportScheduler.nextAligned(10000, 500, 2000));
+		assertEquals(12500, ReportScheduler.nextAligned(10500, 500, 2000));
+		assertEquals(12500, ReportScheduler.nextAligned(11999, 500, 2000));
+	}
+}
@@ -0,0 +1,174 @@
+package com.oracle.iot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.client.ActivationPolicyResponse;
+import com.oracle.iot.client.DirectActivationRequest;
+import com.oracle.iot.dao.MessagingDao;
+import com.oracle.iot.dao.MessagingDao.AlreadyActivatedException;
+import com.oracle.iot.model.IOTDevice;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ActivationServiceTest {
+
+	@Mock
+	MessagingDao dao;
+
+	@Mock
+	DeviceService deviceService;
+
+	@Mock
+	MessagingService messagingService;
+
+	@Mock
+	SystemConfigService systemConfigService;
+
+	@InjectMocks
+	ActivationService activationService;
+
+	private KeyPair keyPair;
+
+	@Before
+	public void setUp() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(512);
+		keyPair = generator.genKeyPair();
+		when(systemConfigService.getActivationParallelism()).thenReturn(4);
+		when(systemConfigService.getActivationPolicyConcurrency()).thenReturn(1);
+		when(systemConfigService.getActivationSignConcurrency()).thenReturn(2);
+		when(systemConfigService.getActivationPostConcurrency()).thenReturn(2);
+		when(systemConfigService.getGatewayMode()).thenReturn(false);
+		when(systemConfigService.getMessageStatus()).thenReturn(false);
+		when(dao.activationLock(anyString())).thenReturn(new Object());
+		when(dao.fetchActivationPolicy(anyString())).thenReturn(Mockito.mock(ActivationPolicyResponse.class));
+		when(dao.supplyKeyPair(any(ActivationPolicyResponse.class))).thenReturn(keyPair);
+		when(dao.signActivation(anyString(), any(KeyPair.class), any(ActivationPolicyResponse.class)))
+				.thenReturn(new DirectActivationRequest());
+	}
+
+	private void addDevice(String id) {
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn(id);
+		when(device.getSecret()).thenReturn("secret");
+		when(deviceService.getDevice(id)).thenReturn(device);
+	}
+
+	@Test
+	public void activateReportsEveryDevice() throws Exception {
+		// setup
+		addDevice("Test-1");
+		addDevice("Test-2");
+		addDevice("Test-3");
+		final List<Map<String, Object>> results = Collections.synchronizedList(new ArrayList<Map<String, Object>>());
+
+		// execute
+		Map<String, Object> summary = activationService.activate(Arrays.asList("Test-1", "Test-2", "Test-3"),
+				new ActivationService.Listener() {
+					@Override
+					public void onResult(Map<String, Object> result) {
+						results.add(result);
+					}
+				});
+
+		// assert
+		assertEquals(3, summary.get(ActivationService.ACTIVATED));
+		assertEquals(3, results.size());
+		verify(dao).savePrivateKey("Test-2", keyPair.getPrivate().getEncoded());
+	}
+
+	@Test
+	public void activateKeepsGoingPastFailures() throws Exception {
+		// setup
+		addDevice("Test-1");
+		addDevice("Test-2");
+		doThrow(new IOException("HTTP 500")).when(dao).postActivation(eq("Test-1"),
+				any(DirectActivationRequest.class));
+
+		// execute
+		Map<String, Object> summary = activationService.activate(Arrays.asList("Test-1", "Test-2"), null);
+
+		// assert
+		assertEquals(1, summary.get(ActivationService.FAILED));
+		assertEquals(1, summary.get(ActivationService.ACTIVATED));
+	}
+
+	@Test
+	public void activateCountsOnlyRefusedPostsAsAlreadyActivated() throws Exception {
+		// setup
+		addDevice("Test-1");
+		addDevice("Test-2");
+		doThrow(new AlreadyActivatedException("Test-1")).when(dao).postActivation(eq("Test-1"),
+				any(DirectActivationRequest.class));
+		when(dao.fetchActivationPolicy("Test-2")).thenThrow(new IllegalStateException("Test-2"));
+
+		// execute
+		Map<String, Object> summary = activationService.activate(Arrays.asList("Test-1", "Test-2"), null);
+
+		// assert
+		assertEquals(1, summary.get(ActivationService.ALREADY_ACTIVATED));
+		assertEquals(1, summary.get(ActivationService.FAILED));
+	}
+
+	@Test
+	public void activateSkipsDevicesWithKeys() throws Exception {
+		// setup
+		addDevice("Test-1");
+		when(dao.getPrivateKey("Test-1")).thenReturn("privateByteSizedKey".getBytes());
+
+		// execute
+		Map<String, Object> summary = activationService.activate(Arrays.asList("Test-1"), null);
+
+		// assert
+		assertEquals(1, summary.get(ActivationService.SKIPPED));
+		verify(dao, never()).fetchActivationPolicy("Test-1");
+	}
+
+	@Test
+	public void activateStartsSendingOnceActivated() throws Exception {
+		// setup
+		addDevice("Test-1");
+		when(systemConfigService.getMessageStatus()).thenReturn(true);
+		when(systemConfigService.getHost()).thenReturn("localhost");
+		when(systemConfigService.getUsername()).thenReturn("iot");
+		when(systemConfigService.getPassword()).thenReturn("welcome1");
+		final Map<String, Object> last = new HashMap<String, Object>();
+
+		// execute
+		activationService.activate(Arrays.asList("Test-1"), new ActivationService.Listener() {
+			@Override
+			public void onResult(Map<String, Object> result) {
+				last.putAll(result);
+			}
+		});
+
+		// assert
+		assertEquals(ActivationService.ACTIVATED, last.get("status"));
+		verify(messagingService).sendMessages(eq(deviceService.getDevice("Test-1")), anyString(), any(Integer.class),
+				eq(true), anyString(), anyString());
+	}
+}
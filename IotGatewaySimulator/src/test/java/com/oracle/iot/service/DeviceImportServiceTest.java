@@ -0,0 +1,109 @@
+package com.oracle.iot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.oracle.iot.model.PropertyDevice;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeviceImportServiceTest {
+
+	@Mock
+	DeviceService deviceService;
+
+	@InjectMocks
+	DeviceImportService importService;
+
+	private ByteArrayInputStream csv(String text) throws Exception {
+		return new ByteArrayInputStream(text.getBytes("UTF-8"));
+	}
+
+	@Test
+	public void importCsvCreatesEveryRow() throws Exception {
+		// setup
+		PropertyDevice device = Mockito.mock(PropertyDevice.class);
+		when(deviceService.newDevice(eq("hvac"), anyString(), eq("secret"))).thenReturn(device);
+		when(deviceService.insertAll(anyListOf(PropertyDevice.class))).thenReturn(Collections.<Integer> emptyList());
+
+		// execute
+		Map<String, Object> result = importService.importCsv(
+				csv("test1,DDVC,Oracle,test1,test1,test1,secret\ntest2,DDVC,Oracle,test2,test2,test2,secret\n"),
+				"hvac");
+
+		// assert
+		assertEquals(2, result.get("lines"));
+		assertEquals(2, result.get("created"));
+		assertEquals(0, result.get("failed"));
+	}
+
+	@Test
+	public void importCsvReportsBadLines() throws Exception {
+		// setup
+		PropertyDevice device = Mockito.mock(PropertyDevice.class);
+		when(device.getId()).thenReturn("test1");
+		when(deviceService.newDevice(anyString(), anyString(), anyString())).thenReturn(device);
+		when(deviceService.newDevice(eq("toaster"), anyString(), anyString())).thenReturn(null);
+		when(deviceService.insertAll(anyListOf(PropertyDevice.class))).thenReturn(Arrays.asList(0));
+
+		// execute
+		Map<String, Object> result = importService.importCsv(csv("id,desc,manufacturer,model,serial,other,secret\n"
+				+ "test1,DDVC,Oracle,test1,test1,test1,secret\n" + "test2,DDVC,Oracle,test2,test2,test2\n"
+				+ "test3,DDVC,Oracle,test3,test3,test3,secret,toaster\n"), "hvac");
+
+		// assert
+		assertEquals(0, result.get("created"));
+		assertEquals(3, result.get("failed"));
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> errors = (List<Map<String, Object>>) result.get("errors");
+		assertEquals(3, errors.get(0).get("line"));
+		assertEquals(4, errors.get(1).get("line"));
+		assertEquals(2, errors.get(2).get("line"));
+		assertEquals("device test1 already exists", errors.get(2).get("message"));
+	}
+
+	@Test
+	public void importCsvInsertsInBatches() throws Exception {
+		// setup
+		PropertyDevice device = Mockito.mock(PropertyDevice.class);
+		when(deviceService.newDevice(anyString(), anyString(), anyString())).thenReturn(device);
+		when(deviceService.insertAll(anyListOf(PropertyDevice.class))).thenReturn(Collections.<Integer> emptyList());
+		StringBuilder rows = new StringBuilder();
+		for (int i = 0; i < 1200; i++) {
+			rows.append("test").append(i).append(",DDVC,Oracle,m,s,o,secret\n");
+		}
+
+		// execute
+		Map<String, Object> result = importService.importCsv(csv(rows.toString()), "hvac");
+
+		// assert
+		assertEquals(1200, result.get("created"));
+		verify(deviceService, times(3)).insertAll(anyListOf(PropertyDevice.class));
+	}
+
+	@Test
+	public void parseLineHandlesQuotes() throws Exception {
+		// execute
+		List<String> columns = DeviceImportService.parseLine("a,\"b, \"\"c\"\"\",,d");
+
+		// assert
+		assertEquals(Arrays.asList("a", "b, \"c\"", "", "d"), columns);
+	}
+}
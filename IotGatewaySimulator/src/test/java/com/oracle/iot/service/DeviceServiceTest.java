@@ -1,9 +1,14 @@
 package com.oracle.iot.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
@@ -13,16 +18,19 @@ import java.util.Map;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatcher;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.oracle.iot.dao.DeviceDaoInMemory;
-import com.oracle.iot.dao.DevicePropertiesLoaderDao;
+import com.oracle.iot.dao.DevicePropertiesLoaderDao;
+import com.oracle.iot.dao.DeviceStateSegment;
 import com.oracle.iot.model.IOTDevice;
 import com.oracle.iot.model.PropertyDevice;
 import com.oracle.iot.model.PropertyDeviceDetails;
+import com.oracle.iot.scheduled.ReportScheduler;
 
 @RunWith(MockitoJUnitRunner.class)
 public class DeviceServiceTest {
@@ -33,6 +41,12 @@ public class DeviceServiceTest {
 	@Mock
 	DevicePropertiesLoaderDao loaderDao;
 
+	@Mock
+	ReportScheduler reportScheduler;
+
+	@Mock
+	DeviceStateSegment stateSegment;
+
 	@InjectMocks
 	DeviceService deviceService;
 
@@ -82,6 +96,30 @@ public class DeviceServiceTest {
 		assertEquals(devices.get(0).get("name"), id);
 	}
 
+	@Test
+	public void toRowsProjectsFields() throws Exception {
+		// setup
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn("Test-123");
+		when(device.getResource()).thenReturn("hvac");
+		PropertyDeviceDetails deviceDetails = Mockito.mock(PropertyDeviceDetails.class);
+		// a PNG signature
+		when(deviceDetails.getPicture()).thenReturn("iVBORw0KGgo=");
+		when(loaderDao.getDevice("hvac")).thenReturn(deviceDetails);
+
+		// execute
+		List<Map<String, Object>> rows = deviceService.toRows(Arrays.asList(device), Arrays.asList("name", "image"));
+		DeviceService.Picture picture = deviceService.getPicture("hvac");
+
+		// assert
+		assertEquals(2, rows.get(0).size());
+		assertEquals("Test-123", rows.get(0).get("name"));
+		assertEquals("device/types/hvac/picture?v=" + picture.getEtag(), rows.get(0).get("image"));
+		assertFalse(rows.get(0).containsKey("secret"));
+		assertEquals("image/png", picture.getContentType());
+		assertEquals(8, picture.getBytes().length);
+	}
+
 	@Test
 	public void findById() throws Exception {
 		// setup
@@ -127,6 +165,7 @@ public class DeviceServiceTest {
 
 		// assert
 		assertTrue(updated);
+		verifyZeroInteractions(stateSegment);
 	}
 
 	@Test
@@ -156,4 +195,46 @@ public class DeviceServiceTest {
 		// assert
 		assertEquals(devices.size(),0);
 	}
+
+	@Test
+	public void generateNamesDevicesFromThePattern() throws Exception {
+		// setup
+		PropertyDeviceDetails deviceDetails = Mockito.mock(PropertyDeviceDetails.class);
+		when(loaderDao.getDevice("hvac")).thenReturn(deviceDetails);
+		when(deviceDao.insert(any(PropertyDevice.class))).thenReturn(true);
+		when(deviceDao.insert(argThat(new ArgumentMatcher<PropertyDevice>() {
+			@Override
+			public boolean matches(Object device) {
+				return "hvac-00007".equals(((PropertyDevice) device).getId());
+			}
+		}))).thenReturn(false);
+
+		// execute
+		Map<String, Object> result = deviceService.generate("hvac", null, "hvac-{00000..01199}", "X",
+				DeviceService.SECRET_FIXED);
+
+		// assert
+		assertEquals(1200L, result.get("requested"));
+		assertEquals(1199L, result.get("created"));
+		assertEquals(1, result.get("duplicates"));
+		assertEquals("hvac-00000", result.get("first"));
+		assertEquals("hvac-01199", result.get("last"));
+		verify(deviceDao, times(1200)).insert(any(PropertyDevice.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void generateNeedsACounter() throws Exception {
+		// setup
+		when(loaderDao.getDevice("hvac")).thenReturn(Mockito.mock(PropertyDeviceDetails.class));
+
+		// execute
+		deviceService.generate("hvac", 10, "hvac", null, DeviceService.SECRET_RANDOM);
+	}
+
+	@Test
+	public void generatedIdPadsTheCounter() throws Exception {
+		// assert
+		assertEquals("a-007-b", DeviceService.generatedId("a-", 7, 3, "-b"));
+		assertEquals("a-1234", DeviceService.generatedId("a-", 1234, 3, ""));
+	}
 }
@@ -7,6 +7,8 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -15,14 +17,20 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.oracle.iot.dao.MessagingDao;
+import com.oracle.iot.dao.MessagingDao.AlreadyActivatedException;
 import com.oracle.iot.model.IOTDevice;
 
+import oracle.iot.message.Message;
+
 @RunWith(MockitoJUnitRunner.class)
 public class MessagingServiceTest {
 
 	@Mock
 	MessagingDao dao;
 
+	@Mock
+	SystemConfigService systemConfigService;
+
 	@InjectMocks
 	MessagingService service;
 
@@ -49,6 +57,129 @@ public class MessagingServiceTest {
 		verify(dao, never()).savePrivateKey(id, key);
 	}
 
+	@Test
+	public void sendMessagesReusesValidToken() throws Exception {
+		// setup
+		String id = "Test-123";
+		byte[] key = "privatebyteSizedKey".getBytes();
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn(id);
+
+		when(dao.getPrivateKey(id)).thenReturn(key);
+		when(dao.hasValidToken(eq(id), any(Long.class))).thenReturn(true);
+
+		// execute
+		service.sendMessages(device, "server", 9001, true, "username", "password");
+
+		// assert
+		verify(dao, never()).authenticate(any(byte[].class), any(String.class));
+		verify(dao, times(1)).sendMessage(eq(id), any(Message.class));
+	}
+
+	@Test
+	public void sendMessagesThroughGateway() throws Exception {
+		// setup
+		String gatewayId = "GW-1";
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn("Test-123");
+		when(device.getDeviceModel()).thenReturn("urn:test");
+		when(systemConfigService.getGatewayMode()).thenReturn(true);
+		when(systemConfigService.getGatewayId()).thenReturn(gatewayId);
+		when(systemConfigService.getGatewaySecret()).thenReturn("secret");
+		when(dao.getPrivateKey(gatewayId)).thenReturn("privatebyteSizedKey".getBytes());
+		when(dao.hasValidToken(eq(gatewayId), any(Long.class))).thenReturn(true);
+		when(dao.registerIndirectDevice(gatewayId, "Test-123", "urn:test")).thenReturn("0-AB");
+
+		// execute
+		service.sendMessages(device, "server", 9001, true, "username", "password");
+
+		// assert
+		verify(dao, times(1)).createConnection("server", 9001, "username", "password", gatewayId, "secret");
+		verify(dao, never()).createConnection(any(String.class), any(Integer.class), any(String.class),
+				any(String.class), eq("Test-123"), any(String.class));
+		verify(device, times(1)).setEndpointId("0-AB");
+		verify(dao, times(1)).sendMessage(eq(gatewayId), any(Message.class));
+	}
+
+	@Test(expected = AlreadyActivatedException.class)
+	public void sendMessagesPassesOnRefusedActivation() throws Exception {
+		// setup
+		String id = "Test-123";
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn(id);
+		when(dao.activationLock(id)).thenReturn(new Object());
+		when(dao.activateDevice(id)).thenThrow(new AlreadyActivatedException(id));
+
+		// execute
+		service.sendMessages(device, "server", 9001, true, "username", "password");
+	}
+
+	@Test
+	public void sendMessagesSkipsDeviceActivatedInBulkMeanwhile() throws Exception {
+		// setup
+		String id = "Test-123";
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn(id);
+		when(dao.activationLock(id)).thenReturn(new Object());
+		when(dao.getPrivateKey(id)).thenReturn(null, "privatebyteSizedKey".getBytes());
+		when(dao.hasValidToken(eq(id), any(Long.class))).thenReturn(true);
+
+		// execute
+		service.sendMessages(device, "server", 9001, true, "username", "password");
+
+		// assert
+		verify(dao, never()).activateDevice(any(String.class));
+		verify(dao, never()).savePrivateKey(eq(id), any(byte[].class));
+		verify(dao, times(1)).sendMessage(eq(id), any(Message.class));
+	}
+
+	@Test
+	public void sendMessagesSkipsDeviceThatFailsToRegister() throws Exception {
+		// setup
+		String gatewayId = "GW-1";
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn("Test-123");
+		when(device.getDeviceModel()).thenReturn("urn:test");
+		when(systemConfigService.getGatewayMode()).thenReturn(true);
+		when(systemConfigService.getGatewayId()).thenReturn(gatewayId);
+		when(systemConfigService.getGatewaySecret()).thenReturn("secret");
+		when(dao.getPrivateKey(gatewayId)).thenReturn("privatebyteSizedKey".getBytes());
+		when(dao.hasValidToken(eq(gatewayId), any(Long.class))).thenReturn(true);
+		when(dao.registerIndirectDevice(gatewayId, "Test-123", "urn:test")).thenThrow(new IOException("HTTP 500"));
+
+		// execute
+		service.sendMessages(device, "server", 9001, true, "username", "password");
+
+		// assert
+		verify(device, never()).setEndpointId(any(String.class));
+		verify(dao, never()).sendMessage(eq(gatewayId), any(Message.class));
+	}
+
+	@Test
+	public void sendMessagesSkipsGatewayActivatedByAnotherWorker() throws Exception {
+		// setup
+		String gatewayId = "GW-1";
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn("Test-123");
+		when(device.getEndpointId()).thenReturn("0-AB");
+		when(systemConfigService.getGatewayMode()).thenReturn(true);
+		when(systemConfigService.getGatewayId()).thenReturn(gatewayId);
+		when(systemConfigService.getGatewaySecret()).thenReturn("secret");
+		when(dao.activationLock(gatewayId)).thenReturn(new Object());
+		// not activated when first looked at, activated once the lock is held
+		when(dao.getPrivateKey(gatewayId)).thenReturn(null, "privatebyteSizedKey".getBytes());
+		when(dao.hasValidToken(eq(gatewayId), any(Long.class))).thenReturn(true);
+
+		// execute
+		service.sendMessages(device, "server", 9001, true, "username", "password");
+
+		// assert
+		verify(dao, times(1)).activationLock(gatewayId);
+		verify(dao, never()).activateDevice(any(String.class));
+		verify(dao, never()).authenticate(any(byte[].class), any(String.class));
+		verify(dao, times(1)).sendMessage(eq(gatewayId), any(Message.class));
+	}
+
 	@Test
 	public void sendMessagesServerSendingIsOnNoExistingPrivateKey() throws Exception {
 		// setup
@@ -62,6 +193,7 @@ public class MessagingServiceTest {
 		when(device.getSecret()).thenReturn(secret);
 
 		when(dao.getPrivateKey(id)).thenReturn(null);
+		when(dao.activationLock(id)).thenReturn(new Object());
 
 		// execute
 		service.sendMessages(device, iotcsServer, iotcsPort, sendMessages,"username","password");
@@ -0,0 +1,206 @@
+package com.oracle.iot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.oracle.iot.model.IOTDevice;
+
+public class MetricStreamServiceTest {
+
+	// runs the sends when the test says so
+	private final List<Runnable> pending = new ArrayList<Runnable>();
+	private final MetricStreamService service = new MetricStreamService(new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			pending.add(command);
+		}
+	});
+
+	private void runSends() {
+		while (!pending.isEmpty()) {
+			pending.remove(0).run();
+		}
+	}
+
+	private IOTDevice device(String id, Object... changed) {
+		IOTDevice device = Mockito.mock(IOTDevice.class);
+		when(device.getId()).thenReturn(id);
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < changed.length; i += 2) {
+			metrics.put((String) changed[i], changed[i + 1]);
+		}
+		when(device.getChangedMetrics()).thenReturn(metrics);
+		return device;
+	}
+
+	private static class Collected implements MetricStreamService.Sink {
+		private final List<String> events = new ArrayList<String>();
+		private int keepAlives;
+		private boolean broken;
+
+		@Override
+		public void send(String event) throws IOException {
+			if (broken) {
+				throw new IOException("gone");
+			}
+			events.add(event);
+		}
+
+		@Override
+		public void keepAlive() throws IOException {
+			if (broken) {
+				throw new IOException("gone");
+			}
+			keepAlives++;
+		}
+	}
+
+	@Test
+	public void publishSendsTheChangedValues() throws Exception {
+		// setup
+		Collected sink = new Collected();
+		service.subscribe(Arrays.asList("a"), sink);
+
+		// execute
+		service.publish(device("a", "Temp", 30.0, "Vibration", 1.0));
+		service.publish(device("a"));
+		service.publish(device("a", "Temp", 31.0));
+		service.publish(device("b", "Temp", 5.0));
+		runSends();
+
+		// assert
+		assertEquals(Arrays.asList("{\"id\":\"a\",\"metrics\":{\"Temp\":30.0,\"Vibration\":1.0}}",
+				"{\"id\":\"a\",\"metrics\":{\"Temp\":31.0}}"), sink.events);
+	}
+
+	@Test
+	public void unwatchedDevicesAreNotAsked() throws Exception {
+		// setup
+		service.subscribe(Arrays.asList("a"), new Collected());
+		IOTDevice device = device("b", "Temp", 5.0);
+
+		// execute
+		service.publish(device);
+
+		// assert
+		Mockito.verify(device, Mockito.never()).getChangedMetrics();
+		assertTrue(pending.isEmpty());
+	}
+
+	@Test
+	public void everyDeviceSubscriptionSeesAll() throws Exception {
+		// setup
+		Collected sink = new Collected();
+		service.subscribe(null, sink);
+
+		// execute
+		service.publish(device("a", "Temp", 30.0));
+		service.publish(device("b", "Temp", 5.0));
+		runSends();
+
+		// assert
+		assertEquals(Arrays.asList("{\"id\":\"a\",\"metrics\":{\"Temp\":30.0}}",
+				"{\"id\":\"b\",\"metrics\":{\"Temp\":5.0}}"), sink.events);
+	}
+
+	@Test
+	public void unsubscribedGetsNothing() throws Exception {
+		// setup
+		Collected sink = new Collected();
+		MetricStreamService.Subscription subscription = service.subscribe(Arrays.asList("a"), sink);
+
+		// execute
+		service.unsubscribe(subscription);
+		service.publish(device("a", "Temp", 30.0));
+		runSends();
+
+		// assert
+		assertTrue(sink.events.isEmpty());
+	}
+
+	@Test
+	public void manyWatchersShareOneSendPerEvent() throws Exception {
+		// setup
+		List<Collected> sinks = new ArrayList<Collected>();
+		for (int i = 0; i < 100; i++) {
+			Collected sink = new Collected();
+			sinks.add(sink);
+			service.subscribe(Arrays.asList("a"), sink);
+		}
+
+		// execute
+		service.publish(device("a", "Temp", 30.0));
+		service.publish(device("a", "Temp", 31.0));
+
+		// assert
+		assertEquals(100, pending.size());
+		runSends();
+		for (Collected sink : sinks) {
+			assertEquals(2, sink.events.size());
+		}
+	}
+
+	@Test
+	public void brokenSinkIsUnsubscribed() throws Exception {
+		// setup
+		Collected sink = new Collected();
+		sink.broken = true;
+		service.subscribe(Arrays.asList("a"), sink);
+
+		// execute
+		service.publish(device("a", "Temp", 30.0));
+		runSends();
+		service.publish(device("a", "Temp", 31.0));
+
+		// assert
+		assertTrue(pending.isEmpty());
+	}
+
+	@Test
+	public void keepAliveOnlyOnQuietStreams() throws Exception {
+		// setup
+		Collected quiet = new Collected();
+		Collected busy = new Collected();
+		service.subscribe(Arrays.asList("a"), quiet);
+		service.subscribe(null, busy);
+
+		// execute
+		service.publish(device("b", "Temp", 5.0));
+		service.keepAlive();
+		runSends();
+
+		// assert
+		assertEquals(1, quiet.keepAlives);
+		assertEquals(0, busy.keepAlives);
+		assertEquals(1, busy.events.size());
+	}
+
+	@Test
+	public void slowWatcherLosesOldestEvents() throws Exception {
+		// setup
+		Collected sink = new Collected();
+		service.subscribe(Arrays.asList("a"), sink);
+
+		// execute
+		for (int i = 0; i < MetricStreamService.QUEUE_SIZE + 10; i++) {
+			service.publish(device("a", "Temp", (double) i));
+		}
+		runSends();
+
+		// assert
+		assertEquals(MetricStreamService.QUEUE_SIZE, sink.events.size());
+		assertEquals("{\"id\":\"a\",\"metrics\":{\"Temp\":10.0}}", sink.events.get(0));
+	}
+}
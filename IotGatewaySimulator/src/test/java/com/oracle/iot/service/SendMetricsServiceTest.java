@@ -0,0 +1,110 @@
+package com.oracle.iot.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class SendMetricsServiceTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void snapshotHoldsLatencyPerStage() throws Exception {
+		// setup
+		SendMetricsService metrics = new SendMetricsService();
+
+		// execute
+		for (int i = 1; i <= 1000; i++) {
+			metrics.recordMillis(SendMetricsService.HTTP_POST, i);
+		}
+		metrics.recordMillis("unknown", 5);
+		Map<String, Object> snapshot = metrics.snapshot();
+
+		// assert
+		Map<String, Object> latency = (Map<String, Object>) snapshot.get("latency");
+		Map<String, Object> post = (Map<String, Object>) latency.get(SendMetricsService.HTTP_POST);
+		assertEquals(1000L, post.get("count"));
+		assertEquals(500.5d, (Double) post.get("mean"), 1e-9);
+		assertEquals(500d, (Double) post.get("p50"), 5);
+		assertEquals(990d, (Double) post.get("p99"), 10);
+		assertEquals(1000d, (Double) post.get("max"), 0d);
+		assertEquals(990d, metrics.getLatency(SendMetricsService.HTTP_POST, 0.99), 10);
+		Map<String, Object> token = (Map<String, Object>) latency.get(SendMetricsService.TOKEN_RENEWAL);
+		assertEquals(0L, token.get("count"));
+		assertNull(token.get("p50"));
+		assertEquals(-1d, metrics.getLatency("unknown", 0.5), 0d);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void countsMessagesStatusesAndExceptions() throws Exception {
+		// setup
+		SendMetricsService metrics = new SendMetricsService();
+
+		// execute
+		metrics.batch(20, true);
+		metrics.batch(5, false);
+		metrics.status(202);
+		metrics.status(202);
+		metrics.status(401);
+		metrics.status(999);
+		metrics.exception(new IOException());
+		metrics.exception(new IOException());
+		metrics.exception(new IllegalStateException());
+		Map<String, Object> snapshot = metrics.snapshot();
+
+		// assert
+		Map<String, Object> messages = (Map<String, Object>) snapshot.get("messages");
+		assertEquals(20L, messages.get("sent"));
+		assertEquals(5L, messages.get("failed"));
+		assertEquals(1L, messages.get("batchesSent"));
+		Map<String, Object> http = (Map<String, Object>) snapshot.get("http");
+		assertEquals(2L, http.get("2xx"));
+		assertEquals(1L, http.get("4xx"));
+		assertEquals(0L, http.get("5xx"));
+		Map<String, Object> exceptions = (Map<String, Object>) snapshot.get("exceptions");
+		assertEquals(2L, exceptions.get("IOException"));
+		assertEquals(1L, exceptions.get("IllegalStateException"));
+		assertEquals(3L, metrics.getExceptions());
+	}
+
+	@Test
+	public void rateKeepsCountsAddedWhileSlotMovesOn() throws Exception {
+		// setup
+		final SendMetricsService.Rate rate = new SendMetricsService.Rate();
+		final long now = 1500000000000L;
+		// the slot still holds the second a minute ago
+		rate.add(now - 60000, 7);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 10000; i++) {
+						rate.add(now, 1);
+					}
+				}
+			});
+			threads[t].start();
+		}
+
+		// execute
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// assert
+		assertEquals(80000d / 60, rate.perSecond(now + 1000), 1e-9);
+	}
+}
@@ -0,0 +1,104 @@
+package com.oracle.iot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompressedSeriesTest {
+
+	@Test
+	public void readsBackEveryPoint() throws Exception {
+		// setup
+		CompressedSeries series = new CompressedSeries();
+		Random random = new Random(7);
+		long[] times = new long[5000];
+		double[] values = new double[times.length];
+		long time = 1450000000000L;
+		for (int i = 0; i < times.length; i++) {
+			// steady, jittered and far apart report times, odd values
+			int kind = random.nextInt(4);
+			time += kind == 0 ? 2000 : kind == 1 ? 2000 + random.nextInt(600) - 300 : random.nextInt(100000);
+			times[i] = time;
+			values[i] = kind == 3 ? Double.NaN : Constants.roundHalfUp(random.nextGaussian() * 50, 2);
+		}
+
+		// execute
+		for (int i = 0; i < times.length; i++) {
+			series.add(times[i], values[i]);
+		}
+		List<Object[]> points = series.query(Long.MIN_VALUE, Long.MAX_VALUE, 0);
+
+		// assert
+		assertEquals(times.length, series.size());
+		assertEquals(times.length, points.size());
+		for (int i = 0; i < times.length; i++) {
+			assertEquals(times[i], points.get(i)[0]);
+			assertEquals(values[i], (Double) points.get(i)[1], 0);
+		}
+	}
+
+	@Test
+	public void steadyValuesTakeAFewBits() throws Exception {
+		// setup
+		CompressedSeries series = new CompressedSeries();
+
+		// execute
+		for (int i = 0; i < 10000; i++) {
+			series.add(1450000000000L + i * 2000L, i % 100 < 50 ? 21.5 : 22.0);
+		}
+
+		// assert
+		assertTrue(series.bytes() + " bytes", series.bytes() < 10000);
+	}
+
+	@Test
+	public void queryAveragesPerStep() throws Exception {
+		// setup
+		CompressedSeries series = new CompressedSeries();
+		for (int i = 0; i < 10; i++) {
+			series.add(i * 1000L, i);
+		}
+
+		// execute
+		List<Object[]> points = series.query(2000, 7000, 3000);
+
+		// assert
+		assertEquals(3, points.size());
+		assertEquals(0L, points.get(0)[0]);
+		assertEquals(2.0, (Double) points.get(0)[1], 0);
+		assertEquals(3000L, points.get(1)[0]);
+		assertEquals(4.0, (Double) points.get(1)[1], 0);
+		assertEquals(6000L, points.get(2)[0]);
+		assertEquals(6.5, (Double) points.get(2)[1], 0);
+	}
+
+	@Test
+	public void trimsWholeBlocksFromTheOldEnd() throws Exception {
+		// setup
+		CompressedSeries series = new CompressedSeries();
+		Random random = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			series.add(i * 1000L, random.nextDouble());
+		}
+		long bytes = series.bytes();
+
+		// execute
+		series.trimBefore(1000000L);
+
+		// assert
+		assertTrue(series.bytes() < bytes);
+		List<Object[]> points = series.query(Long.MIN_VALUE, Long.MAX_VALUE, 0);
+		assertTrue((Long) points.get(0)[0] <= 1000000L);
+		assertEquals(1999000L, points.get(points.size() - 1)[0]);
+		while (series.dropOldest()) {
+			// down to the open block
+		}
+		assertFalse(series.dropOldest());
+		assertTrue(series.size() > 0);
+	}
+}
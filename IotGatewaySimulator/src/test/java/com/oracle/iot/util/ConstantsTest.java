@@ -1,8 +1,12 @@
 package com.oracle.iot.util;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigDecimal;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class ConstantsTest {
@@ -71,4 +75,23 @@ public class ConstantsTest {
 		// assert
 		assertTrue(isWithin);
 	}
+
+	@Test
+	public void testRoundHalfUp_MatchesBigDecimal() throws Exception {
+		// setup
+		Random random = new Random(42);
+		double[] ties = { 0.125, -0.125, 2.675, 1.005, 0.005, -0.005, 1e9, 12345.675 };
+
+		for (double value : ties) {
+			// execute / assert
+			assertEquals(new BigDecimal(value).setScale(2, BigDecimal.ROUND_HALF_UP).doubleValue(),
+					Constants.roundHalfUp(value, 2), 0d);
+		}
+		for (int i = 0; i < 100000; i++) {
+			double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+			// execute / assert
+			assertEquals(new BigDecimal(value).setScale(2, BigDecimal.ROUND_HALF_UP).doubleValue(),
+					Constants.roundHalfUp(value, 2), 0d);
+		}
+	}
 }
@@ -0,0 +1,75 @@
+package com.oracle.iot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+
+	@Test
+	public void quantilesWithinOnePercent() throws Exception {
+		// setup
+		LogHistogram histogram = new LogHistogram();
+		Random random = new Random(11);
+		double[] values = new double[10000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextGaussian() * 40 + 5;
+		}
+
+		// execute
+		for (double value : values) {
+			histogram.add(value);
+		}
+
+		// assert
+		Arrays.sort(values);
+		assertEquals(values.length, histogram.getCount());
+		for (double fraction : new double[] { 0, 0.1, 0.5, 0.9, 0.99, 1 }) {
+			double expected = values[(int) Math.floor(fraction * (values.length - 1))];
+			assertEquals(expected, histogram.quantile(fraction), Math.abs(expected) * 0.01 + 1e-9);
+		}
+	}
+
+	@Test
+	public void removeTakesValuesBack() throws Exception {
+		// setup
+		LogHistogram histogram = new LogHistogram();
+		histogram.add(-3);
+		histogram.add(0);
+		histogram.add(1000);
+
+		// execute
+		histogram.remove(1000);
+		histogram.remove(-3);
+
+		// assert
+		assertEquals(1, histogram.getCount());
+		assertEquals(0d, histogram.getMax(), 0d);
+		histogram.remove(0);
+		assertNull(histogram.quantile(0.5));
+	}
+
+	@Test
+	public void mergeAddsCounts() throws Exception {
+		// setup
+		LogHistogram low = new LogHistogram();
+		LogHistogram high = new LogHistogram();
+		for (int i = 1; i <= 100; i++) {
+			low.add(i);
+			high.add(i * 1000);
+		}
+
+		// execute
+		low.merge(high);
+
+		// assert
+		assertEquals(200, low.getCount());
+		assertEquals(1d, low.getMin(), 0.01);
+		assertEquals(100000d, low.getMax(), 1000);
+		assertEquals(100d, low.quantile(0.5), 1);
+	}
+}
@@ -0,0 +1,98 @@
+package com.oracle.iot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+	private static final long START = 1000000L;
+
+	@Test
+	public void advance_FiresAtDeadline() throws Exception {
+		// setup
+		TimingWheel wheel = new TimingWheel(100, 8, 3, START);
+		wheel.schedule("a", START + 500);
+
+		// execute
+		List<TimingWheel.Entry> early = wheel.advance(START + 400);
+		List<TimingWheel.Entry> due = wheel.advance(START + 500);
+
+		// assert
+		assertTrue(early.isEmpty());
+		assertEquals(1, due.size());
+		assertEquals("a", due.get(0).getId());
+		assertEquals(START + 500, due.get(0).getDeadline());
+		assertFalse(wheel.contains("a"));
+	}
+
+	@Test
+	public void advance_CascadesLongDeadlines() throws Exception {
+		// setup: 8 slots x 3 levels covers 512 ticks, beyond that entries are parked
+		TimingWheel wheel = new TimingWheel(100, 8, 3, START);
+		long[] deadlines = { 900, 6500, 51200, 80000 };
+		for (long deadline : deadlines) {
+			wheel.schedule("d" + deadline, START + deadline);
+		}
+
+		// execute / assert: each entry fires on the first advance past its deadline
+		for (long deadline : deadlines) {
+			assertTrue(wheel.advance(START + deadline - 100).isEmpty());
+			List<TimingWheel.Entry> due = wheel.advance(START + deadline);
+			assertEquals(1, due.size());
+			assertEquals("d" + deadline, due.get(0).getId());
+		}
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void cancel_RemovesEntry() throws Exception {
+		// setup
+		TimingWheel wheel = new TimingWheel(100, 8, 3, START);
+		wheel.schedule("a", START + 300);
+		wheel.schedule("b", START + 300);
+
+		// execute
+		boolean cancelled = wheel.cancel("a");
+		List<TimingWheel.Entry> due = wheel.advance(START + 300);
+
+		// assert
+		assertTrue(cancelled);
+		assertEquals(1, due.size());
+		assertEquals("b", due.get(0).getId());
+	}
+
+	@Test
+	public void schedule_ReplacesExistingDeadline() throws Exception {
+		// setup
+		TimingWheel wheel = new TimingWheel(100, 8, 3, START);
+		wheel.schedule("a", START + 300);
+
+		// execute
+		wheel.schedule("a", START + 2000);
+		List<TimingWheel.Entry> first = wheel.advance(START + 1000);
+		List<TimingWheel.Entry> second = wheel.advance(START + 2000);
+
+		// assert
+		assertTrue(first.isEmpty());
+		assertEquals(1, second.size());
+	}
+
+	@Test
+	public void schedule_PastDeadlineFiresOnNextTick() throws Exception {
+		// setup
+		TimingWheel wheel = new TimingWheel(100, 8, 3, START);
+		wheel.advance(START + 1000);
+
+		// execute
+		wheel.schedule("a", START + 200);
+		List<TimingWheel.Entry> due = wheel.advance(START + 1100);
+
+		// assert
+		assertEquals(1, due.size());
+	}
+}